@@ -12,4 +12,38 @@ public class Constants {
 
     public static final int DEFAULT_WARM_UP_TIME = 10 * 60 * 1000;
 
+    //调用的默认超时时间(毫秒)
+    public static final long DEFAULT_TIMEOUT = 3 * 1000;
+
+    //到每个提供者地址的连接数
+    public static final int DEFAULT_CONNECTIONS_PER_ADDRESS = 1;
+
+    //单个消息体的最大字节数
+    public static final int DEFAULT_MAX_BODY_SIZE = 8 * 1024 * 1024;
+
+    //消费者没有写出消息时发送心跳的间隔(毫秒)
+    public static final long DEFAULT_HEARTBEAT_INTERVAL = 30 * 1000;
+
+    //提供者在这段时间(毫秒)内没有收到任何消息时断开连接, 至少是心跳间隔的2倍
+    public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    //消息体达到这个字节数时才压缩
+    public static final int DEFAULT_COMPRESS_THRESHOLD = 4 * 1024;
+
+    //合并写出时一个BATCH消息最多包含的消息数
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    //合并flush时最多写出这么多消息后flush一次
+    public static final int DEFAULT_FLUSH_AFTER = 256;
+
+    //连接的写缓冲超过高水位时变为不可写, 降到低水位以下时恢复
+    public static final int DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 512 * 1024;
+
+    public static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 1024 * 1024;
+
+    //自适应并发上限的初始值和最大值
+    public static final int DEFAULT_INITIAL_CONCURRENCY_LIMIT = 20;
+
+    public static final int DEFAULT_MAX_CONCURRENCY_LIMIT = 1000;
+
 }
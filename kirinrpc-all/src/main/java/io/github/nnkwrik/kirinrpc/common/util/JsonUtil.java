@@ -3,6 +3,7 @@ package io.github.nnkwrik.kirinrpc.common.util;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
@@ -22,7 +23,7 @@ public class JsonUtil {
 
     public static Map<String, String> fromJson(String rawData, TypeReference typeReference) {
         try {
-            ObjectMapper mapper = new ObjectMapper();
+            ObjectMapper mapper = newReader();
             return mapper.readValue(rawData, typeReference);
 
         } catch (IOException e) {
@@ -33,7 +34,7 @@ public class JsonUtil {
 
     public static <T> T fromJson(String rawData, Class<T> classType) {
         try {
-            ObjectMapper mapper = new ObjectMapper();
+            ObjectMapper mapper = newReader();
             return mapper.readValue(rawData, classType);
         } catch (IOException e) {
             e.printStackTrace();
@@ -41,6 +42,12 @@ public class JsonUtil {
         return null;
     }
 
+    //忽略不认识的字段, 以后在节点数据中增加的字段不影响解析.
+    //老版本的消费者没有这个设置, 所以新增的字段不能放在节点路径中(见ZookeeperRegistryClient)
+    private static ObjectMapper newReader() {
+        return new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
     public static String toJson(Object object) {
 
         ObjectMapper mapper = new ObjectMapper()
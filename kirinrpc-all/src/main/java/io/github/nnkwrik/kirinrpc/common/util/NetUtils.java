@@ -1,5 +1,11 @@
 package io.github.nnkwrik.kirinrpc.common.util;
 
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -25,4 +31,33 @@ public class NetUtils {
         return !isInvalidLocalHost(host);
     }
 
+    /**
+     * host是否是本机的地址
+     */
+    public static boolean isLocalAddress(String host) {
+        if (isInvalidLocalHost(host)) {
+            return true;
+        }
+        return LocalAddressesHolder.addresses.contains(host);
+    }
+
+    //本机所有网卡的地址, 第一次使用时加载
+    private static class LocalAddressesHolder {
+        private static final Set<String> addresses = new HashSet<>();
+
+        static {
+            try {
+                Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+                while (interfaces != null && interfaces.hasMoreElements()) {
+                    Enumeration<InetAddress> inetAddresses = interfaces.nextElement().getInetAddresses();
+                    while (inetAddresses.hasMoreElements()) {
+                        addresses.add(inetAddresses.nextElement().getHostAddress());
+                    }
+                }
+            } catch (SocketException e) {
+                //找不到时只认为回环地址是本机
+            }
+        }
+    }
+
 }
@@ -0,0 +1,40 @@
+package io.github.nnkwrik.kirinrpc.compress;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 消息体压缩算法. 实现必须是线程安全的
+ *
+ * @author nnkwrik
+ * @date 19/06/13 14:10
+ */
+public interface Compressor {
+
+    /**
+     * 协议中使用的编号, 1~15, 0表示不压缩
+     */
+    byte id();
+
+    /**
+     * 配置和注册中心中使用的名字
+     */
+    String name();
+
+    /**
+     * 把in的可读部分压缩后写入out, 读取后in的可读部分被消费
+     *
+     * @param in
+     * @param out
+     */
+    void compress(ByteBuf in, ByteBuf out);
+
+    /**
+     * 把in的可读部分解压后写入out, 解压后的长度必须是length
+     *
+     * @param in
+     * @param out
+     * @param length
+     */
+    void decompress(ByteBuf in, ByteBuf out, int length);
+
+}
@@ -0,0 +1,191 @@
+package io.github.nnkwrik.kirinrpc.compress;
+
+import io.github.nnkwrik.kirinrpc.compress.lz4.Lz4Compressor;
+import io.github.nnkwrik.kirinrpc.compress.snappy.SnappyCompressor;
+import io.github.nnkwrik.kirinrpc.compress.zstd.ZstdCompressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 当前进程可用的压缩算法, 以及压缩后的消息体格式.
+ * <p>
+ * 压缩后的消息体 = 1 // 压缩算法的id
+ * + 4 // 压缩前的长度
+ * + 压缩后的数据
+ * <p>
+ * 协商方式: 提供者在注册中心中公布自己能解压的算法, 消费者从中选出自己也支持的第一个算法,
+ * 并在每个请求的协议头中告诉提供者. 提供者把它记在连接上, 之后用同一个算法压缩响应.
+ * 任何一方是老版本时都不会选出算法, 双方继续不压缩地通信.
+ * 双方都支持握手时, 改为在连接建立时用同样的规则协商(见Capabilities), 不再依赖注册中心中的信息.
+ *
+ * @author nnkwrik
+ * @date 19/06/13 14:50
+ */
+@Slf4j
+public final class Compressors {
+
+    public static final int PREFIX_SIZE = 5;
+
+    //提供者一侧, 消费者在这个连接上能接受的算法
+    private static final AttributeKey<Compressor> ACCEPTED_KEY = AttributeKey.valueOf("kirin.acceptedCompressor");
+
+    private static final Compressor[] compressors = new Compressor[16];
+
+    private static final List<Compressor> available;
+
+    static {
+        List<Compressor> list = new ArrayList<>();
+        //按优先级从高到低, 依赖不在classpath上的算法跳过
+        addIfAvailable(list, "net.jpountz.lz4.LZ4Factory", Lz4Compressor::new);
+        addIfAvailable(list, "com.github.luben.zstd.Zstd", ZstdCompressor::new);
+        addIfAvailable(list, null, SnappyCompressor::new);
+        for (Compressor compressor : list) {
+            compressors[compressor.id()] = compressor;
+        }
+        available = Collections.unmodifiableList(list);
+        log.info("Available compressors: {}.", names());
+    }
+
+    private Compressors() {
+    }
+
+    private static void addIfAvailable(List<Compressor> list, String dependency, Supplier<Compressor> factory) {
+        try {
+            if (dependency != null) {
+                Class.forName(dependency, false, Compressors.class.getClassLoader());
+            }
+            list.add(factory.get());
+        } catch (Throwable t) {
+            log.debug("Compressor is unavailable: {}.", t.toString());
+        }
+    }
+
+    /**
+     * id对应的算法, 不支持时返回null
+     */
+    public static Compressor get(int id) {
+        return id > 0 && id < compressors.length ? compressors[id] : null;
+    }
+
+    /**
+     * 当前进程支持的算法名, 以逗号分隔. 提供者把它公布在注册中心中
+     */
+    public static String names() {
+        StringBuilder names = new StringBuilder();
+        for (Compressor compressor : available) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(compressor.name());
+        }
+        return names.toString();
+    }
+
+    /**
+     * 消费者一侧. 按preferred的顺序选出第一个双方都支持的算法, 没有时返回null
+     *
+     * @param preferred  消费者配置的算法名, 以逗号分隔
+     * @param advertised 提供者公布的算法名, 以逗号分隔
+     */
+    public static Compressor negotiate(String preferred, String advertised) {
+        if (preferred == null || advertised == null) {
+            return null;
+        }
+        List<String> supported = new ArrayList<>();
+        for (String name : advertised.split(",")) {
+            supported.add(name.trim());
+        }
+        for (String name : preferred.split(",")) {
+            name = name.trim();
+            if (!supported.contains(name)) {
+                continue;
+            }
+            for (Compressor compressor : available) {
+                if (compressor.name().equals(name)) {
+                    return compressor;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 提供者一侧. 记录消费者在这个连接上能接受的算法
+     */
+    public static void accept(Channel channel, int id) {
+        Compressor compressor = get(id);
+        if (compressor != null && channel.attr(ACCEPTED_KEY).get() != compressor) {
+            channel.attr(ACCEPTED_KEY).set(compressor);
+        }
+    }
+
+    /**
+     * 提供者一侧. 消费者在这个连接上能接受的算法, 没有时返回null
+     */
+    public static Compressor accepted(Channel channel) {
+        return channel.attr(ACCEPTED_KEY).get();
+    }
+
+    /**
+     * 消息体达到threshold时压缩. 压缩后没有变小时返回null, 否则释放content并返回压缩后的消息体
+     */
+    public static ByteBuf compress(ByteBufAllocator alloc, Compressor compressor, ByteBuf content, int threshold) {
+        int length = content.readableBytes();
+        if (compressor == null || threshold < 0 || length < threshold) {
+            return null;
+        }
+        ByteBuf out = alloc.ioBuffer(PREFIX_SIZE + length);
+        try {
+            out.writeByte(compressor.id()).writeInt(length);
+            compressor.compress(content.duplicate(), out);
+        } catch (Throwable t) {
+            out.release();
+            throw t;
+        }
+        if (out.readableBytes() >= length) {
+            //不可压缩的数据, 原样发送
+            out.release();
+            return null;
+        }
+        content.release();
+        return out;
+    }
+
+    /**
+     * 解压消息体, 返回的buf由调用者释放. 解压后的长度来自对端, 超过maxLength时不分配直接失败
+     */
+    public static ByteBuf decompress(ByteBufAllocator alloc, ByteBuf content, int maxLength) {
+        if (content.readableBytes() < PREFIX_SIZE) {
+            throw new DecompressionException("Compressed body is too short: " + content.readableBytes());
+        }
+        int id = content.getByte(content.readerIndex());
+        int length = content.getInt(content.readerIndex() + 1);
+        Compressor compressor = get(id);
+        if (compressor == null) {
+            throw new DecompressionException("Unsupported compressor id: " + id);
+        }
+        if (length < 0 || length > maxLength) {
+            throw new DecompressionException("Invalid uncompressed length: " + length + ", the limit is " + maxLength);
+        }
+        //容量固定为length, 实际数据更长时写入失败, 不会继续扩容
+        ByteBuf out = alloc.ioBuffer(length, length);
+        try {
+            ByteBuf in = content.duplicate();
+            in.skipBytes(PREFIX_SIZE);
+            compressor.decompress(in, out, length);
+            return out;
+        } catch (Throwable t) {
+            out.release();
+            throw t;
+        }
+    }
+}
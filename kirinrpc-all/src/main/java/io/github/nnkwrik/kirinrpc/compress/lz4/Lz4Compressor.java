@@ -0,0 +1,67 @@
+package io.github.nnkwrik.kirinrpc.compress.lz4;
+
+import io.github.nnkwrik.kirinrpc.compress.Compressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.DecompressionException;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 使用lz4-java, 能加载JNI时使用native实现
+ *
+ * @author nnkwrik
+ * @date 19/06/13 14:30
+ */
+public class Lz4Compressor implements Compressor {
+
+    public static final byte ID = 0x02;
+
+    private final LZ4Compressor compressor;
+
+    //fastDecompressor信任对端给出的长度, 不检查输入的边界
+    private final LZ4SafeDecompressor decompressor;
+
+    public Lz4Compressor() {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.safeDecompressor();
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "lz4";
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        int length = in.readableBytes();
+        int maxLength = compressor.maxCompressedLength(length);
+        out.ensureWritable(maxLength);
+        ByteBuffer src = in.nioBuffer();
+        ByteBuffer dst = out.nioBuffer(out.writerIndex(), maxLength);
+        int written = compressor.compress(src, src.position(), length, dst, dst.position(), maxLength);
+        in.skipBytes(length);
+        out.writerIndex(out.writerIndex() + written);
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out, int length) {
+        out.ensureWritable(length);
+        ByteBuffer src = in.nioBuffer();
+        ByteBuffer dst = out.nioBuffer(out.writerIndex(), length);
+        int written = decompressor.decompress(src, src.position(), src.remaining(), dst, dst.position(), length);
+        if (written != length) {
+            throw new DecompressionException("Uncompressed length " + written + " differs from " + length);
+        }
+        in.skipBytes(in.readableBytes());
+        out.writerIndex(out.writerIndex() + length);
+    }
+}
@@ -0,0 +1,42 @@
+package io.github.nnkwrik.kirinrpc.compress.snappy;
+
+import io.github.nnkwrik.kirinrpc.compress.Compressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.Snappy;
+
+/**
+ * 使用netty自带的snappy实现, 不需要额外的依赖
+ *
+ * @author nnkwrik
+ * @date 19/06/13 14:20
+ */
+public class SnappyCompressor implements Compressor {
+
+    public static final byte ID = 0x01;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "snappy";
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        //Snappy有状态, 不能在线程之间共享
+        new Snappy().encode(in, out, in.readableBytes());
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out, int length) {
+        int start = out.writerIndex();
+        new Snappy().decode(in, out);
+        if (out.writerIndex() - start != length) {
+            throw new DecompressionException("Uncompressed length " + (out.writerIndex() - start) + " differs from " + length);
+        }
+    }
+}
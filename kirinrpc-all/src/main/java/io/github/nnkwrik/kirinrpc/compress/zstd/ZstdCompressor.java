@@ -0,0 +1,111 @@
+package io.github.nnkwrik.kirinrpc.compress.zstd;
+
+import com.github.luben.zstd.Zstd;
+import io.github.nnkwrik.kirinrpc.compress.Compressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.compression.CompressionException;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.util.internal.SystemPropertyUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 使用zstd-jni. 压缩率最高, CPU开销也最大, 适合跨机房等带宽昂贵的场景.
+ * JNI只接受直接内存, 堆上的buf先拷贝到直接内存中.
+ * <p>
+ * 通过系统属性kirin.compress.zstdLevel配置压缩级别, 默认3
+ *
+ * @author nnkwrik
+ * @date 19/06/13 14:40
+ */
+public class ZstdCompressor implements Compressor {
+
+    public static final byte ID = 0x03;
+
+    private static final int LEVEL = SystemPropertyUtil.getInt("kirin.compress.zstdLevel", 3);
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "zstd";
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        ByteBuf src = direct(in);
+        try {
+            int length = src.readableBytes();
+            int maxLength = (int) Zstd.compressBound(length);
+            out.ensureWritable(maxLength);
+            ByteBuf dst = out.isDirect() ? out : ByteBufAllocator.DEFAULT.directBuffer(maxLength);
+            try {
+                ByteBuffer srcBuffer = src.nioBuffer();
+                ByteBuffer dstBuffer = dst.nioBuffer(dst.writerIndex(), maxLength);
+                long written = Zstd.compressDirectByteBuffer(dstBuffer, dstBuffer.position(), maxLength,
+                        srcBuffer, srcBuffer.position(), length, LEVEL);
+                if (Zstd.isError(written)) {
+                    throw new CompressionException("Fail to compress: " + Zstd.getErrorName(written));
+                }
+                dst.writerIndex(dst.writerIndex() + (int) written);
+                if (dst != out) {
+                    out.writeBytes(dst);
+                }
+            } finally {
+                if (dst != out) {
+                    dst.release();
+                }
+            }
+        } finally {
+            if (src != in) {
+                src.release();
+            }
+            in.skipBytes(in.readableBytes());
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out, int length) {
+        ByteBuf src = direct(in);
+        try {
+            out.ensureWritable(length);
+            ByteBuf dst = out.isDirect() ? out : ByteBufAllocator.DEFAULT.directBuffer(length);
+            try {
+                ByteBuffer srcBuffer = src.nioBuffer();
+                ByteBuffer dstBuffer = dst.nioBuffer(dst.writerIndex(), length);
+                long read = Zstd.decompressDirectByteBuffer(dstBuffer, dstBuffer.position(), length,
+                        srcBuffer, srcBuffer.position(), src.readableBytes());
+                if (Zstd.isError(read) || read != length) {
+                    throw new DecompressionException("Fail to decompress: "
+                            + (Zstd.isError(read) ? Zstd.getErrorName(read) : "length " + read + " differs from " + length));
+                }
+                dst.writerIndex(dst.writerIndex() + length);
+                if (dst != out) {
+                    out.writeBytes(dst);
+                }
+            } finally {
+                if (dst != out) {
+                    dst.release();
+                }
+            }
+        } finally {
+            if (src != in) {
+                src.release();
+            }
+            in.skipBytes(in.readableBytes());
+        }
+    }
+
+    private static ByteBuf direct(ByteBuf buf) {
+        if (buf.isDirect() && buf.nioBufferCount() == 1) {
+            return buf;
+        }
+        ByteBuf copy = ByteBufAllocator.DEFAULT.directBuffer(buf.readableBytes());
+        copy.writeBytes(buf, buf.readerIndex(), buf.readableBytes());
+        return copy;
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.nnkwrik.kirinrpc.netty;
+
+import io.github.nnkwrik.kirinrpc.common.util.NetUtils;
+import io.github.nnkwrik.kirinrpc.netty.shm.ShmAddress;
+import io.github.nnkwrik.kirinrpc.registry.model.RegisterMeta;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.SystemPropertyUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 选择netty的传输层实现. Linux上能加载native库时使用epoll, 否则使用NIO.
+ * <p>
+ * 通过系统属性配置:
+ * <ul>
+ * <li>kirin.netty.native: 是否允许使用epoll, 默认true</li>
+ * <li>kirin.netty.edgeTriggered: epoll使用边缘触发(ET)还是水平触发(LT), 默认true</li>
+ * <li>kirin.netty.quickAck: 是否开启TCP_QUICKACK, 默认false</li>
+ * <li>kirin.netty.reusePort: 是否开启SO_REUSEPORT, 默认false</li>
+ * <li>kirin.netty.acceptors: 开启SO_REUSEPORT时在同一端口上bind的次数, 每次bind由一个boss线程负责accept</li>
+ * </ul>
+ *
+ * @author nnkwrik
+ * @date 19/06/12 10:20
+ */
+@Slf4j
+public final class NettyTransport {
+
+    //使用LocalChannel时的host, 端口号用来区分不同的提供者
+    public static final String LOCAL_HOST = "local";
+
+    private static final boolean EPOLL = SystemPropertyUtil.getBoolean("kirin.netty.native", true) && Epoll.isAvailable();
+
+    private static final boolean EDGE_TRIGGERED = SystemPropertyUtil.getBoolean("kirin.netty.edgeTriggered", true);
+
+    private static final boolean QUICK_ACK = SystemPropertyUtil.getBoolean("kirin.netty.quickAck", false);
+
+    private static final boolean REUSE_PORT = SystemPropertyUtil.getBoolean("kirin.netty.reusePort", false);
+
+    private static final int ACCEPTORS = Math.max(SystemPropertyUtil.getInt("kirin.netty.acceptors",
+            Runtime.getRuntime().availableProcessors()), 1);
+
+    static {
+        if (EPOLL) {
+            log.info("Use native epoll transport. [edgeTriggered = {}, quickAck = {}, reusePort = {}]",
+                    EDGE_TRIGGERED, QUICK_ACK, REUSE_PORT);
+        } else {
+            log.info("Use nio transport.{}", Epoll.isAvailable() ? "" : " Epoll is unavailable: " + Epoll.unavailabilityCause());
+        }
+    }
+
+    private NettyTransport() {
+    }
+
+    /**
+     * host为local时返回netty LocalChannel的地址, 走完整的pipeline但不经过内核网络栈. 用于测试和benchmark
+     */
+    public static SocketAddress socketAddress(String host, int port) {
+        if (LOCAL_HOST.equals(host)) {
+            return localAddress(port);
+        }
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
+    /**
+     * 提供者和当前进程在同一台主机上时, 可以不经过TCP协议栈的地址, 按共享内存, unix domain socket的顺序.
+     * 文件存在不代表提供者还在监听(如异常退出后残留的文件), 连接失败时由调用方改用TCP
+     */
+    public static List<SocketAddress> localSocketAddresses(RegisterMeta.Address address) {
+        String shmPath = address.getShmPath();
+        String socketPath = address.getSocketPath();
+        if ((shmPath == null && socketPath == null) || !NetUtils.isLocalAddress(address.getHost())) {
+            return Collections.emptyList();
+        }
+        List<SocketAddress> addresses = new ArrayList<>(2);
+        if (shmPath != null && new File(shmPath).isDirectory()) {
+            addresses.add(new ShmAddress(shmPath));
+        }
+        if (socketPath != null && isDomainSocketAvailable() && new File(socketPath).exists()) {
+            addresses.add(new DomainSocketAddress(socketPath));
+        }
+        return addresses;
+    }
+
+    /**
+     * netty只在epoll下支持unix domain socket
+     */
+    public static boolean isDomainSocketAvailable() {
+        return EPOLL;
+    }
+
+    public static LocalAddress localAddress(int port) {
+        return new LocalAddress("kirin-" + port);
+    }
+
+    public static boolean isEpoll() {
+        return EPOLL;
+    }
+
+    public static EventLoopGroup newEventLoopGroup(int nThreads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name);
+        return EPOLL ? new EpollEventLoopGroup(nThreads, threadFactory) : new NioEventLoopGroup(nThreads, threadFactory);
+    }
+
+    public static Class<? extends ServerChannel> serverChannelClass() {
+        return EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public static Class<? extends SocketChannel> socketChannelClass() {
+        return EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    /**
+     * 在同一个端口上bind的次数. 只有开启了SO_REUSEPORT时才会多次bind, 由内核在这些socket之间分配新连接
+     */
+    public static int acceptors() {
+        return EPOLL && REUSE_PORT ? ACCEPTORS : 1;
+    }
+
+    /**
+     * 设置只有epoll才支持的选项
+     */
+    public static void applyOptions(ServerBootstrap bootstrap) {
+        if (!EPOLL) {
+            return;
+        }
+        EpollMode mode = EDGE_TRIGGERED ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, mode)
+                .childOption(EpollChannelOption.EPOLL_MODE, mode);
+        if (REUSE_PORT) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        if (QUICK_ACK) {
+            bootstrap.childOption(EpollChannelOption.TCP_QUICKACK, true);
+        }
+    }
+
+    public static void applyOptions(Bootstrap bootstrap) {
+        if (!EPOLL) {
+            return;
+        }
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, EDGE_TRIGGERED ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED);
+        if (QUICK_ACK) {
+            bootstrap.option(EpollChannelOption.TCP_QUICKACK, true);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package io.github.nnkwrik.kirinrpc.netty;
+
+import io.github.nnkwrik.kirinrpc.netty.handler.ProtocolEncoder;
+import io.github.nnkwrik.kirinrpc.netty.model.BatchPayload;
+import io.github.nnkwrik.kirinrpc.netty.model.PayloadHolder;
+import io.github.nnkwrik.kirinrpc.netty.protocol.Capabilities;
+import io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 合并业务线程的写出, 挂在连接的attribute上.
+ * 业务线程只把消息放入队列, 第一个消息到达时在连接的eventLoop上安排一次写出,
+ * 写出时取出已经排队的消息一起写出并只flush一次, 避免每个消息一次系统调用.
+ * 一次最多写出flushAfter个消息, 剩下的留给eventLoop的下一个任务, 不让读事件等太久.
+ * <p>
+ * windowNanos不小于0且对端在握手时表示过能解析BATCH时, 还会等待windowNanos后把消息合并成BATCH消息写出.
+ * 窗口为0时不额外等待, 只合并eventLoop执行写出前已经排队的消息
+ *
+ * @author nnkwrik
+ * @date 19/06/22 10:40
+ */
+@Slf4j
+public class PayloadBatcher {
+
+    private static final AttributeKey<PayloadBatcher> BATCHER_KEY = AttributeKey.valueOf("kirin.batcher");
+
+    private final Channel channel;
+
+    private final long windowNanos;
+
+    private final int maxBatchSize;
+
+    private final int flushAfter;
+
+    private final Queue<Entry> queue = PlatformDependent.newMpscQueue();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final Runnable drainTask = this::drain;
+
+    private PayloadBatcher(Channel channel, long windowNanos, int maxBatchSize, int flushAfter) {
+        this.channel = channel;
+        this.windowNanos = windowNanos;
+        this.maxBatchSize = Math.max(maxBatchSize, 1);
+        this.flushAfter = Math.max(flushAfter, 1);
+    }
+
+    /**
+     * @param windowNanos 合并成BATCH消息的窗口, 小于0时只合并flush
+     */
+    public static PayloadBatcher of(Channel channel, long windowNanos, int maxBatchSize, int flushAfter) {
+        Attribute<PayloadBatcher> attr = channel.attr(BATCHER_KEY);
+        PayloadBatcher batcher = attr.get();
+        if (batcher == null) {
+            PayloadBatcher newBatcher = new PayloadBatcher(channel, windowNanos, maxBatchSize, flushAfter);
+            batcher = attr.setIfAbsent(newBatcher);
+            if (batcher == null) {
+                batcher = newBatcher;
+            }
+        }
+        return batcher;
+    }
+
+    /**
+     * 对端在握手时表示过能解析BATCH
+     */
+    public static boolean isSupported(Channel channel) {
+        Capabilities capabilities = Capabilities.get(channel);
+        return capabilities != null && capabilities.version() >= ProtocolHeader.VERSION_BATCH;
+    }
+
+    public void write(PayloadHolder payload, ChannelFutureListener listener) {
+        queue.offer(new Entry(payload, listener));
+        if (scheduled.compareAndSet(false, true)) {
+            schedule(windowNanos > 0 && isSupported(channel) ? windowNanos : 0);
+        }
+    }
+
+    private void schedule(long delayNanos) {
+        try {
+            if (delayNanos > 0) {
+                channel.eventLoop().schedule(drainTask, delayNanos, TimeUnit.NANOSECONDS);
+            } else {
+                channel.eventLoop().execute(drainTask);
+            }
+        } catch (RejectedExecutionException e) {
+            //eventLoop已经关闭, 写出会失败并通知每个消息的listener
+            drain();
+        }
+    }
+
+    private void drain() {
+        //先清除标志再取消息, 之后到达的消息会安排新的一次写出
+        scheduled.set(false);
+        boolean batch = windowNanos >= 0 && isSupported(channel);
+        List<Entry> entries = new ArrayList<>();
+        int count = 0;
+        Entry entry;
+        while (count < flushAfter && (entry = queue.poll()) != null) {
+            count++;
+            if (!batch) {
+                channel.write(entry.payload).addListener(entry.listener);
+                continue;
+            }
+            entries.add(entry);
+            if (entries.size() == maxBatchSize) {
+                write(channel, entries);
+                entries = new ArrayList<>();
+            }
+        }
+        if (!entries.isEmpty()) {
+            write(channel, entries);
+        }
+        channel.flush();
+
+        //还有没写出的消息, 在eventLoop处理完其他事件后继续
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            schedule(0);
+        }
+    }
+
+    /**
+     * 写出一组消息但不flush. 按对端的最大消息体拆分, 只有一个消息时按普通消息写出
+     */
+    public static void write(Channel channel, List<Entry> entries) {
+        Capabilities capabilities = Capabilities.get(channel);
+        int limit = capabilities != null ? capabilities.peerMaxBodySize() : Integer.MAX_VALUE;
+
+        List<Entry> group = new ArrayList<>();
+        long groupLength = 0;
+        for (Entry entry : entries) {
+            int length = ProtocolHeader.SUB_HEADER_SIZE + ProtocolEncoder.bodyLength(entry.payload);
+            if (!group.isEmpty() && groupLength + length > limit) {
+                writeGroup(channel, group);
+                group = new ArrayList<>();
+                groupLength = 0;
+            }
+            group.add(entry);
+            groupLength += length;
+        }
+        if (!group.isEmpty()) {
+            writeGroup(channel, group);
+        }
+    }
+
+    private static void writeGroup(Channel channel, List<Entry> group) {
+        if (group.size() == 1) {
+            Entry entry = group.get(0);
+            channel.write(entry.payload).addListener(entry.listener);
+            return;
+        }
+        List<PayloadHolder> payloads = new ArrayList<>(group.size());
+        for (Entry entry : group) {
+            payloads.add(entry.payload);
+        }
+        channel.write(new BatchPayload(payloads)).addListener((ChannelFuture future) -> {
+            for (Entry entry : group) {
+                try {
+                    entry.listener.operationComplete(future);
+                } catch (Throwable t) {
+                    log.warn("An exception was thrown by listener of batch write: {}.", t.toString());
+                }
+            }
+        });
+    }
+
+    public static final class Entry {
+
+        private final PayloadHolder payload;
+
+        private final ChannelFutureListener listener;
+
+        public Entry(PayloadHolder payload, ChannelFutureListener listener) {
+            this.payload = payload;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.nnkwrik.kirinrpc.netty.cli;
+
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+
+/**
+ * 某个服务在某一时刻的所有可用连接以及它们的权重. 不可变, 由ConnectorManager发布.
+ * 只在提供者增减或者预热中的权重需要更新时重建, 负载均衡时直接读取, 不产生新的对象.
+ *
+ * @author nnkwrik
+ * @date 19/06/11 15:30
+ */
+public class ChannelSnapshot {
+
+    //预热期间重建快照的间隔
+    static final long WARM_UP_REFRESH_INTERVAL = 1000;
+
+    private final long version;
+
+    private final KChannel[] channels;
+
+    //cumulativeWeights[i] = channels[0..i]的权重之和
+    private final int[] cumulativeWeights;
+
+    private final int totalWeight;
+
+    private final boolean sameWeight;
+
+    //到这个时间点时权重可能已经变化, 需要重建
+    private final long refreshAt;
+
+    private ChannelSnapshot(long version, KChannel[] channels, int[] cumulativeWeights,
+                            int totalWeight, boolean sameWeight, long refreshAt) {
+        this.version = version;
+        this.channels = channels;
+        this.cumulativeWeights = cumulativeWeights;
+        this.totalWeight = totalWeight;
+        this.sameWeight = sameWeight;
+        this.refreshAt = refreshAt;
+    }
+
+    static ChannelSnapshot build(ServiceMeta service, KChannel[] channels, long version, long now) {
+        int[] cumulativeWeights = new int[channels.length];
+        int totalWeight = 0;
+        boolean sameWeight = true;
+        boolean warmingUp = false;
+        int lastWeight = -1;
+        for (int i = 0; i < channels.length; i++) {
+            KChannel channel = channels[i];
+            int weight = channel.getWeight(service, now);
+            sameWeight = sameWeight && (i == 0 || weight == lastWeight);
+            warmingUp = warmingUp || channel.isWarmingUp(now);
+            lastWeight = weight;
+
+            totalWeight += weight;
+            cumulativeWeights[i] = totalWeight;
+        }
+        long refreshAt = warmingUp ? now + WARM_UP_REFRESH_INTERVAL : Long.MAX_VALUE;
+        return new ChannelSnapshot(version, channels, cumulativeWeights, totalWeight, sameWeight, refreshAt);
+    }
+
+    /**
+     * 按权重选择, offset的范围为[0, totalWeight)
+     */
+    public KChannel selectByWeight(int offset) {
+        //二分查找第一个cumulativeWeights[i] > offset的位置
+        int low = 0;
+        int high = cumulativeWeights.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulativeWeights[mid] > offset) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return channels[low];
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public KChannel[] channels() {
+        return channels;
+    }
+
+    public int size() {
+        return channels.length;
+    }
+
+    public int totalWeight() {
+        return totalWeight;
+    }
+
+    public boolean isSameWeight() {
+        return sameWeight;
+    }
+
+    boolean needRefresh(long now) {
+        return now >= refreshAt;
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.nnkwrik.kirinrpc.netty.cli;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个连接上的调用统计, 包括正在进行中的调用数和响应时间的EWMA(peak EWMA). 供负载均衡使用.
+ * 同时记录写缓冲超过高水位的次数, 以及因此等待或者快速失败的调用数.
+ *
+ * @author nnkwrik
+ * @date 19/06/11 17:20
+ */
+public class ChannelStats {
+
+    //EWMA的衰减时间, 越大越平滑
+    private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    //连接出错时记录的响应时间, 防止快速失败的节点反而被认为很快
+    private static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final AttributeKey<ChannelStats> STATS_KEY = AttributeKey.valueOf("kirin.stats");
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    //写缓冲超过高水位的次数
+    private final LongAdder unwritableEvents = new LongAdder();
+
+    //因为连接不可写而等待的调用数
+    private final LongAdder blockedWrites = new LongAdder();
+
+    //因为连接不可写而失败的调用数
+    private final LongAdder rejectedWrites = new LongAdder();
+
+    private final Object writableLock = new Object();
+
+    private long ewmaNanos;
+
+    private long lastUpdateNanos = System.nanoTime();
+
+    /**
+     * 把统计挂到KChannel中的每个连接上, 连接的可写状态变化时更新
+     */
+    public static void set(Channel channel, ChannelStats stats) {
+        channel.attr(STATS_KEY).set(stats);
+    }
+
+    public static ChannelStats get(Channel channel) {
+        return channel.attr(STATS_KEY).get();
+    }
+
+    /**
+     * 开始一次调用, 返回开始时间
+     */
+    public long begin() {
+        active.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * 结束一次调用. failed表示没有从对方拿到响应
+     */
+    public void end(long beginNanos, boolean failed) {
+        active.decrementAndGet();
+        long now = System.nanoTime();
+        long rtt = now - beginNanos;
+        if (failed) {
+            rtt = Math.max(rtt, FAILURE_PENALTY_NANOS);
+        }
+        observe(rtt, now);
+    }
+
+    private synchronized void observe(long rtt, long now) {
+        if (rtt > ewmaNanos) {
+            //变慢时立刻反映出来, 变快时再慢慢衰减
+            ewmaNanos = rtt;
+        } else {
+            //按距上次更新的时间衰减, 响应少的连接不会一直停留在旧值上
+            long elapsed = Math.max(now - lastUpdateNanos, 0);
+            double w = Math.exp(-(double) elapsed / DECAY_NANOS);
+            ewmaNanos = (long) (ewmaNanos * w + rtt * (1 - w));
+        }
+        lastUpdateNanos = now;
+    }
+
+    public int active() {
+        return active.get();
+    }
+
+    public synchronized long ewmaNanos() {
+        return ewmaNanos;
+    }
+
+    public void writabilityChanged(boolean writable) {
+        if (!writable) {
+            unwritableEvents.increment();
+        }
+        wakeUp();
+    }
+
+    /**
+     * 唤醒等待连接可写的调用, 连接关闭时也需要唤醒
+     */
+    public void wakeUp() {
+        synchronized (writableLock) {
+            writableLock.notifyAll();
+        }
+    }
+
+    /**
+     * 等待连接的写缓冲降到低水位以下. 超时, 连接关闭或者被中断时返回false
+     */
+    public boolean awaitWritable(Channel channel, long timeoutMillis) {
+        blockedWrites.increment();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (writableLock) {
+            while (!channel.isWritable() && channel.isActive()) {
+                long remain = deadline - System.nanoTime();
+                if (remain <= 0) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(writableLock, remain);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return channel.isWritable();
+    }
+
+    public void rejectWrite() {
+        rejectedWrites.increment();
+    }
+
+    public long unwritableEvents() {
+        return unwritableEvents.sum();
+    }
+
+    public long blockedWrites() {
+        return blockedWrites.sum();
+    }
+
+    public long rejectedWrites() {
+        return rejectedWrites.sum();
+    }
+
+    /**
+     * 重连后之前的响应时间不再有参考价值
+     */
+    public synchronized void reset() {
+        ewmaNanos = 0;
+        lastUpdateNanos = System.nanoTime();
+    }
+}
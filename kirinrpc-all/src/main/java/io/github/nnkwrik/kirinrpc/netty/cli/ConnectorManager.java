@@ -1,5 +1,7 @@
 package io.github.nnkwrik.kirinrpc.netty.cli;
 
+import io.github.nnkwrik.kirinrpc.common.Constants;
+import io.github.nnkwrik.kirinrpc.compress.Compressors;
 import io.github.nnkwrik.kirinrpc.registry.model.RegisterMeta;
 import io.github.nnkwrik.kirinrpc.rpc.ConnectFailedException;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.ConsumerProcessor;
@@ -11,6 +13,7 @@ import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author nnkwrik
@@ -19,12 +22,16 @@ import java.util.concurrent.ConcurrentMap;
 @Slf4j
 public class ConnectorManager {
     private static ConnectorManager connectorManager;
-    private NettyConnector connector;
+    private KirinClientConnector connector;
 
     //address对应的channel连接
     private final ConcurrentMap<RegisterMeta.Address, KChannel> addressChannel = new ConcurrentHashMap<>();
     //服务和提供该服务提供者channel.
     private final ConcurrentMap<ServiceMeta, Set<KChannel>> serviceChannels = new ConcurrentHashMap<>();
+    //服务当前可用channel的快照, 负载均衡时只读这个
+    private final ConcurrentMap<ServiceMeta, ChannelSnapshot> snapshots = new ConcurrentHashMap<>();
+    //快照的版本号, 全局递增. 服务下线再上线后版本号也不会倒退
+    private final AtomicLong snapshotVersion = new AtomicLong();
 
     public static ConnectorManager getInstance() {
         if (connectorManager == null) {
@@ -39,6 +46,78 @@ public class ConnectorManager {
     }
 
 
+    //到每个提供者地址的连接数
+    private volatile int connectionsPerAddress = Constants.DEFAULT_CONNECTIONS_PER_ADDRESS;
+
+    private volatile KChannel.PoolSelector poolSelector = KChannel.PoolSelector.ROUND_ROBIN;
+
+    //按优先级排列的压缩算法名, 以逗号分隔. null时不压缩
+    private volatile String compressions;
+
+    private volatile int compressThreshold = Constants.DEFAULT_COMPRESS_THRESHOLD;
+
+    private volatile int batchWindowMicros = -1;
+
+    private volatile int maxBatchSize = Constants.DEFAULT_MAX_BATCH_SIZE;
+
+    private volatile boolean flushConsolidation;
+
+    private volatile int flushAfter = Constants.DEFAULT_FLUSH_AFTER;
+
+    private volatile KChannel.UnwritablePolicy unwritablePolicy = KChannel.UnwritablePolicy.BLOCK;
+
+    public void setMaxBodySize(int maxBodySize) {
+        connector.setMaxBodySize(maxBodySize);
+    }
+
+    public void setConnectionsPerAddress(int connectionsPerAddress) {
+        this.connectionsPerAddress = connectionsPerAddress;
+    }
+
+    public void setPoolSelector(KChannel.PoolSelector poolSelector) {
+        this.poolSelector = poolSelector;
+    }
+
+    public void setCompressions(String compressions) {
+        this.compressions = compressions;
+        connector.setCompressions(compressions);
+    }
+
+    /**
+     * 握手时告诉提供者的应用名, 提供者按应用限流
+     */
+    public void setAppName(String appName) {
+        connector.setAppName(appName);
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public void setBatchWindowMicros(int batchWindowMicros) {
+        this.batchWindowMicros = batchWindowMicros;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void setFlushConsolidation(boolean flushConsolidation) {
+        this.flushConsolidation = flushConsolidation;
+    }
+
+    public void setFlushAfter(int flushAfter) {
+        this.flushAfter = flushAfter;
+    }
+
+    public void setWriteBufferWaterMark(int low, int high) {
+        connector.setWriteBufferWaterMark(low, high);
+    }
+
+    public void setUnwritablePolicy(KChannel.UnwritablePolicy unwritablePolicy) {
+        this.unwritablePolicy = unwritablePolicy;
+    }
+
     public boolean addConnection(RegisterMeta registerMeta) {
 
         RegisterMeta.Address address = registerMeta.getAddress();
@@ -46,11 +125,15 @@ public class ConnectorManager {
         if (channel == null) {
             KChannel newChannel = null;
             try {
-                newChannel = KChannel.connect(connector, registerMeta);
+                newChannel = KChannel.connect(connector, registerMeta, connectionsPerAddress, poolSelector);
             } catch (ConnectFailedException e) {
                 log.warn(e.getMessage());
                 return false;
             }
+            newChannel.setCompression(Compressors.negotiate(compressions, address.getCompressions()), compressThreshold);
+            newChannel.setBatch(batchWindowMicros, maxBatchSize);
+            newChannel.setFlushConsolidation(flushConsolidation, flushAfter);
+            newChannel.setUnwritablePolicy(unwritablePolicy);
             channel = addressChannel.putIfAbsent(address, newChannel);
             if (channel == null) {
                 channel = newChannel;
@@ -69,7 +152,8 @@ public class ConnectorManager {
             }
         }
         channels.add(channel);
-        channel.addService(service, registerMeta.getWight());
+        channel.addService(service, registerMeta.getWight(), registerMeta.getSerializer());
+        refreshSnapshot(service);
         return true;
     }
 
@@ -90,6 +174,7 @@ public class ConnectorManager {
                     serviceChannels.remove(service);
                 }
             }
+            refreshSnapshot(service);
 
             //关闭这个不提供服务的channel
             channel.close();
@@ -103,28 +188,24 @@ public class ConnectorManager {
         for (RegisterMeta.Address address : addressChannel.keySet()) {
             KChannel kChannel = addressChannel.get(address);
             if (kChannel.replaceChannel(inactive, active)) {
-                kChannel.resetSetUpTime();
+                //池中的连接都断过, 说明提供者可能重启了, 重新预热
+                if (!kChannel.hasOtherActive(active)) {
+                    kChannel.resetSetUpTime();
+                    for (ServiceMeta service : kChannel.getServices()) {
+                        refreshSnapshot(service);
+                    }
+                }
                 break;
             }
         }
     }
 
+    /**
+     * 提供者对某个连接回复了错误. 只关闭这个连接, 由它的ConnectionWatchdog重连后通过replaceInactiveConnection放回池中,
+     * 同一个地址的其他连接照常使用. 选择连接时会跳过不可用的连接
+     */
     public void removeInactiveConnection(Channel inactive) {
         inactive.close();
-        for (Set<KChannel> channels : serviceChannels.values()) {
-            for (KChannel channel : channels) {
-                if (channel.isChannel(inactive)) {
-                    channels.remove(channel);
-                }
-            }
-        }
-        for (RegisterMeta.Address address : addressChannel.keySet()) {
-            KChannel channel = addressChannel.get(address);
-            if (channel.isChannel(inactive)) {
-                addressChannel.remove(address);
-                break;
-            }
-        }
     }
 
     public boolean isAvailable(ServiceMeta service) {
@@ -135,6 +216,32 @@ public class ConnectorManager {
         return false;
     }
 
+    /**
+     * 获取服务当前的channel快照, 没有可用的提供者时返回null.
+     * 预热中的channel权重会随时间变化, 到期时在这里顺便重建
+     */
+    public ChannelSnapshot getSnapshot(ServiceMeta service) {
+        ChannelSnapshot snapshot = snapshots.get(service);
+        if (snapshot != null && snapshot.needRefresh(System.currentTimeMillis())) {
+            snapshot = snapshots.computeIfPresent(service, (s, old) -> {
+                long now = System.currentTimeMillis();
+                return old.needRefresh(now) ? ChannelSnapshot.build(s, old.channels(), snapshotVersion.incrementAndGet(), now) : old;
+            });
+        }
+        return snapshot;
+    }
+
+    private void refreshSnapshot(ServiceMeta service) {
+        snapshots.compute(service, (s, old) -> {
+            Set<KChannel> channels = serviceChannels.get(s);
+            if (channels == null || channels.isEmpty()) {
+                return null;
+            }
+            return ChannelSnapshot.build(s, channels.toArray(new KChannel[0]),
+                    snapshotVersion.incrementAndGet(), System.currentTimeMillis());
+        });
+    }
+
     public Set<KChannel> getConnections(ServiceMeta service) {
         Set<KChannel> channels = serviceChannels.get(service);
         if (channels != null && !channels.isEmpty()) {
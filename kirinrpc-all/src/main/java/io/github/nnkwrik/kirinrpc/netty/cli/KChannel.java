@@ -1,40 +1,156 @@
 package io.github.nnkwrik.kirinrpc.netty.cli;
 
 import io.github.nnkwrik.kirinrpc.common.Constants;
+import io.github.nnkwrik.kirinrpc.compress.Compressor;
+import io.github.nnkwrik.kirinrpc.compress.Compressors;
+import io.github.nnkwrik.kirinrpc.netty.PayloadBatcher;
 import io.github.nnkwrik.kirinrpc.netty.handler.cli.ConnectionWatchdog;
 import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
 import io.github.nnkwrik.kirinrpc.registry.model.RegisterMeta;
+import io.github.nnkwrik.kirinrpc.rpc.ConnectFailedException;
+import io.github.nnkwrik.kirinrpc.netty.protocol.Capabilities;
+import io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader;
+import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
+import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.BatchContext;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.PendingCallRegistry;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.RPCFuture;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author nnkwrik
  * @date 19/06/01 12:47
  */
 public class KChannel {//装了一些权限以及预热
-    private Channel channel;
+    //到同一个地址的多个连接, 分布在不同的eventLoop上. 每个连接有自己的ConnectionWatchdog
+    private final AtomicReferenceArray<Channel> connections;
+
+    private final PoolSelector selector;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private RegisterMeta.Address address;
 
     private Map<ServiceMeta, Integer> serviceWight = new ConcurrentHashMap<>();
 
     private int warmUpTime = Constants.DEFAULT_WARM_UP_TIME;
 
-    private long setUpTime;
+    private volatile long setUpTime;
+
+    private final ChannelStats stats = new ChannelStats();
+
+    //和提供者协商出的压缩算法, null时不压缩
+    private volatile Compressor compressor;
+
+    private volatile int compressThreshold = Constants.DEFAULT_COMPRESS_THRESHOLD;
+
+    //自动合并写出的窗口(纳秒), 小于0时不合并
+    private volatile long batchWindowNanos = -1;
+
+    private volatile int maxBatchSize = Constants.DEFAULT_MAX_BATCH_SIZE;
+
+    //业务线程的写出交给eventLoop合并flush
+    private volatile boolean flushConsolidation;
+
+    private volatile int flushAfter = Constants.DEFAULT_FLUSH_AFTER;
+
+    private volatile UnwritablePolicy unwritablePolicy = UnwritablePolicy.BLOCK;
+
+    //提供者为服务指定的序列化方式
+    private Map<ServiceMeta, Serializer> serviceSerializers = new ConcurrentHashMap<>();
 
-    private KChannel() {
+    //提供者能反序列化的方式, 老版本的提供者只支持默认的protostuff
+    private Set<String> supportedSerializers = Collections.emptySet();
+
+    private KChannel(int poolSize, PoolSelector selector) {
+        this.connections = new AtomicReferenceArray<>(poolSize);
+        this.selector = selector;
     }
 
-    public void setConnection(Channel channel) {
-        this.channel = channel;
+    public RegisterMeta.Address getAddress() {
+        return address;
     }
 
     public void resetSetUpTime() {
         this.setUpTime = System.currentTimeMillis();
+        stats.reset();
+    }
+
+    public ChannelStats stats() {
+        return stats;
+    }
+
+    public void setCompression(Compressor compressor, int compressThreshold) {
+        this.compressor = compressor;
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * @param batchWindowMicros 请求在这个窗口(微秒)内合并成一个BATCH消息写出, 小于0时不合并
+     */
+    public void setBatch(int batchWindowMicros, int maxBatchSize) {
+        this.batchWindowNanos = batchWindowMicros < 0 ? -1 : TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @param flushAfter 合并flush时最多写出这么多请求后flush一次
+     */
+    public void setFlushConsolidation(boolean flushConsolidation, int flushAfter) {
+        this.flushConsolidation = flushConsolidation;
+        this.flushAfter = flushAfter;
+    }
+
+    public void setUnwritablePolicy(UnwritablePolicy unwritablePolicy) {
+        this.unwritablePolicy = unwritablePolicy;
+    }
+
+    /**
+     * 池中是否有可用且写缓冲没有超过高水位的连接, 负载均衡时优先选择可写的KChannel
+     */
+    public boolean isWritable() {
+        for (int i = 0; i < connections.length(); i++) {
+            Channel ch = connections.get(i);
+            if (ch.isActive() && ch.isWritable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 写缓冲超过高水位的连接数
+     */
+    public int unwritableConnections() {
+        int count = 0;
+        for (int i = 0; i < connections.length(); i++) {
+            Channel ch = connections.get(i);
+            if (ch.isActive() && !ch.isWritable()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public Compressor getCompressor() {
+        return compressor;
     }
 
     public long getSetUpTime() {
@@ -45,22 +161,57 @@ public class KChannel {//装了一些权限以及预热
         serviceWight.put(service, wight);
     }
 
+    public void addService(ServiceMeta service, int wight, String serializer) {
+        addService(service, wight);
+        Serializer s = serializer != null ? SerializerHolder.serializerImpl(serializer) : null;
+        if (s != null) {
+            serviceSerializers.put(service, s);
+        } else {
+            serviceSerializers.remove(service);
+        }
+    }
+
+    /**
+     * 选择请求的序列化方式. 调用方指定的方式优先, 其次是提供者为服务指定的方式.
+     * 提供者不支持时退回默认的方式. 完成握手的连接以握手的结果为准
+     */
+    private Serializer serializer(Capabilities capabilities, ServiceMeta service, Serializer preferred) {
+        Serializer s = preferred != null ? preferred : serviceSerializers.get(service);
+        if (s == null) {
+            return SerializerHolder.serializerImpl();
+        }
+        boolean supported = capabilities != null
+                ? capabilities.supportsSerializer(s.code())
+                : supportedSerializers.contains(s.name());
+        return supported ? s : SerializerHolder.serializerImpl();
+    }
+
+    public Set<ServiceMeta> getServices() {
+        return serviceWight.keySet();
+    }
+
     public int getWeight(ServiceMeta service) {
+        return getWeight(service, System.currentTimeMillis());
+    }
+
+    public int getWeight(ServiceMeta service, long now) {
         Integer weight = serviceWight.get(service);
         if (weight == null || weight < 0) {
             weight = Constants.DEFAULT_WIGHT;
         }
 
-        int warmUp = getWarmUpTime();
-        int setUp = (int) (System.currentTimeMillis() - getSetUpTime());
-
-        if (setUp < warmUp) { //还在预热阶段
-            weight = weight * (setUp / warmUp);
+        if (isWarmingUp(now)) { //还在预热阶段, 权重随时间线性增长
+            long setUp = now - getSetUpTime();
+            weight = Math.max(1, (int) (weight * setUp / getWarmUpTime()));
         }
 
         return weight;
     }
 
+    public boolean isWarmingUp(long now) {
+        return now - getSetUpTime() < getWarmUpTime();
+    }
+
     public int getWarmUpTime() {
         return warmUpTime >= 0 ? warmUpTime : 0;
     }
@@ -70,45 +221,243 @@ public class KChannel {//装了一些权限以及预热
     }
 
     public boolean isChannel(Channel channel) {
-        return this.channel == channel;
+        for (int i = 0; i < connections.length(); i++) {
+            if (connections.get(i) == channel) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public boolean replaceChannel(Channel oldChannel, Channel newChannel) {
-        if (oldChannel == channel) {
-            channel = newChannel;
-            return true;
+        for (int i = 0; i < connections.length(); i++) {
+            if (connections.compareAndSet(i, oldChannel, newChannel)) {
+                ChannelStats.set(newChannel, stats);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 除了channel以外, 池中是否还有可用的连接
+     */
+    public boolean hasOtherActive(Channel channel) {
+        for (int i = 0; i < connections.length(); i++) {
+            Channel ch = connections.get(i);
+            if (ch != channel && ch.isActive()) {
+                return true;
+            }
         }
         return false;
     }
 
     public void close() {
-        channel.close();
-        ConnectionWatchdog.setReconnect(channel, false);
+        for (int i = 0; i < connections.length(); i++) {
+            Channel ch = connections.get(i);
+            ch.close();
+            ConnectionWatchdog.setReconnect(ch, false);
+        }
     }
 
     public static KChannel connect(NettyConnector connector, RegisterMeta registerMeta) {
+        return connect(connector, registerMeta, 1, PoolSelector.ROUND_ROBIN);
+    }
+
+    /**
+     * 建立poolSize个到提供者的连接. 任何一个连接失败时关闭已建立的连接并抛出ConnectFailedException
+     */
+    public static KChannel connect(NettyConnector connector, RegisterMeta registerMeta, int poolSize, PoolSelector selector) {
         RegisterMeta.Address address = registerMeta.getAddress();
-        Channel connection = connector.connect(address.getHost(), address.getPort());
 
-        KChannel kChannel = new KChannel();
-        kChannel.addService(registerMeta.getServiceMeta(), registerMeta.getWight());
-        kChannel.setConnection(connection);
+        KChannel kChannel = new KChannel(Math.max(poolSize, 1), selector);
+        kChannel.address = address;
+        if (address.getSerializers() != null) {
+            kChannel.supportedSerializers = new HashSet<>(Arrays.asList(address.getSerializers().split(",")));
+        }
+        for (int i = 0; i < kChannel.connections.length(); i++) {
+            try {
+                Channel ch = connector.connect(address);
+                ChannelStats.set(ch, kChannel.stats);
+                kChannel.connections.set(i, ch);
+            } catch (ConnectFailedException e) {
+                for (int j = 0; j < i; j++) {
+                    Channel ch = kChannel.connections.get(j);
+                    ch.close();
+                    ConnectionWatchdog.setReconnect(ch, false);
+                }
+                throw e;
+            }
+        }
+        kChannel.addService(registerMeta.getServiceMeta(), registerMeta.getWight(), registerMeta.getSerializer());
         kChannel.resetSetUpTime();
         return kChannel;
     }
 
-    public <T> RPCFuture<T> write(RequestPayload payload) {
-        RPCFuture rpcFuture = new RPCFuture(payload.id());
-        channel.writeAndFlush(payload).addListener(new ChannelFutureListener() {
+    /**
+     * 从池中选一个连接, 优先选择可用并且可写的连接
+     */
+    private Channel select() {
+        int size = connections.length();
+        if (size == 1) {
+            return connections.get(0);
+        }
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        if (selector == PoolSelector.LEAST_PENDING) {
+            Channel selected = null;
+            int leastPending = Integer.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                Channel ch = connections.get((start + i) % size);
+                if (!ch.isActive()) {
+                    continue;
+                }
+                PendingCallRegistry registry = PendingCallRegistry.get(ch);
+                int pending = registry == null ? 0 : registry.pending();
+                //不可写的连接只在都不可写时才选
+                if (!ch.isWritable()) {
+                    pending = pending + Integer.MAX_VALUE / 2;
+                }
+                if (pending < leastPending) {
+                    leastPending = pending;
+                    selected = ch;
+                }
+            }
+            if (selected != null) {
+                return selected;
+            }
+        } else {
+            Channel active = null;
+            for (int i = 0; i < size; i++) {
+                Channel ch = connections.get((start + i) % size);
+                if (ch.isActive()) {
+                    if (ch.isWritable()) {
+                        return ch;
+                    }
+                    if (active == null) {
+                        active = ch;
+                    }
+                }
+            }
+            if (active != null) {
+                return active;
+            }
+        }
+        //都不可用时照常写出, 由写出失败的回调结束这次调用
+        return connections.get(start % size);
+    }
+
+    public <T> RPCFuture<T> write(long requestId, KirinRequest request, Serializer serializer, long timeoutMillis) {
+        //直接序列化到该连接的allocator分配的buf中, 写出后由netty释放
+        Channel ch = select();
+        if (!ch.isWritable() && ch.isActive() && unwritablePolicy != UnwritablePolicy.WRITE) {
+            long begin = System.nanoTime();
+            //eventLoop上等待会让连接永远不可写, 只能快速失败
+            boolean block = unwritablePolicy == UnwritablePolicy.BLOCK && !ch.eventLoop().inEventLoop();
+            if (!block || !stats.awaitWritable(ch, timeoutMillis)) {
+                stats.rejectWrite();
+                RPCFuture<T> rejected = new RPCFuture<>(requestId);
+                rejected.fail(RPCFuture.Status.ERROR, new KirinRemoteException("Outbound buffer exceeds the high water mark, channel is not writable: "
+                        + ch, Status.CLIENT_ERROR));
+                return rejected;
+            }
+            //等待的时间算在超时时间内
+            timeoutMillis = Math.max(timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin), 1);
+        }
+        Capabilities capabilities = Capabilities.get(ch);
+        Serializer s = serializer(capabilities, request.getServiceMeta(), serializer);
+        KirinRequest body = compact(ch, request);
+        int methodId = -1;
+        if (body.getMethodId() != null && capabilities != null && capabilities.version() >= ProtocolHeader.VERSION_METHOD_ID) {
+            //方法id放在协议头之后, 提供者不用反序列化就能按方法限流
+            methodId = body.getMethodId();
+            body.setMethodId(null);
+        }
+        ByteBuf content = ch.alloc().ioBuffer();
+        try {
+            s.writeObject(content, body);
+        } catch (Throwable t) {
+            content.release();
+            throw t;
+        }
+        Compressor compressor = capabilities != null ? capabilities.compressor() : this.compressor;
+        ByteBuf compressed = Compressors.compress(ch.alloc(), compressor, content, compressThreshold);
+        RequestPayload payload = new RequestPayload(requestId, compressed != null ? compressed : content);
+        payload.compressed(compressed != null);
+        payload.serializerCode(s.code());
+        payload.methodId(methodId);
+        if (compressor != null) {
+            //告诉提供者可以用同样的算法压缩响应
+            payload.acceptedCompressor(compressor.id());
+        }
+
+        //响应到达前先登记到这个连接的registry中
+        PendingCallRegistry registry = PendingCallRegistry.of(ch);
+        RPCFuture rpcFuture = new RPCFuture(requestId);
+        rpcFuture.track(stats);
+        registry.put(requestId, rpcFuture, timeoutMillis);
+
+        ChannelFutureListener listener = new ChannelFutureListener() {
             @Override
             public void operationComplete(ChannelFuture future) throws Exception {
                 if (future.isSuccess()) {
                     rpcFuture.sent(true);
+                } else if (registry.remove(requestId) != null) {
+                    rpcFuture.fail(RPCFuture.Status.ERROR, new KirinRemoteException("Fail to send request to " + ch,
+                            future.cause(), Status.CLIENT_ERROR));
                 }
             }
-        });
+        };
+
+        //老版本的提供者不能解析BATCH, 只能一个一个写出
+        BatchContext batch = BatchContext.current();
+        if (batch != null && PayloadBatcher.isSupported(ch)) {
+            batch.add(ch, payload, listener);
+        } else if (flushConsolidation || (batchWindowNanos >= 0 && PayloadBatcher.isSupported(ch))) {
+            PayloadBatcher.of(ch, batchWindowNanos, maxBatchSize, flushAfter).write(payload, listener);
+        } else {
+            ch.writeAndFlush(payload).addListener(listener);
+        }
 
         return rpcFuture;
     }
 
+    /**
+     * 连接已经完成握手时, 只发送方法id和参数. request可能在重试时发往其他提供者, 不修改它
+     */
+    private static KirinRequest compact(Channel ch, KirinRequest request) {
+        MethodTable table = MethodTable.get(ch);
+        if (table == null) {
+            return request;
+        }
+        Integer methodId = table.lookup(request.getServiceMeta(), request.getMethodName(), request.getArgTypes());
+        if (methodId == null) {
+            return request;
+        }
+        KirinRequest compact = new KirinRequest();
+        compact.setMethodId(methodId);
+        compact.setArgs(request.getArgs());
+        return compact;
+    }
+
+    /**
+     * 连接的写缓冲超过高水位时的处理方式
+     */
+    public enum UnwritablePolicy {
+        //照常写出, 写缓冲没有上限
+        WRITE,
+        //在超时时间内等待连接恢复可写
+        BLOCK,
+        //直接失败, 由集群容错重试其他提供者
+        FAIL_FAST
+    }
+
+    /**
+     * 连接池中选择连接的方式
+     */
+    public enum PoolSelector {
+        ROUND_ROBIN,
+        //等待响应最少的连接
+        LEAST_PENDING
+    }
+
 }
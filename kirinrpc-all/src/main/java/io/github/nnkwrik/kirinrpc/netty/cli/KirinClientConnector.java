@@ -1,21 +1,26 @@
 package io.github.nnkwrik.kirinrpc.netty.cli;
 
+import io.github.nnkwrik.kirinrpc.common.Constants;
 import io.github.nnkwrik.kirinrpc.netty.handler.ProtocolDecoder;
 import io.github.nnkwrik.kirinrpc.netty.handler.ProtocolEncoder;
 import io.github.nnkwrik.kirinrpc.netty.handler.cli.ConnectionWatchdog;
 import io.github.nnkwrik.kirinrpc.netty.handler.cli.ConnectorHandler;
 import io.github.nnkwrik.kirinrpc.netty.handler.cli.ConnectorIdealStateTrigger;
+import io.github.nnkwrik.kirinrpc.netty.shm.ShmAddress;
 import io.github.nnkwrik.kirinrpc.rpc.ConnectFailedException;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.ResponseProcessor;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.HashedWheelTimer;
 import lombok.extern.slf4j.Slf4j;
 
+import java.net.SocketAddress;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -52,19 +57,58 @@ public class KirinClientConnector extends NettyConnector {
     }
 
     @Override
-    public Channel connect(String host, int port) {
+    public void setMaxBodySize(int maxBodySize) {
+        super.setMaxBodySize(maxBodySize);
+        handler.setMaxBodySize(maxBodySize);
+    }
+
+    /**
+     * 握手时告诉提供者想要使用的压缩算法
+     */
+    public void setCompressions(String compressions) {
+        handler.setCompressions(compressions);
+    }
+
+    public void setAppName(String appName) {
+        handler.setAppName(appName);
+    }
+
+    private Bootstrap bootstrap(SocketAddress remoteAddress) {
+        if (remoteAddress instanceof LocalAddress) {
+            return localBootstrap;
+        } else if (remoteAddress instanceof DomainSocketAddress) {
+            if (domainBootstrap == null) {
+                throw new ConnectFailedException("unix domain socket is unavailable, can't connect to [" + remoteAddress + "]");
+            }
+            return domainBootstrap;
+        } else if (remoteAddress instanceof ShmAddress) {
+            return shmBootstrap;
+        }
+        return this.bootstrap;
+    }
+
+    @Override
+    public Channel connect(SocketAddress remoteAddress, SocketAddress fallbackAddress, boolean handshake) {
+        Bootstrap bootstrap = bootstrap(remoteAddress);
 
-        final ConnectionWatchdog watchdog = new ConnectionWatchdog(bootstrap, timer, port, host) {
+        final ConnectionWatchdog watchdog = new ConnectionWatchdog(bootstrap, timer, remoteAddress,
+                fallbackAddress != null ? bootstrap(fallbackAddress) : null, fallbackAddress) {
+
+            @Override
+            public void initChannel(Channel ch) {
+                super.initChannel(ch);
+                ConnectorHandler.setHandshake(ch, handshake);
+            }
 
             @Override
             public ChannelHandler[] handlers() {
                 return new ChannelHandler[]{
                         this,
                         //每隔30s的时间触发一次userEventTriggered的方法，并且指定IdleState的状态位是WRITER_IDLE
-                        new IdleStateHandler(0, 30, 0, TimeUnit.SECONDS),
+                        new IdleStateHandler(0, Constants.DEFAULT_HEARTBEAT_INTERVAL, 0, TimeUnit.MILLISECONDS),
                         //实现userEventTriggered方法，并在state是WRITER_IDLE的时候发送一个心跳包到sever端，告诉server端我还活着
                         idealStateTrigger,
-                        new ProtocolDecoder(),
+                        new ProtocolDecoder(maxBodySize),
                         encoder,
                         handler
                 };
@@ -76,20 +120,20 @@ public class KirinClientConnector extends NettyConnector {
         try {
             ChannelFuture future;
             synchronized (bootstrap) {
-                bootstrap.handler(new ChannelInitializer<NioSocketChannel>() {
+                bootstrap.handler(new ChannelInitializer<Channel>() {
 
                     @Override
-                    protected void initChannel(NioSocketChannel ch) throws Exception {
-                        ch.pipeline().addLast(watchdog.handlers());
+                    protected void initChannel(Channel ch) throws Exception {
+                        watchdog.initChannel(ch);
                     }
                 });
 
-                future = bootstrap.connect(host, port);
+                future = bootstrap.connect(remoteAddress);
             }
             future.sync();
             channel = future.channel();
         } catch (Throwable t) {
-            throw new ConnectFailedException("connects to [" + host + ":" + port + "] fails");
+            throw new ConnectFailedException("connects to [" + remoteAddress + "] fails");
         }
 
         return channel;
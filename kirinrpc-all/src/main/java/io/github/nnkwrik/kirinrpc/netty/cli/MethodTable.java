@@ -0,0 +1,81 @@
+package io.github.nnkwrik.kirinrpc.netty.cli;
+
+import io.github.nnkwrik.kirinrpc.rpc.model.Handshake;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 握手时提供者公布的方法表, 挂在连接的attribute上.
+ * 重连后是新的Channel, 会重新握手得到新的方法表
+ *
+ * @author nnkwrik
+ * @date 19/06/20 11:05
+ */
+public class MethodTable {
+
+    private static final AttributeKey<MethodTable> METHOD_TABLE_KEY = AttributeKey.valueOf("kirin.methodTable");
+
+    //服务 -> 方法名 -> 同名的所有方法(重载)
+    private final Map<ServiceMeta, Map<String, Handshake.MethodId[]>> methods;
+
+    private MethodTable(Handshake handshake) {
+        Map<ServiceMeta, Map<String, List<Handshake.MethodId>>> grouped = new HashMap<>();
+        for (Handshake.MethodId method : handshake.getMethods()) {
+            ServiceMeta service = new ServiceMeta(method.getServiceName(), method.getServiceGroup());
+            grouped.computeIfAbsent(service, k -> new HashMap<>())
+                    .computeIfAbsent(method.getMethodName(), k -> new ArrayList<>())
+                    .add(method);
+        }
+
+        Map<ServiceMeta, Map<String, Handshake.MethodId[]>> methods = new HashMap<>();
+        grouped.forEach((service, byName) -> {
+            Map<String, Handshake.MethodId[]> overloads = new HashMap<>();
+            byName.forEach((name, list) -> overloads.put(name, list.toArray(new Handshake.MethodId[0])));
+            methods.put(service, overloads);
+        });
+        this.methods = methods;
+    }
+
+    public static void set(Channel channel, Handshake handshake) {
+        channel.attr(METHOD_TABLE_KEY).set(new MethodTable(handshake));
+    }
+
+    /**
+     * 还没有完成握手, 或者提供者不支持握手时返回null
+     */
+    public static MethodTable get(Channel channel) {
+        return channel.attr(METHOD_TABLE_KEY).get();
+    }
+
+    /**
+     * 查找方法id, 提供者没有公布这个方法时返回null
+     */
+    public Integer lookup(ServiceMeta service, String methodName, Class<?>[] argTypes) {
+        Map<String, Handshake.MethodId[]> byName = methods.get(service);
+        if (byName == null) return null;
+        Handshake.MethodId[] candidates = byName.get(methodName);
+        if (candidates == null) return null;
+        for (Handshake.MethodId candidate : candidates) {
+            if (matches(candidate.getParameterTypes(), argTypes)) {
+                return candidate.getId();
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(String[] typeNames, Class<?>[] argTypes) {
+        int length = argTypes == null ? 0 : argTypes.length;
+        int expected = typeNames == null ? 0 : typeNames.length;
+        if (length != expected) return false;
+        for (int i = 0; i < length; i++) {
+            if (!typeNames[i].equals(argTypes[i].getName())) return false;
+        }
+        return true;
+    }
+}
@@ -1,5 +1,11 @@
 package io.github.nnkwrik.kirinrpc.netty.cli;
 
+import io.github.nnkwrik.kirinrpc.common.Constants;
+import io.github.nnkwrik.kirinrpc.netty.NettyTransport;
+import io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader;
+import io.github.nnkwrik.kirinrpc.netty.shm.ShmChannel;
+import io.github.nnkwrik.kirinrpc.registry.model.RegisterMeta;
+import io.github.nnkwrik.kirinrpc.rpc.ConnectFailedException;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
@@ -7,11 +13,14 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.local.LocalChannel;
 import io.netty.util.internal.PlatformDependent;
 import lombok.extern.slf4j.Slf4j;
 
+import java.net.SocketAddress;
+
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
@@ -22,9 +31,17 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 public abstract class NettyConnector {
 
     protected Bootstrap bootstrap;
+    //连接LocalAddress时使用
+    protected Bootstrap localBootstrap;
+    //连接unix domain socket时使用, 只有epoll可用时才有
+    protected Bootstrap domainBootstrap;
+    //连接共享内存时使用
+    protected Bootstrap shmBootstrap;
     private int nWorkers;
     protected EventLoopGroup worker;
     protected volatile ByteBufAllocator allocator;
+    //单个消息体的最大字节数, 超过时断开连接
+    protected int maxBodySize = Constants.DEFAULT_MAX_BODY_SIZE;
 
 
     public NettyConnector() {
@@ -37,7 +54,7 @@ public abstract class NettyConnector {
     }
 
     protected void init() {
-        worker = new NioEventLoopGroup(nWorkers);
+        worker = NettyTransport.newEventLoopGroup(nWorkers, "kirin-connector-worker");
         allocator = new PooledByteBufAllocator(PlatformDependent.directBufferPreferred());
         bootstrap = new Bootstrap();
         bootstrap.group(worker)
@@ -48,11 +65,84 @@ public abstract class NettyConnector {
                 .option(ChannelOption.SO_KEEPALIVE, true)
                 .option(ChannelOption.TCP_NODELAY, true)
                 .option(ChannelOption.ALLOW_HALF_CLOSURE, false)
-                .channel(NioSocketChannel.class);
+                .channel(NettyTransport.socketChannelClass());
+        //epoll的专有选项
+        NettyTransport.applyOptions(bootstrap);
+
+        localBootstrap = new Bootstrap();
+        localBootstrap.group(worker)
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .channel(LocalChannel.class);
+
+        shmBootstrap = new Bootstrap();
+        shmBootstrap.group(worker)
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) SECONDS.toMillis(3))
+                .channel(ShmChannel.class);
+
+        if (NettyTransport.isDomainSocketAvailable()) {
+            domainBootstrap = new Bootstrap();
+            domainBootstrap.group(worker)
+                    .option(ChannelOption.ALLOCATOR, allocator)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) SECONDS.toMillis(3))
+                    .channel(EpollDomainSocketChannel.class);
+        }
+        setWriteBufferWaterMark(Constants.DEFAULT_WRITE_BUFFER_LOW_WATER_MARK, Constants.DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK);
         log.info("netty client cli completed initialization.");
     }
 
-    public abstract Channel connect(String host, int port);
+    /**
+     * 写缓冲超过high时连接变为不可写, 降到low以下时恢复. 只对之后建立的连接生效
+     */
+    public void setWriteBufferWaterMark(int low, int high) {
+        WriteBufferWaterMark waterMark = new WriteBufferWaterMark(low, high);
+        bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark);
+        localBootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark);
+        shmBootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark);
+        if (domainBootstrap != null) {
+            domainBootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark);
+        }
+    }
+
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    public Channel connect(String host, int port) {
+        return connect(NettyTransport.socketAddress(host, port));
+    }
+
+    /**
+     * 提供者在同一台主机上时依次尝试共享内存和unix domain socket, 都连不上时使用TCP.
+     * 断开后重连失败时也会改用TCP
+     */
+    public Channel connect(RegisterMeta.Address address) {
+        //老版本的提供者不认识握手消息, 只对公布了协议版本的提供者握手
+        boolean handshake = address.getProtocolVersion() != null
+                && address.getProtocolVersion() >= ProtocolHeader.VERSION_HANDSHAKE;
+        SocketAddress tcpAddress = NettyTransport.socketAddress(address.getHost(), address.getPort());
+        for (SocketAddress localAddress : NettyTransport.localSocketAddresses(address)) {
+            try {
+                return connect(localAddress, tcpAddress, handshake);
+            } catch (ConnectFailedException e) {
+                log.warn("Fail to connect with {}, try the next address: {}.", localAddress, e.getMessage());
+            }
+        }
+        return connect(tcpAddress, null, handshake);
+    }
+
+    /**
+     * 直接连接的地址不经过注册中心, 视为和当前进程相同版本的提供者
+     */
+    public Channel connect(SocketAddress remoteAddress) {
+        return connect(remoteAddress, null, true);
+    }
+
+    /**
+     * @param fallbackAddress 重连remoteAddress失败时改用的地址, 可以为null
+     * @param handshake       连接建立后是否发送握手
+     */
+    public abstract Channel connect(SocketAddress remoteAddress, SocketAddress fallbackAddress, boolean handshake);
 
     public abstract void shutdown();
 
@@ -1,12 +1,15 @@
 package io.github.nnkwrik.kirinrpc.netty.handler;
 
+import io.github.nnkwrik.kirinrpc.common.Constants;
+import io.github.nnkwrik.kirinrpc.netty.model.HandshakePayload;
 import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
 import io.github.nnkwrik.kirinrpc.netty.model.ResponsePayload;
-import io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
-import io.netty.util.Signal;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
@@ -14,86 +17,163 @@ import java.util.List;
 import static io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader.*;
 
 /**
+ * 基于累积buf的定长头解码器.
+ * 只有完整的一帧到达后才解析, 半包时直接返回等待更多数据, 不会像ReplayingDecoder那样重复解析协议头.
+ * 消息体以retained slice的方式引用累积buf, 不做拷贝.
+ *
  * @author nnkwrik
  * @date 19/05/01 9:04
  */
 @Slf4j
-public class ProtocolDecoder extends ReplayingDecoder<ProtocolDecoder.State> {
+public class ProtocolDecoder extends ByteToMessageDecoder {
+
+    private static final int SIGN_OFFSET = 2;
+    private static final int STATUS_OFFSET = 3;
+    private static final int ID_OFFSET = 4;
+    private static final int BODY_LENGTH_OFFSET = 12;
+
+    private final int maxBodySize;
 
-    //构造函数 设置初始的枚举类型是什么
     public ProtocolDecoder() {
-        super(State.HEADER_MAGIC);
+        this(Constants.DEFAULT_MAX_BODY_SIZE);
+    }
+
+    public ProtocolDecoder(int maxBodySize) {
+        if (maxBodySize <= 0) {
+            throw new IllegalArgumentException("maxBodySize must be a positive integer: " + maxBodySize);
+        }
+        this.maxBodySize = maxBodySize;
     }
 
-    // 协议头
-    private final ProtocolHeader header = new ProtocolHeader();
+    /**
+     * 连接上允许的最大消息体, 解压后的消息体也不能超过它
+     */
+    public static int maxBodySize(Channel channel) {
+        ProtocolDecoder decoder = channel.pipeline().get(ProtocolDecoder.class);
+        return decoder != null ? decoder.maxBodySize : Constants.DEFAULT_MAX_BODY_SIZE;
+    }
 
     @Override
-    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf in, List<Object> out) throws Exception {
-        switch (state()) {
-            case HEADER_MAGIC:
-                checkMagic(in.readShort());             // MAGIC
-                checkpoint(State.HEADER_SIGN);
-            case HEADER_SIGN:
-                header.sign(in.readByte());             // 消息标志位
-                checkpoint(State.HEADER_STATUS);
-            case HEADER_STATUS:
-                header.status(in.readByte());           // 消息状态
-                checkpoint(State.HEADER_ID);
-            case HEADER_ID:
-                header.id(in.readLong());               // 消息id
-                checkpoint(State.HEADER_BODY_LENGTH);
-            case HEADER_BODY_LENGTH:
-                header.bodyLength(in.readInt());        // 消息体长度
-                checkpoint(State.BODY);
-            case BODY:
-                switch (header.sign()) {
-                    case HEARTBEAT:
-                        log.debug("Receive heartBeat package.{}",channelHandlerContext.channel());
-                        break;
-                    case REQUEST: {
-                        byte[] bytes = new byte[header.bodyLength()];
-                        in.readBytes(bytes);
-
-                        RequestPayload requestHolder = new RequestPayload(header.id());
-                        requestHolder.timestamp(System.currentTimeMillis());
-                        requestHolder.bytes(bytes);
-                        out.add(requestHolder);
-
-                        break;
-                    }
-                    case RESPONSE: {
-                        byte[] bytes = new byte[header.bodyLength()];
-                        in.readBytes(bytes);
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        int readable = in.readableBytes();
+        if (readable < 2) {
+            return;
+        }
 
-                        ResponsePayload responseHolder = new ResponsePayload(header.id());
-                        responseHolder.timestamp(System.currentTimeMillis());
-                        responseHolder.status(header.status());
-                        responseHolder.bytes(bytes);
-                        out.add(responseHolder);
+        int start = in.readerIndex();
+        //拿到前2个字节就校验MAGIC, 非法连接尽早断开
+        short magic = in.getShort(start);
+        if (magic != MAGIC) {
+            in.skipBytes(readable);
+            throw new CorruptedFrameException("Invalid magic: 0x" + Integer.toHexString(magic & 0xffff));
+        }
 
-                        break;
-                    }
+        if (readable < HEADER_SIZE) {
+            return;
+        }
 
-                    default:
-                        throw new IllegalAccessException();
-                }
-                checkpoint(State.HEADER_MAGIC);
+        int bodyLength = in.getInt(start + BODY_LENGTH_OFFSET);
+        if (bodyLength < 0 || bodyLength > maxBodySize) {
+            in.skipBytes(readable);
+            throw new TooLongFrameException("Body length " + bodyLength + " exceeds the limit " + maxBodySize);
+        }
+
+        if (readable < HEADER_SIZE + bodyLength) {
+            //半包
+            return;
+        }
+
+        byte sign = in.getByte(start + SIGN_OFFSET);
+        byte status = in.getByte(start + STATUS_OFFSET);
+        long id = in.getLong(start + ID_OFFSET);
+        in.skipBytes(HEADER_SIZE);
+
+        if ((sign & SIGN_MASK) == BATCH) {
+            decodeBatch(ctx, in, (int) id, bodyLength, out);
+        } else {
+            decodePayload(ctx, in, sign, status, id, bodyLength, out);
         }
     }
 
-    private static void checkMagic(short magic) throws Signal {
-        if (MAGIC != magic) {
-            throw new IllegalArgumentException();
+    /**
+     * 把BATCH拆成单独的消息交给下游, 下游不需要知道它们是一起到达的
+     */
+    private void decodeBatch(ChannelHandlerContext ctx, ByteBuf in, int count, int bodyLength, List<Object> out) {
+        int end = in.readerIndex() + bodyLength;
+        for (int i = 0; i < count; i++) {
+            if (end - in.readerIndex() < SUB_HEADER_SIZE) {
+                break;
+            }
+            byte sign = in.readByte();
+            byte status = in.readByte();
+            long id = in.readLong();
+            int length = in.readInt();
+            if (length < 0 || length > end - in.readerIndex()) {
+                in.readerIndex(end);
+                throw new CorruptedFrameException("Invalid sub message length " + length + " in batch");
+            }
+            if ((sign & SIGN_MASK) == BATCH) {
+                //不允许嵌套
+                in.skipBytes(length);
+                continue;
+            }
+            decodePayload(ctx, in, sign, status, id, length, out);
+        }
+        if (in.readerIndex() != end) {
+            log.warn("Skip {} unread bytes in batch.{}", end - in.readerIndex(), ctx.channel());
+            in.readerIndex(end);
         }
     }
 
-    enum State {
-        HEADER_MAGIC,
-        HEADER_SIGN,
-        HEADER_STATUS,
-        HEADER_ID,
-        HEADER_BODY_LENGTH,
-        BODY
+    private void decodePayload(ChannelHandlerContext ctx, ByteBuf in, byte sign, byte status, long id, int bodyLength, List<Object> out) {
+        byte serializerCode = (byte) ((sign >> SERIALIZER_SHIFT) & 0x0f);
+        switch (sign & SIGN_MASK) {
+            case HEARTBEAT:
+                log.debug("Receive heartBeat package.{}", ctx.channel());
+                in.skipBytes(bodyLength);
+                break;
+            case REQUEST:
+            case REQUEST_METHOD: {
+                int methodId = -1;
+                if ((sign & SIGN_MASK) == REQUEST_METHOD) {
+                    if (bodyLength < METHOD_ID_SIZE) {
+                        in.skipBytes(bodyLength);
+                        throw new CorruptedFrameException("Body length " + bodyLength + " is too short for method id");
+                    }
+                    methodId = in.readInt();
+                    bodyLength -= METHOD_ID_SIZE;
+                }
+                //消息体直接引用累积buf中的数据, 由业务线程反序列化后释放
+                RequestPayload requestHolder = new RequestPayload(id, in.readRetainedSlice(bodyLength));
+                requestHolder.methodId(methodId);
+                requestHolder.timestamp(System.currentTimeMillis());
+                requestHolder.compressed((status & COMPRESSED) != 0);
+                requestHolder.acceptedCompressor((byte) (status & COMPRESSOR_MASK));
+                requestHolder.serializerCode(serializerCode);
+                out.add(requestHolder);
+                break;
+            }
+            case RESPONSE: {
+                ResponsePayload responseHolder = new ResponsePayload(id, in.readRetainedSlice(bodyLength));
+                responseHolder.timestamp(System.currentTimeMillis());
+                responseHolder.status((byte) (status & STATUS_MASK));
+                responseHolder.compressed((status & COMPRESSED) != 0);
+                responseHolder.serializerCode(serializerCode);
+                out.add(responseHolder);
+                break;
+            }
+            case HANDSHAKE: {
+                HandshakePayload handshake = new HandshakePayload(id, in.readRetainedSlice(bodyLength));
+                handshake.serializerCode(serializerCode);
+                out.add(handshake);
+                break;
+            }
+            default:
+                //帧边界是完整的, 跳过不认识的消息而不是断开连接
+                log.warn("Unknown sign 0x{} (id = {}), skip {} bytes body.{}",
+                        Integer.toHexString(sign & 0xff), id, bodyLength, ctx.channel());
+                in.skipBytes(bodyLength);
+        }
     }
+
 }
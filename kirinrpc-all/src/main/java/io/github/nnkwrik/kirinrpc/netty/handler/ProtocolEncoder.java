@@ -1,48 +1,146 @@
 package io.github.nnkwrik.kirinrpc.netty.handler;
 
+import io.github.nnkwrik.kirinrpc.netty.model.BatchPayload;
 import io.github.nnkwrik.kirinrpc.netty.model.PayloadHolder;
 import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
 import io.github.nnkwrik.kirinrpc.netty.model.ResponsePayload;
+import io.github.nnkwrik.kirinrpc.netty.protocol.Capabilities;
 import io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
 
 
 /**
+ * 只为协议头分配一个16字节的buf, 消息体原样交给下游,
+ * 由transport以gathering write的方式写出, 不再拷贝消息体
+ *
  * @author nnkwrik
  * @date 19/05/01 10:08
  */
 @ChannelHandler.Sharable
-public class ProtocolEncoder extends MessageToByteEncoder<PayloadHolder> {
+public class ProtocolEncoder extends ChannelOutboundHandlerAdapter {
+
     @Override
-    protected void encode(ChannelHandlerContext channelHandlerContext, PayloadHolder msg, ByteBuf out) throws Exception {
-        if (msg instanceof RequestPayload) {
-            doEncodeRequest((RequestPayload) msg, out);
-        } else if (msg instanceof ResponsePayload) {
-            doEncodeResponse((ResponsePayload) msg, out);
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof PayloadHolder) {
+            PayloadHolder payload = (PayloadHolder) msg;
+            writePayload(ctx, sign(payload), status(payload), payload.id(), methodId(payload), payload.content(), promise);
+        } else if (msg instanceof BatchPayload) {
+            writeBatch(ctx, (BatchPayload) msg, promise);
+        } else {
+            //心跳等已经编码好的ByteBuf
+            ctx.write(msg, promise);
+        }
+    }
+
+    private static byte sign(PayloadHolder payload) {
+        byte sign;
+        if (payload instanceof RequestPayload) {
+            sign = methodId(payload) >= 0 ? ProtocolHeader.REQUEST_METHOD : ProtocolHeader.REQUEST;
+        } else if (payload instanceof ResponsePayload) {
+            sign = ProtocolHeader.RESPONSE;
         } else {
-            throw new IllegalArgumentException(msg.getClass().getSimpleName());
+            sign = ProtocolHeader.HANDSHAKE;
         }
+        return (byte) ((payload.serializerCode() << ProtocolHeader.SERIALIZER_SHIFT) | sign);
+    }
+
+    private static byte status(PayloadHolder payload) {
+        byte status;
+        if (payload instanceof RequestPayload) {
+            status = ((RequestPayload) payload).acceptedCompressor();
+        } else if (payload instanceof ResponsePayload) {
+            status = ((ResponsePayload) payload).status();
+        } else {
+            status = 0;
+        }
+        return payload.compressed() ? (byte) (status | ProtocolHeader.COMPRESSED) : status;
+    }
 
+    private static int methodId(PayloadHolder payload) {
+        return payload instanceof RequestPayload ? ((RequestPayload) payload).methodId() : -1;
     }
 
-    private void doEncodeRequest(RequestPayload msg, ByteBuf out) {
-        out.writeShort(ProtocolHeader.MAGIC)
-                .writeByte(ProtocolHeader.REQUEST)
-                .writeByte(0x00)
-                .writeLong(msg.id())
-                .writeInt(msg.bytes().length)
-                .writeBytes(msg.bytes());
+    /**
+     * 消息体长度, 包括REQUEST_METHOD的方法id
+     */
+    public static int bodyLength(PayloadHolder payload) {
+        int length = payload.content().readableBytes();
+        return methodId(payload) >= 0 ? length + ProtocolHeader.METHOD_ID_SIZE : length;
     }
 
-    private void doEncodeResponse(ResponsePayload msg, ByteBuf out) {
-        out.writeShort(ProtocolHeader.MAGIC)
-                .writeByte(ProtocolHeader.RESPONSE)
-                .writeByte(msg.status())
-                .writeLong(msg.id())
-                .writeInt(msg.bytes().length)
-                .writeBytes(msg.bytes());
+    /**
+     * BATCH中的消息都很小, 直接拷贝到一个buf中, 比逐个gathering write更省
+     */
+    private void writeBatch(ChannelHandlerContext ctx, BatchPayload batch, ChannelPromise promise) {
+        List<PayloadHolder> payloads = batch.payloads();
+        int bodyLength = 0;
+        for (PayloadHolder payload : payloads) {
+            bodyLength += ProtocolHeader.SUB_HEADER_SIZE + bodyLength(payload);
+        }
+
+        Capabilities capabilities = Capabilities.get(ctx.channel());
+        if (capabilities != null && bodyLength > capabilities.peerMaxBodySize()) {
+            batch.release();
+            promise.setFailure(new TooLongFrameException("Batch length " + bodyLength
+                    + " exceeds the limit of peer " + capabilities.peerMaxBodySize()));
+            return;
+        }
+
+        ByteBuf buf;
+        try {
+            buf = ctx.alloc().ioBuffer(ProtocolHeader.HEADER_SIZE + bodyLength);
+            buf.writeShort(ProtocolHeader.MAGIC)
+                    .writeByte(ProtocolHeader.BATCH)
+                    .writeByte(0)
+                    .writeLong(payloads.size())
+                    .writeInt(bodyLength);
+            for (PayloadHolder payload : payloads) {
+                ByteBuf body = payload.content();
+                buf.writeByte(sign(payload))
+                        .writeByte(status(payload))
+                        .writeLong(payload.id())
+                        .writeInt(bodyLength(payload));
+                if (methodId(payload) >= 0) {
+                    buf.writeInt(methodId(payload));
+                }
+                buf.writeBytes(body, body.readerIndex(), body.readableBytes());
+            }
+        } finally {
+            batch.release();
+        }
+        ctx.write(buf, promise);
+    }
+
+    private void writePayload(ChannelHandlerContext ctx, byte sign, byte status, long id, int methodId, ByteBuf body, ChannelPromise promise) {
+        int bodyLength = methodId >= 0 ? body.readableBytes() + ProtocolHeader.METHOD_ID_SIZE : body.readableBytes();
+        //对端会因为超过它的限制而断开连接, 连累这个连接上的其他调用. 直接让这一次写出失败
+        Capabilities capabilities = Capabilities.get(ctx.channel());
+        if (capabilities != null && bodyLength > capabilities.peerMaxBodySize()) {
+            body.release();
+            promise.setFailure(new TooLongFrameException("Body length " + bodyLength
+                    + " exceeds the limit of peer " + capabilities.peerMaxBodySize()));
+            return;
+        }
+
+        ByteBuf header = ctx.alloc().ioBuffer(ProtocolHeader.HEADER_SIZE + ProtocolHeader.METHOD_ID_SIZE);
+        header.writeShort(ProtocolHeader.MAGIC)
+                .writeByte(sign)
+                .writeByte(status)
+                .writeLong(id)
+                .writeInt(bodyLength);
+        if (methodId >= 0) {
+            header.writeInt(methodId);
+        }
+
+        //header写失败时body也一定失败, 结果统一由body的promise通知
+        ctx.write(header, ctx.voidPromise());
+        ctx.write(body, promise);
     }
 }
@@ -8,8 +8,9 @@ import io.netty.util.Timer;
 import io.netty.util.TimerTask;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.HashMap;
+import java.net.SocketAddress;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
@@ -21,23 +22,33 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 @ChannelHandler.Sharable
 public abstract class ConnectionWatchdog extends ChannelInboundHandlerAdapter implements TimerTask {
 
-    private static Map<Channel, ConnectionWatchdog> watchdogMap = new HashMap<>();
+    //多个eventLoop会同时访问
+    private static Map<Channel, ConnectionWatchdog> watchdogMap = new ConcurrentHashMap<>();
 
-    private final Bootstrap bootstrap;
     private final Timer timer;
-    private final int port;
-    private final String host;
+    private volatile Bootstrap bootstrap;
+    private volatile SocketAddress remoteAddress;
+
+    //共享内存或unix domain socket重连失败时改用的TCP地址
+    private volatile Bootstrap fallbackBootstrap;
+    private volatile SocketAddress fallbackAddress;
 
     private volatile boolean reconnect = true;
     private int attempts;
 
     private Channel connection;
 
-    public ConnectionWatchdog(Bootstrap bootstrap, Timer timer, int port, String host) {
+    public ConnectionWatchdog(Bootstrap bootstrap, Timer timer, SocketAddress remoteAddress) {
         this.bootstrap = bootstrap;
         this.timer = timer;
-        this.port = port;
-        this.host = host;
+        this.remoteAddress = remoteAddress;
+    }
+
+    public ConnectionWatchdog(Bootstrap bootstrap, Timer timer, SocketAddress remoteAddress,
+                              Bootstrap fallbackBootstrap, SocketAddress fallbackAddress) {
+        this(bootstrap, timer, remoteAddress);
+        this.fallbackBootstrap = fallbackBootstrap;
+        this.fallbackAddress = fallbackAddress;
     }
 
     public boolean isReconnect() {
@@ -80,7 +91,7 @@ public abstract class ConnectionWatchdog extends ChannelInboundHandlerAdapter im
             long timeout = 2 << attempts;
             timer.newTimeout(this, timeout, MILLISECONDS);
         } else {
-            log.warn("Disconnects with {}, port: {},host {}, reconnect: {}.", ctx.channel(), port, host, doReconnect);
+            log.warn("Disconnects with {}, address: {}, reconnect: {}.", ctx.channel(), remoteAddress, doReconnect);
         }
 
 
@@ -90,16 +101,18 @@ public abstract class ConnectionWatchdog extends ChannelInboundHandlerAdapter im
     @Override
     public void run(Timeout timeout) throws Exception {
 
+        final Bootstrap bootstrap = this.bootstrap;
+        final SocketAddress remoteAddress = this.remoteAddress;
         ChannelFuture future;
         synchronized (bootstrap) {
             bootstrap.handler(new ChannelInitializer<Channel>() {
 
                 @Override
                 protected void initChannel(Channel ch) throws Exception {
-                    ch.pipeline().addLast(handlers());
+                    ConnectionWatchdog.this.initChannel(ch);
                 }
             });
-            future = bootstrap.connect(host, port);
+            future = bootstrap.connect(remoteAddress);
         }
 
         future.addListener(new ChannelFutureListener() {
@@ -107,9 +120,17 @@ public abstract class ConnectionWatchdog extends ChannelInboundHandlerAdapter im
             public void operationComplete(ChannelFuture f) throws Exception {
                 boolean succeed = f.isSuccess();
 
-                log.debug("Reconnects with {}, {}.", host + ":" + port, succeed ? "succeed" : "failed");
+                log.debug("Reconnects with {}, {}.", remoteAddress, succeed ? "succeed" : "failed");
 
                 if (!succeed) {
+                    //socket文件或共享内存目录可能已经失效(如提供者异常退出), 之后改用TCP重连
+                    if (fallbackAddress != null) {
+                        log.warn("Fail to reconnect with {}, fall back to {}.", remoteAddress, fallbackAddress);
+                        ConnectionWatchdog.this.bootstrap = fallbackBootstrap;
+                        ConnectionWatchdog.this.remoteAddress = fallbackAddress;
+                        fallbackBootstrap = null;
+                        fallbackAddress = null;
+                    }
                     //如果失败了再次进入调用channelInactive()进行重连
                     f.channel().pipeline().fireChannelInactive();
                 } else {
@@ -127,5 +148,12 @@ public abstract class ConnectionWatchdog extends ChannelInboundHandlerAdapter im
     }
 
 
+    /**
+     * 新建和重连的连接在连接之前的初始化, 默认只添加handlers()
+     */
+    public void initChannel(Channel ch) {
+        ch.pipeline().addLast(handlers());
+    }
+
     public abstract ChannelHandler[] handlers();
 }
@@ -1,18 +1,33 @@
 package io.github.nnkwrik.kirinrpc.netty.handler.cli;
 
+import io.github.nnkwrik.kirinrpc.common.Constants;
 import io.github.nnkwrik.kirinrpc.common.util.StackTraceUtil;
+import io.github.nnkwrik.kirinrpc.compress.Compressors;
 import io.github.nnkwrik.kirinrpc.netty.IdealStateException;
+import io.github.nnkwrik.kirinrpc.netty.cli.ChannelStats;
+import io.github.nnkwrik.kirinrpc.netty.cli.MethodTable;
+import io.github.nnkwrik.kirinrpc.netty.model.HandshakePayload;
 import io.github.nnkwrik.kirinrpc.netty.model.ResponsePayload;
+import io.github.nnkwrik.kirinrpc.netty.protocol.Capabilities;
+import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
+import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.ResponseProcessor;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.PendingCallRegistry;
+import io.github.nnkwrik.kirinrpc.rpc.model.Handshake;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.codec.DecoderException;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
 import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author nnkwrik
@@ -22,12 +37,41 @@ import java.io.IOException;
 @ChannelHandler.Sharable
 public class ConnectorHandler extends ChannelInboundHandlerAdapter {
 
+    //连接建立后是否发送握手. 老版本的提供者收到不认识的消息会断开连接
+    private static final AttributeKey<Boolean> HANDSHAKE_KEY = AttributeKey.valueOf("kirin.handshake");
+
     private final ResponseProcessor processor;
 
+    //握手时告诉提供者的能力
+    private volatile int maxBodySize = Constants.DEFAULT_MAX_BODY_SIZE;
+
+    private volatile String compressions;
+
+    private volatile String appName;
+
     public ConnectorHandler(ResponseProcessor processor) {
         this.processor = processor;
     }
 
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    public void setCompressions(String compressions) {
+        this.compressions = compressions;
+    }
+
+    public void setAppName(String appName) {
+        this.appName = appName;
+    }
+
+    /**
+     * 在连接建立之前设置
+     */
+    public static void setHandshake(Channel channel, boolean handshake) {
+        channel.attr(HANDSHAKE_KEY).set(handshake);
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         Channel ch = ctx.channel();
@@ -36,6 +80,19 @@ public class ConnectorHandler extends ChannelInboundHandlerAdapter {
                 processor.handleResponse(ch, (ResponsePayload) msg);
             } catch (Throwable t) {
                 log.error("An exception was caught: {}, on {} #channelRead().", StackTraceUtil.stackTrace(t), ch);
+                ReferenceCountUtil.release(msg);
+            }
+        } else if (msg instanceof HandshakePayload) {
+            HandshakePayload handshakePayload = (HandshakePayload) msg;
+            try {
+                Handshake handshake = SerializerHolder.serializerImpl(handshakePayload.serializerCode())
+                        .readObject(handshakePayload.content(), Handshake.class);
+                handleHandshake(ctx, handshake);
+            } catch (Throwable t) {
+                //握手失败时继续发送完整的请求
+                log.warn("Fail to solve handshake from {}: {}.", ch, StackTraceUtil.stackTrace(t));
+            } finally {
+                handshakePayload.release();
             }
         } else {
             log.warn("Unexpected message type received: {}, channel: {}.", msg.getClass(), ch);
@@ -44,6 +101,89 @@ public class ConnectorHandler extends ChannelInboundHandlerAdapter {
 
     }
 
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        //告诉提供者自己的能力, 并请求它的方法表. 老版本的提供者不认识握手消息, 会抛出异常并断开连接,
+        //所以只对在注册中心公布了协议版本的提供者发送. 没有握手的连接照常发送完整的请求
+        if (Boolean.TRUE.equals(ctx.channel().attr(HANDSHAKE_KEY).get())) {
+            ByteBuf content = ctx.alloc().ioBuffer();
+            try {
+                SerializerHolder.serializerImpl().writeObject(content, localHandshake());
+            } catch (Throwable t) {
+                content.release();
+                throw t;
+            }
+            ctx.writeAndFlush(new HandshakePayload(0, content));
+        }
+
+        ctx.fireChannelActive();
+    }
+
+    private Handshake localHandshake() {
+        Handshake handshake = Handshake.local(compressions, maxBodySize, Constants.DEFAULT_HEARTBEAT_INTERVAL);
+        handshake.setAppName(appName);
+        return handshake;
+    }
+
+    private void handleHandshake(ChannelHandlerContext ctx, Handshake handshake) {
+        Channel ch = ctx.channel();
+        Handshake local = localHandshake();
+        Capabilities capabilities = new Capabilities(local, handshake,
+                Compressors.negotiate(local.getCompressions(), handshake.getCompressions()));
+        Capabilities.set(ch, capabilities);
+        MethodTable.set(ch, handshake);
+
+        //提供者的空闲超时比两次心跳间隔短时, 加快心跳, 避免被提供者断开
+        long heartbeatMillis = local.getHeartbeatMillis();
+        long idleTimeout = capabilities.peerHeartbeatMillis();
+        if (idleTimeout > 0 && heartbeatMillis * 2 > idleTimeout) {
+            heartbeatMillis = Math.max(idleTimeout / 2, 1000);
+            IdleStateHandler idleStateHandler = ctx.pipeline().get(IdleStateHandler.class);
+            if (idleStateHandler != null) {
+                ctx.pipeline().replace(idleStateHandler, ctx.pipeline().context(idleStateHandler).name(),
+                        new IdleStateHandler(0, heartbeatMillis, 0, TimeUnit.MILLISECONDS));
+            }
+        }
+        log.info("Handshake with {} completed, {}, {} methods, heartbeat every {} ms.",
+                ch, capabilities, handshake.getMethods().size(), heartbeatMillis);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        Channel ch = ctx.channel();
+        boolean writable = ch.isWritable();
+        if (!writable) {
+            log.warn("Outbound buffer of {} exceeds the high water mark, {} bytes buffered.",
+                    ch, ch.unsafe().outboundBuffer() != null ? ch.unsafe().outboundBuffer().totalPendingWriteBytes() : 0);
+        }
+        ChannelStats stats = ChannelStats.get(ch);
+        if (stats != null) {
+            stats.writabilityChanged(writable);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        Channel ch = ctx.channel();
+        //等待这个连接可写的调用不用再等了
+        ChannelStats stats = ChannelStats.get(ch);
+        if (stats != null) {
+            stats.wakeUp();
+        }
+        //这个连接上还在等待响应的调用不会再有结果了
+        PendingCallRegistry registry = PendingCallRegistry.get(ch);
+        if (registry != null) {
+            int failed = registry.failAll(new KirinRemoteException(
+                    "Connection closed before receiving response: " + ch, Status.CLIENT_ERROR));
+            if (failed > 0) {
+                log.warn("Fail {} pending calls on inactive channel {}.", failed, ch);
+            }
+        }
+
+        ctx.fireChannelInactive();
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         Channel ch = ctx.channel();
@@ -2,6 +2,7 @@ package io.github.nnkwrik.kirinrpc.netty.handler.srv;
 
 import io.github.nnkwrik.kirinrpc.common.util.StackTraceUtil;
 import io.github.nnkwrik.kirinrpc.netty.IdealStateException;
+import io.github.nnkwrik.kirinrpc.netty.model.HandshakePayload;
 import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
 import io.github.nnkwrik.kirinrpc.rpc.provider.RequestProcessor;
 import io.netty.channel.Channel;
@@ -40,6 +41,12 @@ public class AcceptorHandler extends ChannelInboundHandlerAdapter {
             } catch (Throwable t) {
                 processor.handleException(ch, (RequestPayload) msg, t);
             }
+        } else if (msg instanceof HandshakePayload) {
+            try {
+                processor.handleHandshake(ch, (HandshakePayload) msg);
+            } catch (Throwable t) {
+                log.error("Fail to handle handshake: {}, channel: {}.", StackTraceUtil.stackTrace(t), ch);
+            }
         } else {
             log.warn("Unexpected message type received: {}, channel: {}.", msg.getClass(), ch);
 
@@ -0,0 +1,75 @@
+package io.github.nnkwrik.kirinrpc.netty.model;
+
+import io.netty.util.ReferenceCounted;
+
+import java.util.List;
+
+/**
+ * 一起写出的多个请求或响应, 编码成一个BATCH消息. 引用计数委托给所有子消息
+ *
+ * @author nnkwrik
+ * @date 19/06/22 10:15
+ */
+public class BatchPayload implements ReferenceCounted {
+
+    private final List<PayloadHolder> payloads;
+
+    public BatchPayload(List<PayloadHolder> payloads) {
+        this.payloads = payloads;
+    }
+
+    public List<PayloadHolder> payloads() {
+        return payloads;
+    }
+
+    @Override
+    public int refCnt() {
+        return payloads.isEmpty() ? 0 : payloads.get(0).refCnt();
+    }
+
+    @Override
+    public BatchPayload retain() {
+        for (PayloadHolder payload : payloads) {
+            payload.retain();
+        }
+        return this;
+    }
+
+    @Override
+    public BatchPayload retain(int increment) {
+        for (PayloadHolder payload : payloads) {
+            payload.retain(increment);
+        }
+        return this;
+    }
+
+    @Override
+    public BatchPayload touch() {
+        for (PayloadHolder payload : payloads) {
+            payload.touch();
+        }
+        return this;
+    }
+
+    @Override
+    public BatchPayload touch(Object hint) {
+        for (PayloadHolder payload : payloads) {
+            payload.touch(hint);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return release(1);
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        boolean deallocated = true;
+        for (PayloadHolder payload : payloads) {
+            deallocated &= payload.release(decrement);
+        }
+        return deallocated;
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.nnkwrik.kirinrpc.netty.model;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 连接建立后交换的握手消息, 消息体是序列化后的Handshake
+ *
+ * @author nnkwrik
+ * @date 19/06/20 10:32
+ */
+public class HandshakePayload extends PayloadHolder {
+
+    public HandshakePayload(long id, ByteBuf content) {
+        super(id, content);
+    }
+}
@@ -1,17 +1,29 @@
 package io.github.nnkwrik.kirinrpc.netty.model;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
+
 /**
+ * 协议消息体. content直接引用netty的ByteBuf, 引用计数委托给content
+ *
  * @author nnkwrik
  * @date 19/05/01 9:47
  */
-public class PayloadHolder {
+public class PayloadHolder implements ReferenceCounted {
 
     private long id;
 
-    private byte[] bytes;
+    private final ByteBuf content;
+
+    //content是否是压缩后的消息体
+    private boolean compressed;
+
+    //content的序列化方式, 见SerializerHolder
+    private byte serializerCode;
 
-    public PayloadHolder(long id) {
+    public PayloadHolder(long id, ByteBuf content) {
         this.id = id;
+        this.content = content;
     }
 
     public long id() {
@@ -22,12 +34,63 @@ public class PayloadHolder {
         this.id = id;
     }
 
-    public void bytes(byte[] bytes) {
-        this.bytes = bytes;
+    public ByteBuf content() {
+        return content;
+    }
+
+    public boolean compressed() {
+        return compressed;
+    }
+
+    public void compressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    public byte serializerCode() {
+        return serializerCode;
+    }
+
+    public void serializerCode(byte serializerCode) {
+        this.serializerCode = serializerCode;
+    }
+
+    @Override
+    public int refCnt() {
+        return content.refCnt();
+    }
+
+    @Override
+    public PayloadHolder retain() {
+        content.retain();
+        return this;
+    }
+
+    @Override
+    public PayloadHolder retain(int increment) {
+        content.retain(increment);
+        return this;
+    }
+
+    @Override
+    public PayloadHolder touch() {
+        content.touch();
+        return this;
+    }
+
+    @Override
+    public PayloadHolder touch(Object hint) {
+        content.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return content.release();
     }
 
-    public byte[] bytes() {
-        return bytes;
+    @Override
+    public boolean release(int decrement) {
+        return content.release(decrement);
     }
 
 }
@@ -1,5 +1,7 @@
 package io.github.nnkwrik.kirinrpc.netty.model;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  * @author nnkwrik
  * @date 19/05/01 10:17
@@ -8,8 +10,12 @@ public class RequestPayload extends PayloadHolder {
 
     private transient long timestamp;//用于监控处理耗时
 
-    public RequestPayload(long id) {
-        super(id);
+    private byte acceptedCompressor;//消费者能接受的响应压缩算法, 0表示不压缩
+
+    private int methodId = -1;//协议头之后的方法id, 小于0时方法在消息体中
+
+    public RequestPayload(long id, ByteBuf content) {
+        super(id, content);
     }
 
     public long timestamp() {
@@ -19,4 +25,20 @@ public class RequestPayload extends PayloadHolder {
     public void timestamp(long timestamp) {
         this.timestamp = timestamp;
     }
+
+    public byte acceptedCompressor() {
+        return acceptedCompressor;
+    }
+
+    public void acceptedCompressor(byte acceptedCompressor) {
+        this.acceptedCompressor = acceptedCompressor;
+    }
+
+    public int methodId() {
+        return methodId;
+    }
+
+    public void methodId(int methodId) {
+        this.methodId = methodId;
+    }
 }
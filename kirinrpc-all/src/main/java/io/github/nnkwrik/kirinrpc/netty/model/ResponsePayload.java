@@ -1,5 +1,7 @@
 package io.github.nnkwrik.kirinrpc.netty.model;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  * @author nnkwrik
  * @date 19/05/01 10:17
@@ -10,8 +12,8 @@ public class ResponsePayload extends PayloadHolder {
 
     private transient long timestamp;//用于监控处理耗时
 
-    public ResponsePayload(long id) {
-        super(id);
+    public ResponsePayload(long id, ByteBuf content) {
+        super(id, content);
     }
 
     public byte status() {
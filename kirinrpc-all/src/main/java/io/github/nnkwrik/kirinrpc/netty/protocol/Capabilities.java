@@ -0,0 +1,98 @@
+package io.github.nnkwrik.kirinrpc.netty.protocol;
+
+import io.github.nnkwrik.kirinrpc.compress.Compressor;
+import io.github.nnkwrik.kirinrpc.rpc.model.Handshake;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * 握手后双方协商出的连接能力, 挂在连接的attribute上.
+ * 对端是老版本或握手还没有完成时没有这个attribute, 各处按注册中心中的信息处理
+ *
+ * @author nnkwrik
+ * @date 19/06/21 9:40
+ */
+public class Capabilities {
+
+    private static final AttributeKey<Capabilities> CAPABILITIES_KEY = AttributeKey.valueOf("kirin.capabilities");
+
+    //双方都支持的协议版本
+    private final int version;
+
+    //按序列化方式的编号索引, 双方都支持时为true
+    private final boolean[] serializers = new boolean[16];
+
+    //消费者选出的, 双方都支持的压缩算法. null时不压缩
+    private final Compressor compressor;
+
+    //对端能接收的最大消息体, 超过时不发送
+    private final int peerMaxBodySize;
+
+    //对端的心跳间隔或空闲超时
+    private final long peerHeartbeatMillis;
+
+    //消费者的应用名, 老版本的消费者没有
+    private final String peerAppName;
+
+    public Capabilities(Handshake local, Handshake peer, Compressor compressor) {
+        this.version = Math.min(local.getVersion(), peer.getVersion());
+        if (peer.getSerializers() != null) {
+            for (String name : peer.getSerializers().split(",")) {
+                Serializer serializer = SerializerHolder.serializerImpl(name.trim());
+                if (serializer != null) {
+                    serializers[serializer.code()] = true;
+                }
+            }
+        }
+        //默认的方式双方总是支持
+        serializers[SerializerHolder.serializerImpl().code()] = true;
+        this.compressor = compressor;
+        this.peerMaxBodySize = peer.getMaxBodySize() > 0 ? peer.getMaxBodySize() : Integer.MAX_VALUE;
+        this.peerHeartbeatMillis = peer.getHeartbeatMillis();
+        this.peerAppName = peer.getAppName();
+    }
+
+    public static void set(Channel channel, Capabilities capabilities) {
+        channel.attr(CAPABILITIES_KEY).set(capabilities);
+    }
+
+    /**
+     * 还没有完成握手, 或者对端不支持握手时返回null
+     */
+    public static Capabilities get(Channel channel) {
+        return channel.attr(CAPABILITIES_KEY).get();
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public boolean supportsSerializer(int code) {
+        return code >= 0 && code < serializers.length && serializers[code];
+    }
+
+    public Compressor compressor() {
+        return compressor;
+    }
+
+    public int peerMaxBodySize() {
+        return peerMaxBodySize;
+    }
+
+    public long peerHeartbeatMillis() {
+        return peerHeartbeatMillis;
+    }
+
+    public String peerAppName() {
+        return peerAppName;
+    }
+
+    @Override
+    public String toString() {
+        return "Capabilities(version=" + version + ", compressor=" + (compressor != null ? compressor.name() : null)
+                + ", peerMaxBodySize=" + peerMaxBodySize + ", peerHeartbeatMillis=" + peerHeartbeatMillis
+                + ", peerAppName=" + peerAppName + ")";
+    }
+}
@@ -14,10 +14,21 @@ package io.github.nnkwrik.kirinrpc.netty.protocol;
  *
  * 消息头16个字节定长
  * = 2 // MAGIC = (short) 0xbabe
- * + 1 // 消息标志位, 用来表示消息类型
- * + 1 // 空
+ * + 1 // 消息标志位, 低4位表示消息类型, 高4位是消息体的序列化方式(见SerializerHolder), 0是protostuff
+ * + 1 // 状态位. 最高位表示消息体是否被压缩(见Compressors),
+ *      // 请求中低4位是消费者能接受的响应压缩算法的id, 响应中其余7位是Status
  * + 8 // 消息 id long 类型
  * + 4 // 消息体body长度, int类型
+ *
+ * BATCH消息的消息体由多个子消息组成, id是子消息的个数. 每个子消息是去掉MAGIC的14字节协议头加上消息体,
+ * 子消息的标志位和状态位含义和单独发送时相同
+ * = 1 // 消息标志位
+ * + 1 // 状态位
+ * + 8 // 消息 id
+ * + 4 // 消息体body长度
+ *
+ * REQUEST_METHOD是握手后的请求, 消息体的前4个字节是方法id(见Handshake#methodId), 之后是只带参数的请求.
+ * 提供者不用反序列化就知道调用的方法, 可以在I/O线程上限流. 压缩时只压缩方法id之后的部分
  * </pre>
  *
  * @author nnkwrik
@@ -29,10 +40,33 @@ public class ProtocolHeader {
 
     public static final short MAGIC = (short) 0x70bb;
 
+    //协议版本, 提供者把它公布在注册中心中, 也在握手中交换. 没有握手的老版本视为0, 1支持握手, 2支持BATCH, 3支持REQUEST_METHOD
+    public static final int VERSION = 3;
+
+    public static final int VERSION_HANDSHAKE = 1;
+
+    public static final int VERSION_BATCH = 2;
+
+    public static final int VERSION_METHOD_ID = 3;
+
+    public static final int METHOD_ID_SIZE = 4;
+
+    public static final int SUB_HEADER_SIZE = 14;
+
     //sign
     public static final byte REQUEST = 0x01;     // Request
     public static final byte RESPONSE = 0x02;     // Response
+    public static final byte HANDSHAKE = 0x03;    // Handshake
+    public static final byte BATCH = 0x04;        // 多个请求或响应
+    public static final byte REQUEST_METHOD = 0x05; // 消息体以方法id开头的Request
     public static final byte HEARTBEAT = 0x0f;     // Heartbeat
+    public static final byte SIGN_MASK = 0x0f;     // 消息类型
+    public static final int SERIALIZER_SHIFT = 4;  // 序列化方式的编号
+
+    //status
+    public static final byte COMPRESSED = (byte) 0x80;  // 消息体被压缩
+    public static final byte COMPRESSOR_MASK = 0x0f;   // 请求中能接受的压缩算法
+    public static final byte STATUS_MASK = 0x7f;       // 响应的Status
 
     private byte sign;
     private byte status;
@@ -0,0 +1,118 @@
+package io.github.nnkwrik.kirinrpc.netty.shm;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 提供者一侧, 轮询目录中消费者新建的会话文件, 为每个会话创建ShmChannel并注册到workerGroup
+ *
+ * @author nnkwrik
+ * @date 19/06/12 17:50
+ */
+@Slf4j
+public class ShmAcceptor {
+
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final ShmAddress address;
+
+    private final EventLoopGroup group;
+
+    private final ChannelHandler childHandler;
+
+    private final ByteBufAllocator allocator;
+
+    //已经处理过的会话文件, 只由接受线程访问
+    private final Set<String> known = new HashSet<>();
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    public ShmAcceptor(String path, EventLoopGroup group, ChannelHandler childHandler, ByteBufAllocator allocator) {
+        this.address = new ShmAddress(path);
+        this.group = group;
+        this.childHandler = childHandler;
+        this.allocator = allocator;
+    }
+
+    public synchronized void start() throws IOException {
+        File dir = address.directory();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Fail to create shared memory directory " + dir);
+        }
+        running = true;
+        thread = new Thread(this::acceptLoop, "kirin-shm-acceptor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void shutdown() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public ShmAddress address() {
+        return address;
+    }
+
+    private void acceptLoop() {
+        File dir = address.directory();
+        while (running) {
+            File[] files = dir.listFiles((d, name) -> name.endsWith(ShmSession.SUFFIX));
+            if (files != null) {
+                Set<String> present = new HashSet<>();
+                for (File file : files) {
+                    present.add(file.getName());
+                    if (known.add(file.getName())) {
+                        accept(file);
+                    }
+                }
+                //会话结束后文件被删除
+                known.retainAll(present);
+            }
+            LockSupport.parkNanos(POLL_INTERVAL_NANOS);
+        }
+    }
+
+    private void accept(File file) {
+        ShmSession session;
+        try {
+            session = ShmSession.accept(file);
+        } catch (IOException e) {
+            log.warn("Fail to accept shared memory session {}.", file, e);
+            return;
+        }
+        if (session == null) {
+            return;
+        }
+        //上次没有正常关闭时留下的文件
+        if (!session.isPeerAlive()) {
+            session.release();
+            return;
+        }
+
+        ShmChannel channel = new ShmChannel(session, address);
+        channel.config().setOption(ChannelOption.ALLOCATOR, allocator);
+        channel.pipeline().addLast(childHandler);
+        group.register(channel).addListener(future -> {
+            if (!future.isSuccess()) {
+                log.warn("Fail to register shared memory channel {}.", channel, future.cause());
+                channel.unsafe().closeForcibly();
+            }
+        });
+        log.info("Accept shared memory session {}.", session);
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.nnkwrik.kirinrpc.netty.shm;
+
+import java.io.File;
+import java.net.SocketAddress;
+
+/**
+ * 共享内存传输的地址, 即提供者监听的目录. 消费者在这个目录中创建会话文件
+ *
+ * @author nnkwrik
+ * @date 19/06/12 16:10
+ */
+public class ShmAddress extends SocketAddress {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+
+    public ShmAddress(String path) {
+        this.path = path;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public File directory() {
+        return new File(path);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ShmAddress && path.equals(((ShmAddress) o).path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "shm:" + path;
+    }
+}
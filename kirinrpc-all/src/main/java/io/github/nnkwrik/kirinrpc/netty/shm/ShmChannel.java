@@ -0,0 +1,418 @@
+package io.github.nnkwrik.kirinrpc.netty.shm;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AbstractChannel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelMetadata;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.ConnectTimeoutException;
+import io.netty.channel.DefaultChannelConfig;
+import io.netty.channel.EventLoop;
+import io.netty.channel.SingleThreadEventLoop;
+import io.netty.util.internal.MathUtil;
+import io.netty.util.internal.SystemPropertyUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketAddress;
+import java.nio.channels.AlreadyConnectedException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 基于共享内存环的channel, 用于同一台主机上的不同进程. 环只传输字节流, 编解码仍由ProtocolEncoder/ProtocolDecoder完成,
+ * 所以pipeline和TCP连接完全相同.
+ * <p>
+ * 写出在eventLoop中直接拷贝到发送环, 环满时按指数退避定时重新flush. 每个channel有一个读线程轮询接收环,
+ * 有数据时提交一个读任务, 由eventLoop从环中读取并触发channelRead. 同时最多只有一个读任务,
+ * 并且只在eventLoop请求读(autoRead或调用read())时提交, 处理不过来时数据留在环中, 由环的容量对对方形成背压.
+ * Java中无法跨进程使用futex, 读线程空闲时依次自旋, yield, park等待.
+ * <p>
+ * 通过系统属性配置:
+ * <ul>
+ * <li>kirin.shm.capacity: 每个方向的环的字节数, 向上取2的幂, 默认1M</li>
+ * <li>kirin.shm.busySpin: 读线程空闲时一直自旋, 延迟最低但占满一个核, 默认false</li>
+ * <li>kirin.shm.maxParkMicros: 读线程空闲时park的最长时间, 默认1000微秒</li>
+ * </ul>
+ *
+ * @author nnkwrik
+ * @date 19/06/12 17:10
+ */
+@Slf4j
+public class ShmChannel extends AbstractChannel {
+
+    static final int CAPACITY = MathUtil.safeFindNextPositivePowerOfTwo(SystemPropertyUtil.getInt("kirin.shm.capacity", 1 << 20));
+
+    private static final boolean BUSY_SPIN = SystemPropertyUtil.getBoolean("kirin.shm.busySpin", false);
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(
+            Math.max(SystemPropertyUtil.getInt("kirin.shm.maxParkMicros", 1000), 1));
+
+    private static final int SPIN_TRIES = 200;
+
+    private static final int YIELD_TRIES = 100;
+
+    //空闲时检查对方进程是否还在的间隔
+    private static final long LIVENESS_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 3000;
+
+    private static final int MAX_READ_BYTES = 64 * 1024;
+
+    //一个读任务最多读取的次数, 避免长时间占用eventLoop
+    private static final int MAX_READS_PER_TASK = 16;
+
+    //发送环满时重新flush的等待时间
+    private static final long MIN_FLUSH_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private static final long MAX_FLUSH_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final ChannelMetadata METADATA = new ChannelMetadata(false);
+
+    private final ChannelConfig config = new DefaultChannelConfig(this);
+
+    private final Runnable flushTask = () -> {
+        flushPending = false;
+        ((ShmUnsafe) unsafe()).flush0();
+    };
+
+    private final Runnable readTask = this::read0;
+
+    private volatile ShmSession session;
+
+    private volatile ShmAddress address;
+
+    private volatile boolean open = true;
+
+    private volatile boolean active;
+
+    private Thread reader;
+
+    //eventLoop请求了读, autoRead时一直为true
+    private volatile boolean readPending;
+
+    //已经提交了读任务, 读线程等它执行完再检查接收环
+    private volatile boolean readScheduled;
+
+    private boolean flushPending;
+
+    private long flushBackoffNanos = MIN_FLUSH_BACKOFF_NANOS;
+
+    public ShmChannel() {
+        super(null);
+    }
+
+    /**
+     * 提供者接受的会话, 注册后即为active
+     */
+    ShmChannel(ShmSession session, ShmAddress address) {
+        super(null);
+        this.session = session;
+        this.address = address;
+        this.active = true;
+    }
+
+    @Override
+    protected AbstractUnsafe newUnsafe() {
+        return new ShmUnsafe();
+    }
+
+    @Override
+    protected boolean isCompatible(EventLoop loop) {
+        return loop instanceof SingleThreadEventLoop;
+    }
+
+    @Override
+    protected SocketAddress localAddress0() {
+        return address;
+    }
+
+    @Override
+    protected SocketAddress remoteAddress0() {
+        return address;
+    }
+
+    @Override
+    protected void doBind(SocketAddress localAddress) {
+        throw new UnsupportedOperationException("bind");
+    }
+
+    @Override
+    protected void doDisconnect() {
+        doClose();
+    }
+
+    @Override
+    protected void doClose() {
+        open = false;
+        active = false;
+        ShmSession session = this.session;
+        if (session != null) {
+            this.session = null;
+            session.markClosed();
+            session.release();
+        }
+    }
+
+    @Override
+    protected void doBeginRead() {
+        ShmSession session = this.session;
+        if (!active || session == null) {
+            return;
+        }
+        readPending = true;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+            return;
+        }
+        ShmSession retained = session.retain();
+        reader = new Thread(() -> readLoop(retained), "kirin-shm-reader-" + retained.file().getName());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    protected void doWrite(ChannelOutboundBuffer in) throws Exception {
+        ShmSession session = this.session;
+        if (session == null) {
+            throw new ClosedChannelException();
+        }
+        ShmRing tx = session.tx();
+        for (; ; ) {
+            Object msg = in.current();
+            if (msg == null) {
+                break;
+            }
+            if (!(msg instanceof ByteBuf)) {
+                in.remove(new UnsupportedOperationException("unsupported message type: " + msg.getClass().getName()));
+                continue;
+            }
+            ByteBuf buf = (ByteBuf) msg;
+            if (!buf.isReadable()) {
+                in.remove();
+                continue;
+            }
+            int written = tx.write(buf);
+            if (written == 0) {
+                //对方来不及读, 等待一段时间再flush, 不要占满eventLoop
+                if (session.isPeerClosed()) {
+                    throw new ClosedChannelException();
+                }
+                if (!flushPending) {
+                    flushPending = true;
+                    eventLoop().schedule(flushTask, flushBackoffNanos, TimeUnit.NANOSECONDS);
+                    flushBackoffNanos = Math.min(flushBackoffNanos << 1, MAX_FLUSH_BACKOFF_NANOS);
+                }
+                return;
+            }
+            flushBackoffNanos = MIN_FLUSH_BACKOFF_NANOS;
+            in.progress(written);
+            if (!buf.isReadable()) {
+                in.remove();
+            }
+        }
+    }
+
+    /**
+     * 读线程. 持有session的一个引用, 退出时释放
+     */
+    private void readLoop(ShmSession session) {
+        ShmRing rx = session.rx();
+        int idle = 0;
+        long parkNanos = 1000;
+        long lastLivenessCheck = System.nanoTime();
+        try {
+            while (open) {
+                int readable = rx.readable();
+                if (readable > 0 && readPending && !readScheduled) {
+                    readScheduled = true;
+                    if (!scheduleRead()) {
+                        break;
+                    }
+                    idle = 0;
+                    parkNanos = 1000;
+                    continue;
+                }
+                //对方关闭前写出的数据要先读完
+                if (readable == 0 && !readScheduled && session.isPeerClosed() && rx.readable() == 0) {
+                    closeLater();
+                    break;
+                }
+                if (BUSY_SPIN || ++idle <= SPIN_TRIES) {
+                    continue;
+                }
+                if (idle <= SPIN_TRIES + YIELD_TRIES) {
+                    Thread.yield();
+                    continue;
+                }
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+
+                long now = System.nanoTime();
+                if (now - lastLivenessCheck > LIVENESS_CHECK_NANOS) {
+                    lastLivenessCheck = now;
+                    if (!session.isPeerAlive()) {
+                        log.warn("Peer of shared memory session {} is gone.", session);
+                        closeLater();
+                        break;
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            log.error("Shared memory reader of " + session + " failed.", t);
+            closeLater();
+        } finally {
+            session.release();
+        }
+    }
+
+    private boolean scheduleRead() {
+        try {
+            eventLoop().execute(readTask);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 在eventLoop中从接收环读取. 没有autoRead时每次read()只触发一次channelRead
+     */
+    private void read0() {
+        ShmSession session = this.session;
+        int reads = 0;
+        try {
+            if (!isActive() || session == null) {
+                return;
+            }
+            ShmRing rx = session.rx();
+            //channelRead中可能关闭channel, 之后环不能再访问
+            while (readPending && isActive() && reads < MAX_READS_PER_TASK) {
+                int readable = rx.readable();
+                if (readable == 0) {
+                    break;
+                }
+                ByteBuf buf = config.getAllocator().directBuffer(Math.min(readable, MAX_READ_BYTES));
+                rx.read(buf);
+                reads++;
+                if (!config.isAutoRead()) {
+                    readPending = false;
+                }
+                pipeline().fireChannelRead(buf);
+            }
+        } finally {
+            readScheduled = false;
+            Thread reader = this.reader;
+            if (reader != null) {
+                LockSupport.unpark(reader);
+            }
+        }
+        if (reads > 0) {
+            pipeline().fireChannelReadComplete();
+        }
+    }
+
+    private void closeLater() {
+        try {
+            eventLoop().execute(() -> unsafe().close(unsafe().voidPromise()));
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    @Override
+    public ChannelConfig config() {
+        return config;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isActive() {
+        return open && active;
+    }
+
+    @Override
+    public ChannelMetadata metadata() {
+        return METADATA;
+    }
+
+    private class ShmUnsafe extends AbstractUnsafe {
+
+        @Override
+        public void connect(SocketAddress remoteAddress, SocketAddress localAddress, ChannelPromise promise) {
+            if (!promise.setUncancellable() || !ensureOpen(promise)) {
+                return;
+            }
+            if (active || session != null) {
+                promise.setFailure(new AlreadyConnectedException());
+                return;
+            }
+            if (!(remoteAddress instanceof ShmAddress)) {
+                promise.setFailure(new ConnectException("unsupported address: " + remoteAddress));
+                return;
+            }
+
+            ShmAddress shmAddress = (ShmAddress) remoteAddress;
+            ShmSession created;
+            try {
+                created = ShmSession.connect(shmAddress, CAPACITY);
+            } catch (IOException e) {
+                ConnectException cause = new ConnectException(e.getMessage() + ": " + remoteAddress);
+                cause.initCause(e);
+                promise.setFailure(cause);
+                closeIfClosed();
+                return;
+            }
+            session = created;
+            address = shmAddress;
+
+            //等待提供者接受, 不占用eventLoop
+            int timeout = config.getConnectTimeoutMillis() > 0 ? config.getConnectTimeoutMillis() : DEFAULT_CONNECT_TIMEOUT;
+            ShmSession retained = created.retain();
+            Thread waiter = new Thread(() -> {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+                boolean accepted;
+                try {
+                    while (!(accepted = retained.isAccepted()) && open && System.nanoTime() < deadline) {
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                    }
+                } finally {
+                    retained.release();
+                }
+                boolean success = accepted;
+                try {
+                    eventLoop().execute(() -> fulfillConnect(promise, success, remoteAddress));
+                } catch (RejectedExecutionException e) {
+                    promise.tryFailure(e);
+                }
+            }, "kirin-shm-connect");
+            waiter.setDaemon(true);
+            waiter.start();
+        }
+
+        private void fulfillConnect(ChannelPromise promise, boolean accepted, SocketAddress remoteAddress) {
+            if (accepted && open) {
+                active = true;
+                if (promise.trySuccess()) {
+                    pipeline().fireChannelActive();
+                    return;
+                }
+            } else {
+                promise.tryFailure(new ConnectTimeoutException("connection timed out: " + remoteAddress));
+            }
+            close(voidPromise());
+        }
+
+        @Override
+        protected final void flush0() {
+            super.flush0();
+        }
+    }
+}
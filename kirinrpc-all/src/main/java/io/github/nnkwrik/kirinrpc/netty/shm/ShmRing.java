@@ -0,0 +1,131 @@
+package io.github.nnkwrik.kirinrpc.netty.shm;
+
+import io.netty.buffer.ByteBuf;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * 映射内存上的单生产者单消费者字节环. 只传字节流, 消息的边界仍由ProtocolHeader决定.
+ * <p>
+ * 布局: [head(8) ... 64][tail(8) ... 64][data(capacity)]
+ * head只由消费者写, tail只由生产者写. 生产者先写数据再有序地更新tail, 消费者读到tail后才读数据.
+ *
+ * @author nnkwrik
+ * @date 19/06/12 16:20
+ */
+final class ShmRing {
+
+    static final int CONTROL_SIZE = 128;
+
+    private static final int HEAD_OFFSET = 0;
+    private static final int TAIL_OFFSET = 64;
+
+    private static final Unsafe UNSAFE;
+
+    static {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long headAddress;
+    private final long tailAddress;
+
+    private final int dataOffset;
+    private final int capacity;
+    private final int mask;
+
+    //生产者和消费者各自使用的视图, 不共享position
+    private final ByteBuffer producerView;
+    private final ByteBuffer consumerView;
+
+    /**
+     * @param buffer  整个映射文件
+     * @param address buffer的内存地址
+     * @param offset  这个环在文件中的偏移
+     */
+    ShmRing(ByteBuffer buffer, long address, int offset, int capacity) {
+        this.headAddress = address + offset + HEAD_OFFSET;
+        this.tailAddress = address + offset + TAIL_OFFSET;
+        this.dataOffset = offset + CONTROL_SIZE;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.producerView = buffer.duplicate();
+        this.consumerView = buffer.duplicate();
+    }
+
+    static int size(int capacity) {
+        return CONTROL_SIZE + capacity;
+    }
+
+    static void putIntVolatile(long address, int value) {
+        UNSAFE.putIntVolatile(null, address, value);
+    }
+
+    static int getIntVolatile(long address) {
+        return UNSAFE.getIntVolatile(null, address);
+    }
+
+    /**
+     * 生产者调用. 尽可能多地写入src的可读字节, 返回写入的字节数, 环满时返回0
+     */
+    int write(ByteBuf src) {
+        long tail = UNSAFE.getLong(tailAddress);
+        long head = UNSAFE.getLongVolatile(null, headAddress);
+        int n = Math.min(capacity - (int) (tail - head), src.readableBytes());
+        if (n <= 0) {
+            return 0;
+        }
+        int offset = (int) (tail & mask);
+        int first = Math.min(n, capacity - offset);
+        copyFrom(src, offset, first);
+        if (first < n) {
+            copyFrom(src, 0, n - first);
+        }
+        UNSAFE.putOrderedLong(null, tailAddress, tail + n);
+        return n;
+    }
+
+    /**
+     * 消费者调用. 可读的字节数
+     */
+    int readable() {
+        return (int) (UNSAFE.getLongVolatile(null, tailAddress) - UNSAFE.getLong(headAddress));
+    }
+
+    /**
+     * 消费者调用. 读取最多dst.writableBytes()个字节, 返回读取的字节数
+     */
+    int read(ByteBuf dst) {
+        long head = UNSAFE.getLong(headAddress);
+        long tail = UNSAFE.getLongVolatile(null, tailAddress);
+        int n = Math.min((int) (tail - head), dst.writableBytes());
+        if (n <= 0) {
+            return 0;
+        }
+        int offset = (int) (head & mask);
+        int first = Math.min(n, capacity - offset);
+        copyTo(dst, offset, first);
+        if (first < n) {
+            copyTo(dst, 0, n - first);
+        }
+        UNSAFE.putOrderedLong(null, headAddress, head + n);
+        return n;
+    }
+
+    private void copyFrom(ByteBuf src, int offset, int length) {
+        producerView.clear().position(dataOffset + offset).limit(dataOffset + offset + length);
+        src.readBytes(producerView);
+    }
+
+    private void copyTo(ByteBuf dst, int offset, int length) {
+        consumerView.clear().position(dataOffset + offset).limit(dataOffset + offset + length);
+        dst.writeBytes(consumerView);
+    }
+}
@@ -0,0 +1,216 @@
+package io.github.nnkwrik.kirinrpc.netty.shm;
+
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个消费者和提供者之间的共享内存会话, 对应目录中的一个.shm文件.
+ * <p>
+ * 布局: [header(128)][消费者->提供者的环][提供者->消费者的环]
+ * header: magic(4) capacity(4) accepted(4) clientClosed(4) serverClosed(4)
+ * <p>
+ * 双方各持有文件上一个字节的FileLock, 进程退出时由操作系统释放. 对方的锁能被获取时说明对方已经不在了.
+ * 映射在所有使用者都release后才解除, 避免其他线程访问已经解除映射的内存.
+ *
+ * @author nnkwrik
+ * @date 19/06/12 16:40
+ */
+final class ShmSession {
+
+    static final String SUFFIX = ".shm";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x6b69726e;
+
+    private static final int HEADER_SIZE = 128;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int ACCEPTED_OFFSET = 8;
+    private static final int CLIENT_CLOSED_OFFSET = 12;
+    private static final int SERVER_CLOSED_OFFSET = 16;
+
+    private static final long CLIENT_LOCK_POSITION = 0;
+    private static final long SERVER_LOCK_POSITION = 1;
+
+    private static final AtomicInteger sessionId = new AtomicInteger();
+
+    private final File file;
+
+    private final boolean server;
+
+    private final RandomAccessFile raf;
+
+    private final MappedByteBuffer buffer;
+
+    private final long address;
+
+    private final ShmRing tx;
+
+    private final ShmRing rx;
+
+    private final FileLock lock;
+
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    private ShmSession(File file, boolean server, RandomAccessFile raf, MappedByteBuffer buffer, int capacity) throws IOException {
+        this.file = file;
+        this.server = server;
+        this.raf = raf;
+        this.buffer = buffer;
+        this.address = PlatformDependent.directBufferAddress(buffer);
+        ShmRing c2s = new ShmRing(buffer, address, HEADER_SIZE, capacity);
+        ShmRing s2c = new ShmRing(buffer, address, HEADER_SIZE + ShmRing.size(capacity), capacity);
+        this.tx = server ? s2c : c2s;
+        this.rx = server ? c2s : s2c;
+        this.lock = raf.getChannel().lock(server ? SERVER_LOCK_POSITION : CLIENT_LOCK_POSITION, 1, false);
+    }
+
+    /**
+     * 消费者调用. 在提供者的目录中创建会话文件, 初始化后重命名为.shm, 提供者只会看到初始化完成的文件
+     */
+    static ShmSession connect(ShmAddress address, int capacity) throws IOException {
+        File dir = address.directory();
+        if (!dir.isDirectory()) {
+            throw new IOException("Shared memory directory not found: " + dir);
+        }
+        String name = PlatformDependent.threadLocalRandom().nextInt(Integer.MAX_VALUE) + "-" + sessionId.incrementAndGet();
+        File tmp = new File(dir, name + TMP_SUFFIX);
+        File file = new File(dir, name + SUFFIX);
+
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        ShmSession session = null;
+        try {
+            raf.setLength(HEADER_SIZE + 2L * ShmRing.size(capacity));
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            session = new ShmSession(file, false, raf, buffer, capacity);
+            buffer.force();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Fail to publish shared memory session " + file);
+            }
+            return session;
+        } catch (IOException | RuntimeException e) {
+            if (session != null) {
+                session.release();
+            } else {
+                raf.close();
+            }
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * 提供者调用. 打开消费者创建的会话文件并设置accepted. 文件无效或已被接受时返回null
+     */
+    static ShmSession accept(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < HEADER_SIZE) {
+                raf.close();
+                return null;
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            int capacity = buffer.getInt(CAPACITY_OFFSET);
+            if (buffer.getInt(MAGIC_OFFSET) != MAGIC || Integer.bitCount(capacity) != 1
+                    || raf.length() != HEADER_SIZE + 2L * ShmRing.size(capacity)
+                    || buffer.getInt(ACCEPTED_OFFSET) != 0) {
+                PlatformDependent.freeDirectBuffer(buffer);
+                raf.close();
+                return null;
+            }
+            ShmSession session = new ShmSession(file, true, raf, buffer, capacity);
+            ShmRing.putIntVolatile(session.address + ACCEPTED_OFFSET, 1);
+            return session;
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    ShmRing tx() {
+        return tx;
+    }
+
+    ShmRing rx() {
+        return rx;
+    }
+
+    File file() {
+        return file;
+    }
+
+    boolean isAccepted() {
+        return ShmRing.getIntVolatile(address + ACCEPTED_OFFSET) != 0;
+    }
+
+    void markClosed() {
+        ShmRing.putIntVolatile(address + (server ? SERVER_CLOSED_OFFSET : CLIENT_CLOSED_OFFSET), 1);
+    }
+
+    boolean isPeerClosed() {
+        return ShmRing.getIntVolatile(address + (server ? CLIENT_CLOSED_OFFSET : SERVER_CLOSED_OFFSET)) != 0;
+    }
+
+    /**
+     * 对方的锁可以被获取时说明对方进程已经退出. 有一定开销, 只在空闲时偶尔调用
+     */
+    boolean isPeerAlive() {
+        //提供者接受前还没有加锁
+        if (!isAccepted()) {
+            return true;
+        }
+        try {
+            FileLock peerLock = raf.getChannel().tryLock(server ? CLIENT_LOCK_POSITION : SERVER_LOCK_POSITION, 1, false);
+            if (peerLock == null) {
+                return true;
+            }
+            peerLock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            //对方在同一个JVM中
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    ShmSession retain() {
+        refCnt.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * 最后一个使用者release时解除映射并删除文件
+     */
+    void release() {
+        if (refCnt.decrementAndGet() != 0) {
+            return;
+        }
+        try {
+            lock.release();
+        } catch (IOException ignored) {
+        }
+        try {
+            raf.close();
+        } catch (IOException ignored) {
+        }
+        PlatformDependent.freeDirectBuffer(buffer);
+        file.delete();
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+}
@@ -1,20 +1,37 @@
 package io.github.nnkwrik.kirinrpc.netty.srv;
 
+import io.github.nnkwrik.kirinrpc.common.Constants;
+import io.github.nnkwrik.kirinrpc.netty.NettyTransport;
 import io.github.nnkwrik.kirinrpc.netty.handler.ProtocolDecoder;
 import io.github.nnkwrik.kirinrpc.netty.handler.ProtocolEncoder;
 import io.github.nnkwrik.kirinrpc.netty.handler.srv.AcceptorHandler;
 import io.github.nnkwrik.kirinrpc.netty.handler.srv.AcceptorIdealStateTrigger;
+import io.github.nnkwrik.kirinrpc.netty.shm.ShmAcceptor;
+import io.github.nnkwrik.kirinrpc.rpc.provider.ConcurrencyLimiters;
 import io.github.nnkwrik.kirinrpc.rpc.provider.ProviderProcessor;
-import io.github.nnkwrik.kirinrpc.rpc.provider.RequestProcessor;
 import io.github.nnkwrik.kirinrpc.rpc.provider.ServiceBeanContainer;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.handler.timeout.IdleStateHandler;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -24,7 +41,18 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class KirinServerAcceptor extends NettyAcceptor {
 
-    private InetSocketAddress serverAddress;
+    //stat(2)中的文件类型
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFSOCK = 0140000;
+
+    private SocketAddress serverAddress;
+    //同时监听的unix domain socket路径, 供同一台主机上的消费者使用
+    private String socketPath;
+    //同时接受共享内存会话的目录, 供同一台主机上的消费者使用
+    private String shmPath;
+    private ShmAcceptor shmAcceptor;
+    //socket文件是否由这个acceptor创建, 关闭时只删除自己创建的文件
+    private volatile boolean socketBound;
     //处理心跳超时
     private AcceptorIdealStateTrigger idleStateTrigger = new AcceptorIdealStateTrigger();
     //编码器
@@ -32,39 +60,141 @@ public class KirinServerAcceptor extends NettyAcceptor {
     //进行rpc调用的handler
     private final AcceptorHandler handler;
     //进行invoke调用的处理器
-    private final RequestProcessor processor;
+    private final ProviderProcessor processor;
 
     public KirinServerAcceptor(ServiceBeanContainer serviceContainer, int port) {
+        this(serviceContainer, new InetSocketAddress(port));
+    }
+
+    /**
+     * serverAddress为LocalAddress时使用netty的LocalChannel, 同一个JVM中的消费者以local为host连接
+     */
+    public KirinServerAcceptor(ServiceBeanContainer serviceContainer, SocketAddress serverAddress) {
         super();
-        this.serverAddress = new InetSocketAddress(port);
+        this.serverAddress = serverAddress;
         this.processor = new ProviderProcessor(serviceContainer);
         this.handler = new AcceptorHandler(processor);
     }
 
 
+    public void setSocketPath(String socketPath) {
+        this.socketPath = socketPath;
+    }
+
+    public void setShmPath(String shmPath) {
+        this.shmPath = shmPath;
+    }
+
+    /**
+     * 共享内存会话是否已经开始接受, start之后调用
+     */
+    public boolean isShmAccepting() {
+        return shmAcceptor != null;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        processor.setCompressThreshold(compressThreshold);
+    }
+
+    public void setBatchWindowMicros(int batchWindowMicros) {
+        processor.setBatchWindowMicros(batchWindowMicros);
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        processor.setMaxBatchSize(maxBatchSize);
+    }
+
+    public void setFlushConsolidation(boolean flushConsolidation) {
+        processor.setFlushConsolidation(flushConsolidation);
+    }
+
+    public void setFlushAfter(int flushAfter) {
+        processor.setFlushAfter(flushAfter);
+    }
+
+    /**
+     * CoDel的目标排队时间, 一个周期内最短的排队时间超过它时认为过载
+     */
+    public void setQueueTargetMillis(int queueTargetMillis) {
+        processor.admissionController().setTargetMillis(queueTargetMillis);
+    }
+
+    public void setQueueIntervalMillis(int queueIntervalMillis) {
+        processor.admissionController().setIntervalMillis(queueIntervalMillis);
+    }
+
+    public void setMaxQueueTimeMillis(int maxQueueTimeMillis) {
+        processor.admissionController().setMaxQueueTimeMillis(maxQueueTimeMillis);
+    }
+
+    public void setConcurrencyLimit(ConcurrencyLimiters.Scope scope) {
+        processor.concurrencyLimiters().setDefaultScope(scope);
+    }
+
+    public void setInitialConcurrency(int initialConcurrency) {
+        processor.concurrencyLimiters().setInitialLimit(initialConcurrency);
+    }
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        processor.concurrencyLimiters().setMaxLimit(maxConcurrency);
+    }
+
+    public void setAppRateLimits(Map<String, Integer> appRateLimits) {
+        processor.rateLimiters().setAppLimits(appRateLimits);
+    }
+
+    public void setDefaultAppRateLimit(int defaultAppRateLimit) {
+        processor.rateLimiters().setDefaultAppLimit(defaultAppRateLimit);
+    }
+
+    public void setMethodRateLimit(int methodRateLimit) {
+        processor.rateLimiters().setDefaultMethodLimit(methodRateLimit);
+    }
+
+    @Override
+    public void setMaxBodySize(int maxBodySize) {
+        super.setMaxBodySize(maxBodySize);
+        processor.setMaxBodySize(maxBodySize);
+    }
+
     public void start() throws InterruptedException {
         this.start(true);
     }
 
     @Override
     public void start(boolean sync) throws InterruptedException {
-        bootstrap.channel(NioServerSocketChannel.class)
-                .childHandler(new ChannelInitializer<SocketChannel>() {
-                    @Override
-                    protected void initChannel(SocketChannel ch) throws Exception {
-                        ch.pipeline().addLast(
-                                //每隔60s的时间内如果没有接受到任何的read事件的话，则会触发userEventTriggered事件，并指定IdleState的类型为READER_IDLE
-                                new IdleStateHandler(60, 0, 0, TimeUnit.SECONDS),
-                                //因为我们在client端设置了每隔30s会发送一个心跳包过来，如果60s都没有收到心跳，则说明链路发生了问题
-                                idleStateTrigger,
-                                new ProtocolDecoder(),
-                                encoder,
-                                handler
-                        );
-                    }
-                });
+        boolean local = serverAddress instanceof LocalAddress;
+        ServerBootstrap bootstrap = local ? localBootstrap() : this.bootstrap;
+        bootstrap.childHandler(childInitializer());
 
         ChannelFuture future = bootstrap.bind(serverAddress).sync();
+        //开启SO_REUSEPORT时在同一端口上多次bind, 由内核把新连接分给不同的boss线程
+        for (int i = 1; !local && i < NettyTransport.acceptors(); i++) {
+            bootstrap.bind(serverAddress).sync();
+        }
+
+        if (socketPath != null) {
+            if (NettyTransport.isDomainSocketAvailable()) {
+                removeStaleSocket(socketPath);
+                domainBootstrap().childHandler(childInitializer())
+                        .bind(new DomainSocketAddress(socketPath)).sync();
+                socketBound = true;
+                log.info("netty srv listen on unix domain socket {}.", socketPath);
+            } else {
+                log.warn("Unix domain socket is unavailable, ignore socket path {}.", socketPath);
+            }
+        }
+
+        if (shmPath != null) {
+            shmAcceptor = new ShmAcceptor(shmPath, workerGroup, childInitializer(), allocator);
+            try {
+                shmAcceptor.start();
+                log.info("netty srv accept shared memory sessions in {}.", shmPath);
+            } catch (IOException e) {
+                log.warn("Shared memory is unavailable, ignore shm path {}.", shmPath, e);
+                shmAcceptor = null;
+            }
+        }
 
         log.info("netty srv server start.");
 
@@ -75,10 +205,77 @@ public class KirinServerAcceptor extends NettyAcceptor {
 
     }
 
+    /**
+     * 删除上次没有正常关闭时留下的socket文件.
+     * 路径不是socket文件, 或者还有进程在这个socket上监听时不删除, 直接启动失败
+     */
+    private void removeStaleSocket(String socketPath) throws InterruptedException {
+        Path path = Paths.get(socketPath);
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        int mode;
+        try {
+            mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | UnsupportedOperationException e) {
+            throw new IllegalStateException("Can't check the file type of socket path " + socketPath, e);
+        }
+        if ((mode & S_IFMT) != S_IFSOCK) {
+            throw new IllegalStateException("Socket path " + socketPath + " already exists and is not a unix domain socket");
+        }
+        if (isListening(socketPath)) {
+            throw new IllegalStateException("Unix domain socket " + socketPath + " is in use by another process");
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new IllegalStateException("Fail to delete stale unix domain socket " + socketPath, e);
+        }
+        log.info("Deleted stale unix domain socket {}.", socketPath);
+    }
+
+    /**
+     * 连接一次socket, 能连上说明还有进程在监听
+     */
+    private boolean isListening(String socketPath) throws InterruptedException {
+        ChannelFuture future = new Bootstrap()
+                .group(workerGroup)
+                .channel(EpollDomainSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 1000)
+                .handler(new ChannelInboundHandlerAdapter())
+                .connect(new DomainSocketAddress(socketPath))
+                .await();
+        future.channel().close();
+        return future.isSuccess();
+    }
+
+    private ChannelInitializer<Channel> childInitializer() {
+        return new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                ch.pipeline().addLast(
+                        //每隔60s的时间内如果没有接受到任何的read事件的话，则会触发userEventTriggered事件，并指定IdleState的类型为READER_IDLE
+                        new IdleStateHandler(Constants.DEFAULT_IDLE_TIMEOUT, 0, 0, TimeUnit.MILLISECONDS),
+                        //因为我们在client端设置了每隔30s会发送一个心跳包过来，如果60s都没有收到心跳，则说明链路发生了问题
+                        idleStateTrigger,
+                        new ProtocolDecoder(maxBodySize),
+                        encoder,
+                        handler
+                );
+            }
+        };
+    }
+
     @Override
     public void shutdown() {
+        if (shmAcceptor != null) {
+            shmAcceptor.shutdown();
+        }
         bossGroup.shutdownGracefully().syncUninterruptibly();
         workerGroup.shutdownGracefully().syncUninterruptibly();
         processor.shutdown();
+        if (socketBound) {
+            new File(socketPath).delete();
+        }
     }
 }
@@ -1,11 +1,14 @@
 package io.github.nnkwrik.kirinrpc.netty.srv;
 
+import io.github.nnkwrik.kirinrpc.common.Constants;
+import io.github.nnkwrik.kirinrpc.netty.NettyTransport;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.local.LocalServerChannel;
 import io.netty.util.internal.PlatformDependent;
 import lombok.extern.slf4j.Slf4j;
 
@@ -21,6 +24,8 @@ public abstract class NettyAcceptor {
     protected EventLoopGroup bossGroup;
     protected EventLoopGroup workerGroup;
     protected volatile ByteBufAllocator allocator;
+    //单个消息体的最大字节数, 超过时断开连接
+    protected int maxBodySize = Constants.DEFAULT_MAX_BODY_SIZE;
 
     public NettyAcceptor() {
         this(1, Runtime.getRuntime().availableProcessors() << 1);
@@ -33,12 +38,14 @@ public abstract class NettyAcceptor {
     }
 
     private void init() {
-        bossGroup = new NioEventLoopGroup(nBosses);
-        workerGroup = new NioEventLoopGroup(nWorkers);
+        //开启SO_REUSEPORT时每个bind出来的socket需要一个boss线程
+        bossGroup = NettyTransport.newEventLoopGroup(Math.max(nBosses, NettyTransport.acceptors()), "kirin-acceptor-boss");
+        workerGroup = NettyTransport.newEventLoopGroup(nWorkers, "kirin-acceptor-worker");
         //优先使用直接内存，提高性能
         allocator = new PooledByteBufAllocator(PlatformDependent.directBufferPreferred());
         bootstrap = new ServerBootstrap();
         bootstrap.group(bossGroup, workerGroup)
+                .channel(NettyTransport.serverChannelClass())
                 .childOption(ChannelOption.ALLOCATOR, allocator)
                 /**
                  * backlog参数被定义为下面两个队列的大小之和
@@ -91,10 +98,36 @@ public abstract class NettyAcceptor {
                  * TCP四次握手关闭连接的时候，step2-step3中出现的状态
                  */
                 .childOption(ChannelOption.ALLOW_HALF_CLOSURE, false);
+        //epoll的专有选项
+        NettyTransport.applyOptions(bootstrap);
 
         log.info("netty server srv completed initialization.");
     }
 
+    /**
+     * 绑定到LocalAddress时使用, 不需要socket相关的选项
+     */
+    protected ServerBootstrap localBootstrap() {
+        return new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(LocalServerChannel.class)
+                .childOption(ChannelOption.ALLOCATOR, allocator);
+    }
+
+    /**
+     * 绑定到unix domain socket时使用, 需要epoll
+     */
+    protected ServerBootstrap domainBootstrap() {
+        return new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(EpollServerDomainSocketChannel.class)
+                .childOption(ChannelOption.ALLOCATOR, allocator);
+    }
+
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
     public abstract void start(boolean sync) throws InterruptedException;
 
     public abstract void shutdown();
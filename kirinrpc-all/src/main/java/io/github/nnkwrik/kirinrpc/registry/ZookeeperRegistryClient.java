@@ -8,12 +8,14 @@ import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.PathChildrenCache;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
@@ -133,7 +135,7 @@ public class ZookeeperRegistryClient implements RegistryClient {
                 log.info("Register on zookeeper: {} - {}.", meta, event);
             }).forPath(String.format("%s/%s",
                     directory,
-                    JsonUtil.toJson(meta)));
+                    JsonUtil.toJson(pathMeta(meta))), JsonUtil.toJson(meta).getBytes(StandardCharsets.UTF_8));
         } catch (Exception e) {
             if (log.isWarnEnabled()) {
                 log.warn("Create addServiceBeans meta: {} path failed, {}.", meta, StackTraceUtil.stackTrace(e));
@@ -142,6 +144,15 @@ public class ZookeeperRegistryClient implements RegistryClient {
 
     }
 
+    /**
+     * 节点路径中只放老版本消费者认识的字段. 老版本的消费者遇到不认识的字段时解析失败, 会忽略这个提供者.
+     * 新增的字段(socketPath, 序列化方式等)只放在节点的数据中, 新版本的消费者从数据中读取
+     */
+    private static RegisterMeta pathMeta(RegisterMeta meta) {
+        RegisterMeta.Address address = new RegisterMeta.Address(meta.getAddress().getHost(), meta.getAddress().getPort());
+        return new RegisterMeta(meta.getAppName(), meta.getWight(), address, meta.getServiceMeta());
+    }
+
     @Override
     public void subscribe(ServiceMeta serviceMeta, NotifyListener listener) {
         if (subscribeListener.get(serviceMeta) == null) {
@@ -157,7 +168,8 @@ public class ZookeeperRegistryClient implements RegistryClient {
         String directory = String.format("/kirinrpc/%s/%s",
                 meta.getServiceGroup(),
                 meta.getServiceName());
-        PathChildrenCache newPathChildren = new PathChildrenCache(configClient, directory, false);
+        //缓存节点的数据, 完整的注册信息在数据中
+        PathChildrenCache newPathChildren = new PathChildrenCache(configClient, directory, true);
 
         newPathChildren.getListenable().addListener((client, event) -> {
 
@@ -167,7 +179,7 @@ public class ZookeeperRegistryClient implements RegistryClient {
             switch (event.getType()) {
                 case CHILD_ADDED: {
                     long sequenceNum = parseSequenceNum(event.getData().getPath());
-                    RegisterMeta registerMeta = parseRegisterMeta(event.getData().getPath());
+                    RegisterMeta registerMeta = parseRegisterMeta(event.getData());
                     if (registerMeta == null) {
                         //json解析失败
                         return;
@@ -183,7 +195,7 @@ public class ZookeeperRegistryClient implements RegistryClient {
                 }
                 case CHILD_REMOVED: {
                     long sequenceNum = parseSequenceNum(event.getData().getPath());
-                    RegisterMeta registerMeta = parseRegisterMeta(event.getData().getPath());
+                    RegisterMeta registerMeta = parseRegisterMeta(event.getData());
                     if (registerMeta == null) {
                         //json解析失败
                         return;
@@ -218,6 +230,15 @@ public class ZookeeperRegistryClient implements RegistryClient {
         return Long.parseLong(meta.substring(meta.length() - 10));
     }
 
+    private RegisterMeta parseRegisterMeta(ChildData data) {
+        byte[] bytes = data.getData();
+        if (bytes != null && bytes.length > 0) {
+            return JsonUtil.fromJson(new String(bytes, StandardCharsets.UTF_8), RegisterMeta.class);
+        }
+        //老版本的提供者只有路径
+        return parseRegisterMeta(data.getPath());
+    }
+
     private RegisterMeta parseRegisterMeta(String data) {
         String[] array_0 = data.split("/");
         String meta = array_0[4];
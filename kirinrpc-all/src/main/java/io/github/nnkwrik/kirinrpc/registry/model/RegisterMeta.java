@@ -21,6 +21,15 @@ public class RegisterMeta {
     private Address address = new Address();
     // metadata
     private ServiceMeta serviceMeta = new ServiceMeta();
+    // 提供者为该服务指定的序列化方式, 消费者没有指定时使用. 为空时使用默认的protostuff
+    private String serializer;
+
+    public RegisterMeta(String appName, int wight, Address address, ServiceMeta serviceMeta) {
+        this.appName = appName;
+        this.wight = wight;
+        this.address = address;
+        this.serviceMeta = serviceMeta;
+    }
 
     @Data
     @NoArgsConstructor
@@ -31,7 +40,21 @@ public class RegisterMeta {
         private String host;
         // 端口
         private int port;
+        // unix domain socket的路径, 和消费者在同一台主机上时优先使用
+        private String socketPath;
+        // 共享内存会话的目录, 和消费者在同一台主机上时优先于socketPath
+        private String shmPath;
+        // 提供者能解压的压缩算法, 以逗号分隔. 老版本的提供者没有这个字段, 消费者不会压缩
+        private String compressions;
+        // 提供者能反序列化的方式, 以逗号分隔. 老版本的提供者没有这个字段, 只支持protostuff
+        private String serializers;
+        // 提供者的协议版本(ProtocolHeader.VERSION). 老版本的提供者没有这个字段, 收到握手会断开连接, 消费者不发送握手
+        private Integer protocolVersion;
 
+        public Address(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
 
     }
 
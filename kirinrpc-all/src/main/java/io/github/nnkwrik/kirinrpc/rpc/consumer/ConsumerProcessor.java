@@ -58,20 +58,18 @@ public class ConsumerProcessor implements ResponseProcessor {
         @Override
         public void receiveSuccessResponse(Channel channel, long requestId, Object result) {
             log.debug("Receive success response for [requestId = {}],result is {}.", requestId, result);
-            RPCFuture future = RPCFuture.received(requestId);
+            RPCFuture future = RPCFuture.received(channel, requestId);
             if (future != null) {
-                future.status(RPCFuture.Status.SUCCESS);
-                future.done(result);
+                future.complete(result);
             }
         }
 
         @Override
         public void receiveFailResponse(Channel channel, long requestId, KirinRemoteException e) {
             log.debug("Receive fail response for [requestId = {}],exception is {}.", requestId, e);
-            RPCFuture future = RPCFuture.received(requestId);
+            RPCFuture future = RPCFuture.received(channel, requestId);
             if (future != null) {
-                future.status(RPCFuture.Status.FAIL);
-                future.done(e);
+                future.fail(RPCFuture.Status.FAIL, e);
             }
         }
 
@@ -79,10 +77,9 @@ public class ConsumerProcessor implements ResponseProcessor {
         public void receiveErrorResponse(Channel channel, long requestId, KirinRemoteException e) {
             log.debug("Receive error response for [requestId = {}],error is {}.", requestId, e);
             ConnectorManager.getInstance().removeInactiveConnection(channel);
-            RPCFuture future = RPCFuture.received(requestId);
+            RPCFuture future = RPCFuture.received(channel, requestId);
             if (future != null) {
-                future.status(RPCFuture.Status.ERROR);
-                future.done(e);
+                future.fail(RPCFuture.Status.ERROR, e);
             }
         }
     }
@@ -1,10 +1,14 @@
 package io.github.nnkwrik.kirinrpc.rpc.consumer;
 
+import io.github.nnkwrik.kirinrpc.compress.Compressors;
+import io.github.nnkwrik.kirinrpc.netty.handler.ProtocolDecoder;
 import io.github.nnkwrik.kirinrpc.netty.model.ResponsePayload;
 import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
 import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
 import io.github.nnkwrik.kirinrpc.rpc.model.KirinResponse;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
 import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 
 /**
@@ -28,12 +32,27 @@ public class ConsumerTask implements Runnable {
     @Override
     public void run() {
         KirinResponse response;
+        ByteBuf decompressed = null;
         try {
-            response = SerializerHolder.serializerImpl().readObject(responsePayload.bytes(), KirinResponse.class);
+            ByteBuf content = responsePayload.content();
+            if (responsePayload.compressed()) {
+                content = decompressed = Compressors.decompress(channel.alloc(), content, ProtocolDecoder.maxBodySize(channel));
+            }
+            //响应使用和请求相同的序列化方式
+            Serializer serializer = SerializerHolder.serializerImpl(responsePayload.serializerCode());
+            if (serializer == null) {
+                throw new IllegalArgumentException("Unsupported serializer code: " + responsePayload.serializerCode());
+            }
+            response = serializer.readObject(content, KirinResponse.class);
         } catch (Throwable t) {
             String msg = "Can't solve response payload.Fail to deserialize.";
             response = new KirinResponse();
             response.setError(new KirinRemoteException(msg, t, Status.DESERIALIZATION_FAIL));
+        } finally {
+            responsePayload.release();
+            if (decompressed != null) {
+                decompressed.release();
+            }
         }
 
         Object result = response.getResult();
@@ -1,13 +1,20 @@
 package io.github.nnkwrik.kirinrpc.rpc.consumer;
 
 import io.github.nnkwrik.kirinrpc.common.Constants;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.AbstractInvoker;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.AsyncInvoker;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.SyncInvoker;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer.ConsistentHashLoadBalancer;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer.LeastActiveLoadBalancer;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer.LoadBalancer;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer.P2CEwmaLoadBalancer;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer.RandomLoadBalancer;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer.SimpleLoadBalancer;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
 
-import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author nnkwrik
@@ -23,9 +30,23 @@ public class ProxyFactory<I> {
 
     private LoadBalancer loadBalancer;
 
+    private LoadBalancer.loadBalancerType loadBalancerType = LoadBalancer.loadBalancerType.RANDOM;
+
+    //一致性hash使用的参数位置
+    private int hashArgument = 0;
+
+    private long timeoutMillis = Constants.DEFAULT_TIMEOUT;
+
+    private InjvmMode injvmMode = InjvmMode.OFF;
+
+    //序列化方式, 为空时使用提供者指定的方式
+    private String serializer;
+
+    //方法名 -> 超时时间
+    private Map<String, Long> methodTimeouts = new HashMap<>();
+
     private ProxyFactory(Class<I> interfaceClass) {
         this.interfaceClass = interfaceClass;
-        this.loadBalancer = new RandomLoadBalancer();
     }
 
     public static <I> ProxyFactory<I> factory(Class<I> interfaceClass) {
@@ -42,8 +63,45 @@ public class ProxyFactory<I> {
         return this;
     }
 
+    public ProxyFactory<I> loadBalancer(LoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+        return this;
+    }
+
+    public ProxyFactory<I> loadBalancer(LoadBalancer.loadBalancerType type) {
+        this.loadBalancer = null;
+        this.loadBalancerType = type;
+        return this;
+    }
+
+    public ProxyFactory<I> hashArgument(int hashArgument) {
+        this.hashArgument = hashArgument;
+        return this;
+    }
+
+    public ProxyFactory<I> injvm(InjvmMode injvmMode) {
+        this.injvmMode = injvmMode;
+        return this;
+    }
+
+    public ProxyFactory<I> serializer(String serializer) {
+        this.serializer = serializer;
+        return this;
+    }
+
+    public ProxyFactory<I> timeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    public ProxyFactory<I> methodTimeout(String methodName, long timeoutMillis) {
+        this.methodTimeouts.put(methodName, timeoutMillis);
+        return this;
+    }
+
     public I newProxy() {
-        InvocationHandler handler = null;
+        LoadBalancer loadBalancer = this.loadBalancer != null ? this.loadBalancer : newLoadBalancer();
+        AbstractInvoker handler = null;
         switch (invokerType) {
             case SYNC:
                 handler = new SyncInvoker(loadBalancer, interfaceClass, group);
@@ -52,6 +110,11 @@ public class ProxyFactory<I> {
                 handler = new AsyncInvoker(loadBalancer, interfaceClass, group);
                 break;
         }
+        //kryo等只能反序列化登记过的类型
+        SerializerHolder.register(interfaceClass);
+        handler.timeouts(timeoutMillis, methodTimeouts);
+        handler.serializer(serializer);
+        handler.injvm(injvmMode);
 
         Object proxy = Proxy.newProxyInstance(
                 interfaceClass.getClassLoader(),
@@ -61,8 +124,36 @@ public class ProxyFactory<I> {
         return interfaceClass.cast(proxy);
     }
 
+    private LoadBalancer newLoadBalancer() {
+        switch (loadBalancerType) {
+            case SIMPLE:
+                return new SimpleLoadBalancer();
+            case LEAST_ACTIVE:
+                return new LeastActiveLoadBalancer();
+            case P2C_EWMA:
+                return new P2CEwmaLoadBalancer();
+            case CONSISTENT_HASH:
+                return new ConsistentHashLoadBalancer(hashArgument);
+            case RANDOM:
+            default:
+                return new RandomLoadBalancer();
+        }
+    }
+
     public enum InvokerType {
         SYNC,
         ASYNC
     }
+
+    /**
+     * 提供者在同一个JVM中时的调用方式
+     */
+    public enum InjvmMode {
+        //总是进行远程调用
+        OFF,
+        //直接调用, 参数和结果传引用, 调用方和提供者共享可变对象, 需要显式开启
+        REFERENCE,
+        //直接调用, 参数和结果经过序列化复制
+        COPY
+    }
 }
@@ -9,8 +9,8 @@ import java.util.concurrent.atomic.AtomicLong;
  * @date 19/05/31 15:53
  */
 public abstract class AbstractClusterInvoker implements ClusterInvoker {
-    //id
-    private final AtomicLong aLong = new AtomicLong(0);//TODO atomicLong?
+    //id, 全局唯一. 不同proxy的调用可能落在同一个连接上
+    private static final AtomicLong aLong = new AtomicLong(0);
 
     protected final LoadBalancer loadBalancer;
 
@@ -18,7 +18,7 @@ public abstract class AbstractClusterInvoker implements ClusterInvoker {
         this.loadBalancer = loadBalancer;
     }
 
-    protected long newId() {
+    static long newId() {
         return aLong.addAndGet(1);
     }
 }
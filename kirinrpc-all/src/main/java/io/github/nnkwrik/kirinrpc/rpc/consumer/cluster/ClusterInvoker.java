@@ -2,6 +2,7 @@ package io.github.nnkwrik.kirinrpc.rpc.consumer.cluster;
 
 import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.RPCFuture;
 import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
 
 import java.util.concurrent.ExecutionException;
 
@@ -11,6 +12,12 @@ import java.util.concurrent.ExecutionException;
  */
 public interface ClusterInvoker {
 
-    <T> RPCFuture<T> invoke(KirinRequest request) throws ExecutionException, InterruptedException;
+    /**
+     * @param request
+     * @param serializer    调用方指定的序列化方式, 为null时使用提供者指定的方式
+     * @param timeoutMillis 每次发出的请求等待响应的时间
+     * @return
+     */
+    <T> RPCFuture<T> invoke(KirinRequest request, Serializer serializer, long timeoutMillis) throws ExecutionException, InterruptedException;
 
 }
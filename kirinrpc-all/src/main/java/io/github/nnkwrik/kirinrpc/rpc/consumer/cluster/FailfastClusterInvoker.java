@@ -1,11 +1,10 @@
 package io.github.nnkwrik.kirinrpc.rpc.consumer.cluster;
 
 import io.github.nnkwrik.kirinrpc.netty.cli.KChannel;
-import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.RPCFuture;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer.LoadBalancer;
 import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
-import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
 
 /**
  * 快速失败, 只发起一次调用
@@ -20,12 +19,8 @@ public class FailfastClusterInvoker extends AbstractClusterInvoker {
     }
 
     @Override
-    public <T> RPCFuture<T> invoke(KirinRequest request) {
-        RequestPayload payload = new RequestPayload(newId());
-        byte[] bytes = SerializerHolder.serializerImpl().writeObject(request);
-        payload.bytes(bytes);
-
-        KChannel chanel = loadBalancer.select(request.getServiceMeta());
-        return chanel.write(payload);
+    public <T> RPCFuture<T> invoke(KirinRequest request, Serializer serializer, long timeoutMillis) {
+        KChannel chanel = loadBalancer.select(request);
+        return chanel.write(newId(), request, serializer, timeoutMillis);
     }
 }
@@ -1,11 +1,10 @@
 package io.github.nnkwrik.kirinrpc.rpc.consumer.cluster;
 
 import io.github.nnkwrik.kirinrpc.netty.cli.KChannel;
-import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.RPCFuture;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer.LoadBalancer;
 import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
-import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
 
 import java.util.concurrent.ExecutionException;
 
@@ -29,31 +28,31 @@ public class FailoverClusterInvoker extends AbstractClusterInvoker {
     }
 
     @Override
-    public <T> RPCFuture<T> invoke(KirinRequest request) throws ExecutionException, InterruptedException {
-        RequestPayload payload = new RequestPayload(newId());
-        byte[] bytes = SerializerHolder.serializerImpl().writeObject(request);
-        payload.bytes(bytes);
-
-        return doInvoke(payload, request, retries, null);
+    public <T> RPCFuture<T> invoke(KirinRequest request, Serializer serializer, long timeoutMillis) throws ExecutionException, InterruptedException {
+        return doInvoke(request, serializer, timeoutMillis, retries, null);
     }
 
-    private <T> RPCFuture<T> doInvoke(RequestPayload payload,
-                                      KirinRequest request,
+    private <T> RPCFuture<T> doInvoke(KirinRequest request,
+                                      Serializer serializer,
+                                      long timeoutMillis,
                                       int remain,
                                       RPCFuture<T> lastFuture) throws ExecutionException, InterruptedException {
         if (remain < 0) return lastFuture;
 
         if (lastFuture != null) {
-            lastFuture.get();
-            switch (lastFuture.status()) {
-                case SUCCESS:
-                    return lastFuture;
+            try {
+                lastFuture.get();
+                return lastFuture;
+            } catch (ExecutionException e) {
+                //失败, 重试
             }
         }
-        KChannel chanel = loadBalancer.select(request.getServiceMeta());
-        RPCFuture future = chanel.write(payload);
+        KChannel chanel = loadBalancer.select(request);
+        //每次重试都在新选出的连接上重新序列化, 写出的buf由netty释放
+        //每次重试使用新的id, 上一次调用迟到的响应不会被当作这一次的结果
+        RPCFuture future = chanel.write(newId(), request, serializer, timeoutMillis);
 
-        return doInvoke(payload, request, remain - 1, future);
+        return doInvoke(request, serializer, timeoutMillis, remain - 1, future);
     }
 
 
@@ -0,0 +1,119 @@
+package io.github.nnkwrik.kirinrpc.rpc.consumer.cluster;
+
+import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
+import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.ProxyFactory;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.RPCFuture;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinResponse;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMethod;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceWrapper;
+import io.github.nnkwrik.kirinrpc.rpc.provider.InjvmProviders;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 提供者在同一个JVM中时直接调用, 不经过序列化和网络. 找不到本地提供者时交给delegate进行远程调用.
+ * <p>
+ * REFERENCE模式下参数和结果都直接传引用, 在调用方线程上执行.
+ * COPY模式下参数和结果都经过一次序列化和反序列化, 调用双方不会共享可变对象.
+ *
+ * @author nnkwrik
+ * @date 19/06/12 14:20
+ */
+@Slf4j
+public class InjvmClusterInvoker implements ClusterInvoker {
+
+    private final ClusterInvoker delegate;
+
+    private final ProxyFactory.InjvmMode mode;
+
+    public InjvmClusterInvoker(ClusterInvoker delegate, ProxyFactory.InjvmMode mode) {
+        this.delegate = delegate;
+        this.mode = mode;
+    }
+
+    @Override
+    public <T> RPCFuture<T> invoke(KirinRequest request, Serializer serializer, long timeoutMillis) throws ExecutionException, InterruptedException {
+        ServiceWrapper serviceWrapper = InjvmProviders.lookupService(request.getServiceMeta());
+        if (serviceWrapper == null) {
+            return delegate.invoke(request, serializer, timeoutMillis);
+        }
+
+        RPCFuture<T> future = new RPCFuture<>(AbstractClusterInvoker.newId());
+        Serializer copySerializer = serializer != null ? serializer : SerializerHolder.serializerImpl();
+        if (mode == ProxyFactory.InjvmMode.COPY) {
+            request = copy(copySerializer, request, KirinRequest.class);
+        }
+
+        ServiceMethod method = serviceWrapper.lookupMethod(request.getMethodName(), request.getArgTypes());
+        if (method == null) {
+            String msg = String.format("Can't lookup method %s for [serviceName = %s, serviceGroup = %s]",
+                    ServiceMethod.signature(request.getMethodName(), request.getArgTypes()),
+                    request.getServiceMeta().getServiceName(),
+                    request.getServiceMeta().getServiceGroup());
+            future.fail(RPCFuture.Status.FAIL, new KirinRemoteException(msg, Status.SERVICE_NOT_FOUND));
+            return future;
+        }
+
+        Object invokeResult;
+        try {
+            invokeResult = method.invoke(serviceWrapper.getServiceBean(), request.getArgs());
+        } catch (InvocationTargetException e) {
+            fail(future, e);
+            return future;
+        }
+
+        if (invokeResult instanceof CompletionStage) {
+            ((CompletionStage<?>) invokeResult).whenComplete((result, cause) -> {
+                if (cause != null) {
+                    fail(future, cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause);
+                } else {
+                    complete(future, copySerializer, result);
+                }
+            });
+        } else {
+            complete(future, copySerializer, invokeResult);
+        }
+        return future;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void complete(RPCFuture<T> future, Serializer serializer, Object result) {
+        try {
+            if (mode == ProxyFactory.InjvmMode.COPY && result != null) {
+                //结果不一定有schema, 包装在KirinResponse中复制
+                KirinResponse response = new KirinResponse();
+                response.setResult(result);
+                result = copy(serializer, response, KirinResponse.class).getResult();
+            }
+            future.complete((T) result);
+        } catch (Throwable t) {
+            future.fail(RPCFuture.Status.FAIL,
+                    new KirinRemoteException("Fail to serialize response.", t, Status.SERVICE_EXPECTED_ERROR));
+        }
+    }
+
+    private void fail(RPCFuture<?> future, Throwable cause) {
+        String msg = "Fail to invoke service for RPC request.";
+        future.fail(RPCFuture.Status.FAIL, new KirinRemoteException(msg, cause, Status.SERVICE_EXPECTED_ERROR));
+    }
+
+    private static <T> T copy(Serializer serializer, T obj, Class<T> clazz) {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            serializer.writeObject(buf, obj);
+            return serializer.readObject(buf, clazz);
+        } finally {
+            buf.release();
+        }
+    }
+}
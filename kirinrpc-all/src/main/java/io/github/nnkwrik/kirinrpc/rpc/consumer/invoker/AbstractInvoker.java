@@ -1,10 +1,21 @@
 package io.github.nnkwrik.kirinrpc.rpc.consumer.invoker;
 
+import io.github.nnkwrik.kirinrpc.common.Constants;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.ProxyFactory;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.cluster.ClusterInvoker;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.cluster.InjvmClusterInvoker;
 import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -14,10 +25,56 @@ import java.util.concurrent.ExecutionException;
 public abstract class AbstractInvoker<T> implements InvocationHandler {
     protected ServiceMeta serviceMeta;
 
+    protected ClusterInvoker clusterInvoker;
+
+    private long timeoutMillis = Constants.DEFAULT_TIMEOUT;
+
+    //调用方指定的序列化方式, 为null时使用提供者为服务指定的方式
+    protected Serializer serializer;
+
+    //方法名 -> 超时时间, 创建proxy后不再修改
+    private Map<String, Long> methodTimeouts = Collections.emptyMap();
+
     public AbstractInvoker(Class<T> interfaceClass, String group) {
         this.serviceMeta = new ServiceMeta(interfaceClass.getName(), group);
     }
 
+    public void timeouts(long timeoutMillis, Map<String, Long> methodTimeouts) {
+        if (timeoutMillis > 0) {
+            this.timeoutMillis = timeoutMillis;
+        }
+        Map<String, Long> timeouts = new HashMap<>();
+        methodTimeouts.forEach((name, timeout) -> {
+            if (timeout != null && timeout > 0) {
+                timeouts.put(name, timeout);
+            }
+        });
+        this.methodTimeouts = timeouts;
+    }
+
+    public void serializer(String name) {
+        if (name == null || name.isEmpty()) {
+            return;
+        }
+        //调用方指定的方式视为显式开启, 之后接受用它序列化的响应
+        SerializerHolder.enable(name);
+        this.serializer = SerializerHolder.serializerImpl(name);
+    }
+
+    /**
+     * 提供者在同一个JVM中时直接调用
+     */
+    public void injvm(ProxyFactory.InjvmMode mode) {
+        if (mode != null && mode != ProxyFactory.InjvmMode.OFF) {
+            this.clusterInvoker = new InjvmClusterInvoker(clusterInvoker, mode);
+        }
+    }
+
+    protected long timeoutMillis(String methodName) {
+        Long timeout = methodTimeouts.get(methodName);
+        return timeout != null ? timeout : timeoutMillis;
+    }
+
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 
@@ -42,8 +99,16 @@ public abstract class AbstractInvoker<T> implements InvocationHandler {
         request.setArgTypes(method.getParameterTypes());
         request.setArgs(args);
 
-        return doInvoke(request);
+        return doInvoke(request, method);
+    }
+
+    /**
+     * 返回值是CompletableFuture的方法, 调用结果直接通过返回的future获取
+     */
+    protected boolean isFutureMethod(Method method) {
+        Class<?> returnType = method.getReturnType();
+        return returnType == CompletableFuture.class || returnType == CompletionStage.class;
     }
 
-    public abstract Object doInvoke(KirinRequest request) throws ExecutionException, InterruptedException;
+    public abstract Object doInvoke(KirinRequest request, Method method) throws ExecutionException, InterruptedException;
 }
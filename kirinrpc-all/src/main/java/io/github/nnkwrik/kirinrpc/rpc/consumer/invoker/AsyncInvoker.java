@@ -1,11 +1,11 @@
 package io.github.nnkwrik.kirinrpc.rpc.consumer.invoker;
 
 import io.github.nnkwrik.kirinrpc.common.util.Requires;
-import io.github.nnkwrik.kirinrpc.rpc.consumer.cluster.ClusterInvoker;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.cluster.FailfastClusterInvoker;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer.LoadBalancer;
 import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -13,22 +13,22 @@ import java.util.concurrent.ExecutionException;
  * @date 19/05/31 13:34
  */
 public class AsyncInvoker<T> extends AbstractInvoker {
-    private Class<T> interfaceClass;
-    private ClusterInvoker clusterInvoker;
-
     public AsyncInvoker(LoadBalancer loadBalancer, Class<T> interfaceClass, String group) {
         super(interfaceClass, group);
-        this.interfaceClass = interfaceClass;
         this.clusterInvoker = new FailfastClusterInvoker(loadBalancer);
     }
 
     @Override
-    public Object doInvoke(KirinRequest request) throws ExecutionException, InterruptedException {
-        RPCFuture future = clusterInvoker.invoke(request);
+    public Object doInvoke(KirinRequest request, Method method) throws ExecutionException, InterruptedException {
+        RPCFuture future = clusterInvoker.invoke(request, serializer, timeoutMillis(request.getMethodName()));
+        if (isFutureMethod(method)) {
+            //返回值本身就是CompletableFuture, 不需要再经过AsyncFutureContext
+            return future;
+        }
 
         AsyncFutureContext.set(future);
 
-        return getTypeDefaultValue(interfaceClass);
+        return getTypeDefaultValue(method.getReturnType());
     }
 
     private Object getTypeDefaultValue(Class<?> clazz) {
@@ -0,0 +1,87 @@
+package io.github.nnkwrik.kirinrpc.rpc.consumer.invoker;
+
+import io.github.nnkwrik.kirinrpc.netty.PayloadBatcher;
+import io.github.nnkwrik.kirinrpc.netty.model.PayloadHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 显式的批量调用. begin和close之间当前线程发出的请求先暂存, 按连接合并成BATCH消息后一起写出:
+ * <pre>
+ * try (BatchContext batch = BatchContext.begin()) {
+ *     service.a();
+ *     service.b();
+ * }
+ * </pre>
+ * 需要配合异步调用使用. 同步调用或者等待RPCFuture时会先写出已经暂存的请求
+ *
+ * @author nnkwrik
+ * @date 19/06/22 11:20
+ */
+public class BatchContext implements AutoCloseable {
+
+    private static final ThreadLocal<BatchContext> context = new ThreadLocal<>();
+
+    private final Map<Channel, List<PayloadBatcher.Entry>> pending = new LinkedHashMap<>();
+
+    //支持嵌套, 最外层结束时才移除
+    private int depth;
+
+    private BatchContext() {
+    }
+
+    public static BatchContext begin() {
+        BatchContext batch = context.get();
+        if (batch == null) {
+            batch = new BatchContext();
+            context.set(batch);
+        }
+        batch.depth++;
+        return batch;
+    }
+
+    public static BatchContext current() {
+        return context.get();
+    }
+
+    public static void flushCurrent() {
+        BatchContext batch = context.get();
+        if (batch != null) {
+            batch.flush();
+        }
+    }
+
+    public void add(Channel channel, PayloadHolder payload, ChannelFutureListener listener) {
+        pending.computeIfAbsent(channel, ch -> new ArrayList<>()).add(new PayloadBatcher.Entry(payload, listener));
+    }
+
+    /**
+     * 写出暂存的请求, 每个连接只flush一次
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        //写出失败的回调可能在当前线程发起新的调用, 先取出再写出
+        Map<Channel, List<PayloadBatcher.Entry>> batches = new LinkedHashMap<>(pending);
+        pending.clear();
+        for (Map.Entry<Channel, List<PayloadBatcher.Entry>> entry : batches.entrySet()) {
+            Channel channel = entry.getKey();
+            PayloadBatcher.write(channel, entry.getValue());
+            channel.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        if (--depth == 0) {
+            context.remove();
+        }
+    }
+}
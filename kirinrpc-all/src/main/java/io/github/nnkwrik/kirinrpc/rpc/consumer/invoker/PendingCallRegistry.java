@@ -0,0 +1,140 @@
+package io.github.nnkwrik.kirinrpc.rpc.consumer.invoker;
+
+import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个连接上所有等待响应的调用.
+ * 按请求id分段, 每段是一个以原始long为key的开放寻址表, 各段独立加锁.
+ * 挂在netty Channel的attribute上, 连接断开时只需要处理这个连接自己的调用.
+ * 所有registry共用一个时间轮处理超时, 登记和取消都是O(1)的.
+ *
+ * @author nnkwrik
+ * @date 19/06/10 16:02
+ */
+public class PendingCallRegistry {
+
+    private static final AttributeKey<PendingCallRegistry> REGISTRY_KEY = AttributeKey.valueOf("kirin.pendingCalls");
+
+    private static final int STRIPE_SHIFT = 4;
+    private static final int STRIPES = 1 << STRIPE_SHIFT;
+    private static final int STRIPE_MASK = STRIPES - 1;
+
+    //tick为10ms, 超时的精度不需要更高
+    private static final HashedWheelTimer timeoutTimer =
+            new HashedWheelTimer(new DefaultThreadFactory("kirin-timeout", true), 10, TimeUnit.MILLISECONDS, 1024);
+
+    private final LongObjectHashMap<RPCFuture>[] stripes;
+
+    //等待中的调用数, 不用遍历各段就能读到
+    private final AtomicInteger pending = new AtomicInteger();
+
+    @SuppressWarnings("unchecked")
+    private PendingCallRegistry() {
+        stripes = new LongObjectHashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LongObjectHashMap<>();
+        }
+    }
+
+    /**
+     * 获取连接上的registry, 不存在时创建
+     */
+    public static PendingCallRegistry of(Channel channel) {
+        Attribute<PendingCallRegistry> attr = channel.attr(REGISTRY_KEY);
+        PendingCallRegistry registry = attr.get();
+        if (registry == null) {
+            PendingCallRegistry newRegistry = new PendingCallRegistry();
+            registry = attr.setIfAbsent(newRegistry);
+            if (registry == null) {
+                registry = newRegistry;
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * 获取连接上的registry, 不存在时返回null
+     */
+    public static PendingCallRegistry get(Channel channel) {
+        return channel.attr(REGISTRY_KEY).get();
+    }
+
+    public void put(long requestId, RPCFuture future) {
+        LongObjectHashMap<RPCFuture> stripe = stripes[(int) requestId & STRIPE_MASK];
+        synchronized (stripe) {
+            if (stripe.put(requestId >>> STRIPE_SHIFT, future) == null) {
+                pending.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 登记调用, 超过timeoutMillis仍未收到响应时以CLIENT_TIMEOUT结束
+     */
+    public void put(long requestId, RPCFuture future, long timeoutMillis) {
+        put(requestId, future);
+        if (timeoutMillis > 0) {
+            future.expireAfter(this, timeoutTimer, timeoutMillis);
+        }
+    }
+
+    public RPCFuture remove(long requestId) {
+        //id是递增的, 低位选段, 剩下的高位在段内依然唯一且连续, 不会在开放寻址表里扎堆
+        LongObjectHashMap<RPCFuture> stripe = stripes[(int) requestId & STRIPE_MASK];
+        RPCFuture future;
+        synchronized (stripe) {
+            future = stripe.remove(requestId >>> STRIPE_SHIFT);
+        }
+        if (future != null) {
+            pending.decrementAndGet();
+        }
+        return future;
+    }
+
+    /**
+     * 等待中的调用数, 不加锁, 只是个近似值
+     */
+    public int pending() {
+        return pending.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongObjectHashMap<RPCFuture> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 取出所有等待中的调用, 并以ERROR结束它们
+     */
+    public int failAll(KirinRemoteException cause) {
+        List<RPCFuture> pending = new ArrayList<>();
+        for (LongObjectHashMap<RPCFuture> stripe : stripes) {
+            synchronized (stripe) {
+                pending.addAll(stripe.values());
+                this.pending.addAndGet(-stripe.size());
+                stripe.clear();
+            }
+        }
+        //在锁外完成future, 避免回调中再次访问registry
+        for (RPCFuture future : pending) {
+            future.fail(RPCFuture.Status.ERROR, cause);
+        }
+        return pending.size();
+    }
+}
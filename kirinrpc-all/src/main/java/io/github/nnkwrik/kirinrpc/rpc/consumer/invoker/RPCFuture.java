@@ -1,91 +1,148 @@
 package io.github.nnkwrik.kirinrpc.rpc.consumer.invoker;
 
-import java.util.Map;
-import java.util.concurrent.*;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import io.github.nnkwrik.kirinrpc.netty.cli.ChannelStats;
+import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
+import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
+ * 一次远程调用的结果. 基于CompletableFuture, 完成时不加锁, 支持thenApply/whenComplete等回调.
+ * 失败时以KirinRemoteException异常完成.
+ *
  * @author nnkwrik
  * @date 19/05/28 8:25
  */
-public class RPCFuture<T> implements Future<T> {
+public class RPCFuture<T> extends CompletableFuture<T> implements TimerTask {
 
-    private volatile T result;
-    private volatile boolean isDone;
     private volatile boolean isSent;
     private volatile Status status = Status.NULL;
 
-    private long requestId;
+    private final long requestId;
 
-    private static final Map<Long, RPCFuture> sentMsg = new ConcurrentHashMap<>();
+    //等待超时的registry和时间轮中的任务
+    private volatile PendingCallRegistry registry;
+    private volatile Timeout timeout;
 
-    private ReentrantLock lock = new ReentrantLock();
-    private Condition condition = lock.newCondition();
+    private static final AtomicReferenceFieldUpdater<RPCFuture, ChannelStats> statsUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(RPCFuture.class, ChannelStats.class, "stats");
+
+    //发出请求的连接的统计, 结束时更新
+    private volatile ChannelStats stats;
+    private long beginNanos;
 
     public RPCFuture(long requestId) {
         this.requestId = requestId;
-        sentMsg.put(requestId, this);
     }
 
 
-    public static RPCFuture received(long requestId) {
-        return sentMsg.remove(requestId);
+    public static RPCFuture received(Channel channel, long requestId) {
+        PendingCallRegistry registry = PendingCallRegistry.get(channel);
+        return registry == null ? null : registry.remove(requestId);
     }
 
+    public void track(ChannelStats stats) {
+        this.beginNanos = stats.begin();
+        this.stats = stats;
+    }
 
-    @Override
-    public boolean cancel(boolean mayInterruptIfRunning) {
-        throw new UnsupportedOperationException();
+    void expireAfter(PendingCallRegistry registry, Timer timer, long timeoutMillis) {
+        this.registry = registry;
+        this.timeout = timer.newTimeout(this, timeoutMillis, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * 时间轮到期. 只有成功从registry中移除的一方才能结束这个future
+     */
     @Override
-    public boolean isCancelled() {
-        throw new UnsupportedOperationException();
+    public void run(Timeout timeout) throws Exception {
+        if (registry != null && registry.remove(requestId) != null) {
+            String msg = "Wait response timeout for [requestId = " + requestId + "]";
+            fail(Status.FAIL, new KirinRemoteException(msg, io.github.nnkwrik.kirinrpc.netty.protocol.Status.CLIENT_TIMEOUT));
+        }
     }
 
     @Override
-    public boolean isDone() {
-        return isDone;
+    public boolean complete(T result) {
+        cancelTimeout();
+        if (status == Status.NULL) {
+            status = Status.SUCCESS;
+        }
+        //先更新统计再唤醒等待方, 等待方马上发起的下一次调用能看到正确的进行中调用数
+        endTrack(false);
+        return super.complete(result);
     }
 
+    /**
+     * 以status失败结束, status需要在完成前设置, 保证回调和等待方都能看到
+     */
+    public boolean fail(Status status, Throwable cause) {
+        cancelTimeout();
+        this.status = status;
+        //FAIL是对方返回的失败响应或超时, ERROR是连接出错
+        endTrack(status == Status.ERROR);
+        return super.completeExceptionally(cause);
+    }
+
+    private void endTrack(boolean failed) {
+        //只统计一次
+        ChannelStats s = statsUpdater.getAndSet(this, null);
+        if (s != null) {
+            s.end(beginNanos, failed);
+        }
+    }
+
+    /**
+     * 等待前先写出当前线程batch中的请求, 否则等待的请求可能还没有发出
+     */
     @Override
     public T get() throws InterruptedException, ExecutionException {
-        lock.lock();
-        try {
-            while (!isDone) {
-                condition.await();
-            }
-        } finally {
-            lock.unlock();
-        }
-        return result;
+        BatchContext.flushCurrent();
+        return super.get();
     }
 
     @Override
     public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        long remain = unit.convert(timeout, TimeUnit.NANOSECONDS);
-        lock.lock();
-        try {
-            while ((remain = condition.awaitNanos(remain)) <= 0) {
-                if (!isDone) {
-                    break;
-                }
-            }
-        } finally {
-            lock.unlock();
+        BatchContext.flushCurrent();
+        return super.get(timeout, unit);
+    }
+
+    @Override
+    public T join() {
+        BatchContext.flushCurrent();
+        return super.join();
+    }
+
+    @Override
+    public boolean completeExceptionally(Throwable cause) {
+        return fail(Status.FAIL, cause);
+    }
+
+    /**
+     * 调用方放弃等待. 从registry中移除并取消超时, 之后到达的响应会被丢弃
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        PendingCallRegistry r = registry;
+        if (r != null) {
+            r.remove(requestId);
         }
-        return result;
+        cancelTimeout();
+        endTrack(false);
+        return super.cancel(mayInterruptIfRunning);
     }
 
-    public void done(T result) {
-        this.result = result;
-        isDone = true;
-        lock.lock();
-        try {
-            condition.signalAll();
-        } finally {
-            lock.unlock();
+    private void cancelTimeout() {
+        Timeout t = timeout;
+        if (t != null) {
+            t.cancel();
         }
     }
 
@@ -93,7 +150,7 @@ public class RPCFuture<T> implements Future<T> {
         this.isSent = isSent;
     }
 
-    public boolean isSent(){
+    public boolean isSent() {
         return isSent;
     }
 
@@ -101,10 +158,6 @@ public class RPCFuture<T> implements Future<T> {
         return requestId;
     }
 
-    public void status(Status status) {
-        this.status = status;
-    }
-
     public Status status() {
         return status;
     }
@@ -1,12 +1,12 @@
 package io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer;
 
+import io.github.nnkwrik.kirinrpc.netty.cli.ChannelSnapshot;
 import io.github.nnkwrik.kirinrpc.netty.cli.ConnectorManager;
 import io.github.nnkwrik.kirinrpc.netty.cli.KChannel;
 import io.github.nnkwrik.kirinrpc.rpc.ConnectFailedException;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
 
-import java.util.Set;
-
 /**
  * @author nnkwrik
  * @date 19/06/01 17:08
@@ -17,14 +17,43 @@ public abstract class AbstractLoadBalancer implements LoadBalancer {
 
     @Override
     public KChannel select(ServiceMeta service) {
+        return doSelect(snapshot(service), service);
+    }
+
+    //选出的提供者写缓冲已满时, 最多重新选择的次数
+    private static final int MAX_RESELECT = 3;
 
-        Set<KChannel> connections = connectorManager.getConnections(service);
-        if (connections == null) {
+    @Override
+    public KChannel select(KirinRequest request) {
+        ChannelSnapshot snapshot = snapshot(request.getServiceMeta());
+        KChannel channel = doSelect(snapshot, request);
+        //写缓冲满的提供者可能正在GC, 先让给其他提供者. 都不可写时由KChannel按策略处理
+        int reselect = Math.min(snapshot.size() - 1, MAX_RESELECT);
+        for (int i = 0; i < reselect && !channel.isWritable(); i++) {
+            channel = doSelect(snapshot, request);
+        }
+        return channel;
+    }
+
+    private ChannelSnapshot snapshot(ServiceMeta service) {
+        //直接使用ConnectorManager发布的快照, 不用每次调用都复制一遍连接
+        ChannelSnapshot snapshot = connectorManager.getSnapshot(service);
+        if (snapshot == null || snapshot.size() == 0) {
+            evict(service);
             throw new ConnectFailedException("No provider can provide this service " + service);
         }
-        KChannel[] connectionArray = connections.stream().toArray(KChannel[]::new);
-        return doSelect(connectionArray, service);
+        return snapshot;
+    }
+
+    protected KChannel doSelect(ChannelSnapshot snapshot, KirinRequest request) {
+        return doSelect(snapshot, request.getServiceMeta());
     }
 
-    protected abstract KChannel doSelect(KChannel[] connectionArray, ServiceMeta service);
+    protected abstract KChannel doSelect(ChannelSnapshot snapshot, ServiceMeta service);
+
+    /**
+     * 服务已经没有提供者, 清理为这个服务保存的状态
+     */
+    protected void evict(ServiceMeta service) {
+    }
 }
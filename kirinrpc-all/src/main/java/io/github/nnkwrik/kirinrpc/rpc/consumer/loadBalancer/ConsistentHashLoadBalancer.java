@@ -0,0 +1,271 @@
+package io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer;
+
+import io.github.nnkwrik.kirinrpc.netty.cli.ChannelSnapshot;
+import io.github.nnkwrik.kirinrpc.netty.cli.KChannel;
+import io.github.nnkwrik.kirinrpc.registry.model.RegisterMeta;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ketama一致性hash. 相同的参数总是落到同一个提供者上, 适合提供者有本地缓存的服务.
+ * 每个提供者在环上有多个虚拟节点. 带负载上限(consistent hashing with bounded loads),
+ * 提供者进行中的调用数超过平均值的loadFactor倍时顺时针溢出到下一个提供者.
+ * <p>
+ * 环只在ConnectorManager发布的快照版本变化时更新, 只计算新增提供者的虚拟节点.
+ *
+ * @author nnkwrik
+ * @date 19/06/11 20:30
+ */
+public class ConsistentHashLoadBalancer extends AbstractLoadBalancer {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    public static final double DEFAULT_LOAD_FACTOR = 1.25;
+
+    private static final ThreadLocal<MessageDigest> md5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    //用来计算hash的参数位置
+    private final int argumentIndex;
+
+    private final int virtualNodes;
+
+    private final double loadFactor;
+
+    private final ConcurrentMap<ServiceMeta, HashRing> rings = new ConcurrentHashMap<>();
+
+    public ConsistentHashLoadBalancer() {
+        this(0);
+    }
+
+    public ConsistentHashLoadBalancer(int argumentIndex) {
+        this(argumentIndex, DEFAULT_VIRTUAL_NODES, DEFAULT_LOAD_FACTOR);
+    }
+
+    public ConsistentHashLoadBalancer(int argumentIndex, int virtualNodes, double loadFactor) {
+        this.argumentIndex = argumentIndex;
+        //ketama每次md5得到4个节点
+        this.virtualNodes = Math.max((virtualNodes + 3) / 4 * 4, 4);
+        this.loadFactor = loadFactor > 1 ? loadFactor : DEFAULT_LOAD_FACTOR;
+    }
+
+    @Override
+    protected KChannel doSelect(ChannelSnapshot snapshot, KirinRequest request) {
+        Object[] args = request.getArgs();
+        if (args == null || argumentIndex < 0 || argumentIndex >= args.length) {
+            return doSelect(snapshot, request.getServiceMeta());
+        }
+        KChannel[] channels = snapshot.channels();
+        if (channels.length == 1) {
+            return channels[0];
+        }
+        byte[] digest = md5(hashKey(args[argumentIndex]));
+        return ring(snapshot, request.getServiceMeta()).select(hash(digest, 0), loadFactor);
+    }
+
+    @Override
+    protected KChannel doSelect(ChannelSnapshot snapshot, ServiceMeta service) {
+        //没有可以用来计算hash的参数
+        KChannel[] channels = snapshot.channels();
+        return channels[ThreadLocalRandom.current().nextInt(channels.length)];
+    }
+
+    @Override
+    protected void evict(ServiceMeta service) {
+        rings.remove(service);
+    }
+
+    int ringCount() {
+        return rings.size();
+    }
+
+    private HashRing ring(ChannelSnapshot snapshot, ServiceMeta service) {
+        HashRing ring = rings.get(service);
+        if (ring != null && ring.version >= snapshot.version()) {
+            return ring;
+        }
+        return rings.compute(service, (s, old) -> {
+            if (old == null) {
+                return HashRing.build(snapshot, virtualNodes);
+            }
+            return old.version >= snapshot.version() ? old : old.update(snapshot, virtualNodes);
+        });
+    }
+
+    private static String hashKey(Object arg) {
+        //数组的toString是identity hash, 需要按内容计算
+        if (arg != null && arg.getClass().isArray()) {
+            return Arrays.deepToString(new Object[]{arg});
+        }
+        return String.valueOf(arg);
+    }
+
+    private static byte[] md5(String key) {
+        MessageDigest digest = md5.get();
+        digest.reset();
+        return digest.digest(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long hash(byte[] digest, int number) {
+        return (((long) (digest[3 + number * 4] & 0xFF) << 24)
+                | ((long) (digest[2 + number * 4] & 0xFF) << 16)
+                | ((long) (digest[1 + number * 4] & 0xFF) << 8)
+                | (digest[number * 4] & 0xFF))
+                & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 不可变的hash环, 按points排序, owners[i]为points[i]所属的提供者
+     */
+    private static class HashRing {
+
+        private final long version;
+
+        private final long[] points;
+
+        private final KChannel[] owners;
+
+        //参与环的提供者
+        private final KChannel[] channels;
+
+        private HashRing(long version, long[] points, KChannel[] owners, KChannel[] channels) {
+            this.version = version;
+            this.points = points;
+            this.owners = owners;
+            this.channels = channels;
+        }
+
+        static HashRing build(ChannelSnapshot snapshot, int virtualNodes) {
+            return new HashRing(0, new long[0], new KChannel[0], new KChannel[0]).update(snapshot, virtualNodes);
+        }
+
+        /**
+         * 和新快照比较, 去掉下线的提供者的节点, 合并新增的提供者的节点
+         */
+        HashRing update(ChannelSnapshot snapshot, int virtualNodes) {
+            KChannel[] current = snapshot.channels();
+            Map<KChannel, Boolean> alive = new IdentityHashMap<>();
+            for (KChannel channel : current) {
+                alive.put(channel, Boolean.TRUE);
+            }
+            Map<KChannel, Boolean> existing = new IdentityHashMap<>();
+            for (KChannel channel : channels) {
+                existing.put(channel, Boolean.TRUE);
+            }
+
+            //新增的提供者的节点, 排序后再与原来的环合并
+            int added = 0;
+            for (KChannel channel : current) {
+                if (!existing.containsKey(channel)) {
+                    added++;
+                }
+            }
+            if (added == 0 && alive.size() == existing.size()) {
+                //只是权重变化, 环不变
+                return new HashRing(snapshot.version(), points, owners, channels);
+            }
+            long[] addedPoints = new long[added * virtualNodes];
+            KChannel[] addedOwners = new KChannel[added * virtualNodes];
+            int n = 0;
+            for (KChannel channel : current) {
+                if (existing.containsKey(channel)) {
+                    continue;
+                }
+                String address = nodeName(channel);
+                for (int i = 0; i < virtualNodes / 4; i++) {
+                    byte[] digest = md5(address + "-" + i);
+                    for (int h = 0; h < 4; h++) {
+                        addedPoints[n] = hash(digest, h);
+                        addedOwners[n] = channel;
+                        n++;
+                    }
+                }
+            }
+            sort(addedPoints, addedOwners);
+
+            //两个有序数组归并, 同时跳过已经下线的提供者
+            long[] newPoints = new long[points.length + addedPoints.length];
+            KChannel[] newOwners = new KChannel[newPoints.length];
+            int i = 0, j = 0, k = 0;
+            while (i < points.length || j < addedPoints.length) {
+                if (i < points.length && !alive.containsKey(owners[i])) {
+                    i++;
+                    continue;
+                }
+                if (j >= addedPoints.length || (i < points.length && points[i] <= addedPoints[j])) {
+                    newPoints[k] = points[i];
+                    newOwners[k++] = owners[i++];
+                } else {
+                    newPoints[k] = addedPoints[j];
+                    newOwners[k++] = addedOwners[j++];
+                }
+            }
+            return new HashRing(snapshot.version(), Arrays.copyOf(newPoints, k), Arrays.copyOf(newOwners, k), current);
+        }
+
+        /**
+         * 从hash的位置顺时针找到第一个没有超过负载上限的提供者
+         */
+        KChannel select(long hash, double loadFactor) {
+            int length = points.length;
+            int index = Arrays.binarySearch(points, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            if (index >= length) {
+                index = 0;
+            }
+
+            int totalActive = 0;
+            for (KChannel channel : channels) {
+                totalActive += channel.stats().active();
+            }
+            //加上这次调用后的平均负载
+            double capacity = Math.ceil(loadFactor * (totalActive + 1) / channels.length);
+
+            for (int i = 0; i < length; i++) {
+                KChannel owner = owners[(index + i) % length];
+                if (owner.stats().active() < capacity) {
+                    return owner;
+                }
+            }
+            return owners[index];
+        }
+
+        private static String nodeName(KChannel channel) {
+            RegisterMeta.Address address = channel.getAddress();
+            return address == null ? String.valueOf(System.identityHashCode(channel)) : address.getHost() + ":" + address.getPort();
+        }
+
+        private static void sort(long[] points, KChannel[] owners) {
+            Integer[] order = new Integer[points.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(points[a], points[b]));
+            long[] sortedPoints = new long[points.length];
+            KChannel[] sortedOwners = new KChannel[owners.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedPoints[i] = points[order[i]];
+                sortedOwners[i] = owners[order[i]];
+            }
+            System.arraycopy(sortedPoints, 0, points, 0, points.length);
+            System.arraycopy(sortedOwners, 0, owners, 0, owners.length);
+        }
+    }
+}
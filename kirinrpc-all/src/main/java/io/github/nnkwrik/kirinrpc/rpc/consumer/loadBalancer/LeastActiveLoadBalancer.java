@@ -0,0 +1,50 @@
+package io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer;
+
+import io.github.nnkwrik.kirinrpc.netty.cli.ChannelSnapshot;
+import io.github.nnkwrik.kirinrpc.netty.cli.KChannel;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 选择正在进行中的调用最少的提供者. 有多个时按权重随机.
+ * 变慢的提供者上会积压更多调用, 从而自然地少分到请求.
+ *
+ * @author nnkwrik
+ * @date 19/06/11 17:45
+ */
+public class LeastActiveLoadBalancer extends AbstractLoadBalancer {
+
+    @Override
+    protected KChannel doSelect(ChannelSnapshot snapshot, ServiceMeta service) {
+        KChannel[] channels = snapshot.channels();
+        int length = channels.length;
+        if (length == 1) {
+            return channels[0];
+        }
+
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        long now = System.currentTimeMillis();
+
+        int leastActive = Integer.MAX_VALUE;
+        int totalWeight = 0;
+        KChannel selected = null;
+        for (int i = 0; i < length; i++) {
+            KChannel channel = channels[i];
+            int active = channel.stats().active();
+            int weight = channel.getWeight(service, now);
+            if (active < leastActive) {
+                leastActive = active;
+                totalWeight = weight;
+                selected = channel;
+            } else if (active == leastActive) {
+                //水塘抽样, 按权重在最少的那些里面随机选一个
+                totalWeight += weight;
+                if (totalWeight <= 0 || rand.nextInt(totalWeight) < weight) {
+                    selected = channel;
+                }
+            }
+        }
+        return selected;
+    }
+}
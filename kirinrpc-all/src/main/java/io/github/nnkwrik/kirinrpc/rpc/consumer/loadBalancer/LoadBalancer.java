@@ -1,6 +1,7 @@
 package io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer;
 
 import io.github.nnkwrik.kirinrpc.netty.cli.KChannel;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
 
 /**
@@ -11,9 +12,19 @@ public interface LoadBalancer {
 
     KChannel select(ServiceMeta service);
 
+    /**
+     * 需要根据请求内容选择提供者的负载均衡(如一致性hash)覆盖这个方法
+     */
+    default KChannel select(KirinRequest request) {
+        return select(request.getServiceMeta());
+    }
+
     enum loadBalancerType {
         RANDOM,
-        SIMPLE
+        SIMPLE,
+        LEAST_ACTIVE,
+        P2C_EWMA,
+        CONSISTENT_HASH
     }
 
 }
@@ -0,0 +1,44 @@
+package io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer;
+
+import io.github.nnkwrik.kirinrpc.netty.cli.ChannelSnapshot;
+import io.github.nnkwrik.kirinrpc.netty.cli.ChannelStats;
+import io.github.nnkwrik.kirinrpc.netty.cli.KChannel;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Power of two choices. 随机选两个提供者, 取负载较低的那个.
+ * 负载 = 响应时间的EWMA * (进行中的调用数 + 1) / 权重
+ *
+ * @author nnkwrik
+ * @date 19/06/11 18:10
+ */
+public class P2CEwmaLoadBalancer extends AbstractLoadBalancer {
+
+    @Override
+    protected KChannel doSelect(ChannelSnapshot snapshot, ServiceMeta service) {
+        KChannel[] channels = snapshot.channels();
+        int length = channels.length;
+        if (length == 1) {
+            return channels[0];
+        }
+
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int a = rand.nextInt(length);
+        int b = rand.nextInt(length - 1);
+        if (b >= a) {
+            b++;
+        }
+
+        long now = System.currentTimeMillis();
+        return cost(channels[a], service, now) <= cost(channels[b], service, now) ? channels[a] : channels[b];
+    }
+
+    private static double cost(KChannel channel, ServiceMeta service, long now) {
+        ChannelStats stats = channel.stats();
+        //还没有响应时间的连接ewma为0, 加1避免进行中的调用数不起作用
+        double latency = stats.ewmaNanos() + 1;
+        return latency * (stats.active() + 1) / Math.max(channel.getWeight(service, now), 1);
+    }
+}
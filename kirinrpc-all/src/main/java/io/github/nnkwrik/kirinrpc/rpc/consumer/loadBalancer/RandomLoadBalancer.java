@@ -1,9 +1,10 @@
 package io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer;
 
+import io.github.nnkwrik.kirinrpc.netty.cli.ChannelSnapshot;
 import io.github.nnkwrik.kirinrpc.netty.cli.KChannel;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author nnkwrik
@@ -11,36 +12,21 @@ import java.util.Random;
  */
 public class RandomLoadBalancer extends AbstractLoadBalancer {
 
-    private Random rand = new Random();
-
     @Override
-    protected KChannel doSelect(KChannel[] connectionArray, ServiceMeta service) {
-        int length = connectionArray.length;
-        int[] weightArray = new int[length];
-
-        int totalWeight = 0;
-        boolean sameWeight = true;
-        for (int i = 0; i < length; i++) {
-            KChannel connection = connectionArray[i];
-            int weight = connection.getWeight(service);
-
-            weightArray[i] = weight;
-            sameWeight = sameWeight && (i == 0 || weight == weightArray[i - 1]);
-            totalWeight += weight;
+    protected KChannel doSelect(ChannelSnapshot snapshot, ServiceMeta service) {
+        KChannel[] channels = snapshot.channels();
+        if (channels.length == 1) {
+            return channels[0];
         }
 
-        if (totalWeight > 0 && !sameWeight) {
-            int offset = rand.nextInt(totalWeight);
-
-            for (int i = 0; i < length; i++) {
-                offset -= weightArray[i];
-                if (offset < 0) {
-                    return connectionArray[i];
-                }
-            }
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int totalWeight = snapshot.totalWeight();
+        if (totalWeight > 0 && !snapshot.isSameWeight()) {
+            //权重的前缀和已在快照中算好, 二分查找即可
+            return snapshot.selectByWeight(rand.nextInt(totalWeight));
         }
 
-        return connectionArray[rand.nextInt(length)];
+        return channels[rand.nextInt(channels.length)];
     }
 
 }
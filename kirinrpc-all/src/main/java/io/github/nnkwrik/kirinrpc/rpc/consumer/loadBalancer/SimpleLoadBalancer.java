@@ -1,9 +1,10 @@
 package io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer;
 
+import io.github.nnkwrik.kirinrpc.netty.cli.ChannelSnapshot;
 import io.github.nnkwrik.kirinrpc.netty.cli.KChannel;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 一个简单的随机数负载均衡
@@ -13,10 +14,12 @@ import java.util.Random;
  */
 public class SimpleLoadBalancer extends AbstractLoadBalancer {
 
-    private Random rand = new Random();
-
     @Override
-    protected KChannel doSelect(KChannel[] connectionArray, ServiceMeta service) {
-        return connectionArray[rand.nextInt(connectionArray.length)];
+    protected KChannel doSelect(ChannelSnapshot snapshot, ServiceMeta service) {
+        KChannel[] channels = snapshot.channels();
+        if (channels.length == 1) {
+            return channels[0];
+        }
+        return channels[ThreadLocalRandom.current().nextInt(channels.length)];
     }
 }
@@ -0,0 +1,100 @@
+package io.github.nnkwrik.kirinrpc.rpc.model;
+
+import io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.protostuff.Tag;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 握手消息的内容.
+ * 消费者在连接建立后发送自己的握手, 提供者回复自己的握手以及它暴露的所有方法及其id.
+ * 双方根据对方的握手协商出连接的能力(见Capabilities), 记在连接上.
+ * 之后消费者在这个连接上只发送方法id和参数, 不再发送服务名, 方法名和参数类型.
+ * 老版本的提供者不认识握手, 消费者只对在注册中心公布了协议版本的提供者握手, 其他的连接发送完整的请求.
+ * protostuff的字段编号用@Tag固定, 和老版本互通时已有字段的编号不能改变, 新的字段使用新的编号
+ *
+ * @author nnkwrik
+ * @date 19/06/20 10:32
+ */
+@Data
+public class Handshake implements Serializable {
+
+    //提供者暴露的方法表. 第一版的握手只有这个字段, 编号必须是1
+    @Tag(1)
+    private List<MethodId> methods = new ArrayList<>();
+
+    //协议版本, 见ProtocolHeader.VERSION
+    @Tag(2)
+    private int version;
+
+    //能反序列化的方式名, 以逗号分隔
+    @Tag(3)
+    private String serializers;
+
+    //消费者: 按优先级排列的想要使用的压缩算法名; 提供者: 能解压的算法名. 以逗号分隔
+    @Tag(4)
+    private String compressions;
+
+    //能接收的最大消息体
+    @Tag(5)
+    private int maxBodySize;
+
+    //消费者: 发送心跳的间隔; 提供者: 多久没有收到消息时断开连接
+    @Tag(6)
+    private long heartbeatMillis;
+
+    //消费者的应用名, 提供者按应用限流. 在方法表和协商的字段之后加入
+    @Tag(7)
+    private String appName;
+
+    /**
+     * 当前进程的握手, 不包含方法表
+     */
+    public static Handshake local(String compressions, int maxBodySize, long heartbeatMillis) {
+        Handshake handshake = new Handshake();
+        handshake.setVersion(ProtocolHeader.VERSION);
+        handshake.setSerializers(SerializerHolder.names());
+        handshake.setCompressions(compressions);
+        handshake.setMaxBodySize(maxBodySize);
+        handshake.setHeartbeatMillis(heartbeatMillis);
+        return handshake;
+    }
+
+    /**
+     * 方法id的高16位是服务在提供者中的下标, 低16位是方法在服务中的id(见ServiceWrapper)
+     */
+    public static int methodId(int serviceIndex, int methodIndex) {
+        return (serviceIndex << 16) | (methodIndex & 0xffff);
+    }
+
+    public static int serviceIndex(int methodId) {
+        return methodId >>> 16;
+    }
+
+    public static int methodIndex(int methodId) {
+        return methodId & 0xffff;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class MethodId implements Serializable {
+
+        private String serviceName;
+
+        private String serviceGroup;
+
+        private String methodName;
+
+        //参数类型的类名
+        private String[] parameterTypes;
+
+        private int id;
+    }
+}
@@ -19,4 +19,7 @@ public class KirinRequest implements Serializable {
 
     private Object[] args;
 
+    //握手时提供者公布的方法id(见Handshake). 设置时不再发送serviceMeta, methodName和argTypes
+    private Integer methodId;
+
 }
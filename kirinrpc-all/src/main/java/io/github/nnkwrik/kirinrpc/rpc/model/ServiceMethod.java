@@ -0,0 +1,86 @@
+package io.github.nnkwrik.kirinrpc.rpc.model;
+
+import org.springframework.cglib.reflect.FastMethod;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * 服务暴露的一个方法. 在注册服务时生成, 之后不再改变
+ *
+ * @author nnkwrik
+ * @date 19/06/10 9:12
+ */
+public class ServiceMethod {
+
+    private static final Class<?>[] EMPTY_TYPES = new Class<?>[0];
+
+    //在所属服务中的方法id
+    private final int id;
+
+    private final String name;
+
+    private final Class<?>[] parameterTypes;
+
+    private final Class<?> returnType;
+
+    //方法签名, 如 hello(java.lang.String)
+    private final String signature;
+
+    //Cglib生成的调用器
+    private final FastMethod invoker;
+
+    public ServiceMethod(int id, Method method, FastMethod invoker) {
+        this.id = id;
+        this.name = method.getName();
+        this.parameterTypes = method.getParameterTypes();
+        this.returnType = method.getReturnType();
+        this.signature = signature(name, parameterTypes);
+        this.invoker = invoker;
+    }
+
+    public Object invoke(Object serviceBean, Object[] args) throws InvocationTargetException {
+        return invoker.invoke(serviceBean, args);
+    }
+
+    public boolean matches(Class<?>[] argTypes) {
+        return Arrays.equals(parameterTypes, argTypes == null ? EMPTY_TYPES : argTypes);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public Class<?> getReturnType() {
+        return returnType;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public static String signature(String name, Class<?>[] parameterTypes) {
+        StringBuilder builder = new StringBuilder(name).append('(');
+        if (parameterTypes != null) {
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (i > 0) builder.append(',');
+                builder.append(parameterTypes[i].getName());
+            }
+        }
+        return builder.append(')').toString();
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceMethod(id=" + id + ", signature=" + signature + ")";
+    }
+}
@@ -1,16 +1,85 @@
 package io.github.nnkwrik.kirinrpc.rpc.model;
 
-import lombok.Data;
+import org.springframework.cglib.reflect.FastClass;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
 
 /**
+ * 服务bean, 以及注册时生成的不可变方法表
+ *
  * @author nnkwrik
  * @date 19/05/20 15:44
  */
-@Data
 public class ServiceWrapper {
-    private Object serviceBean;
 
-    public ServiceWrapper(Object serviceBean) {
+    private final ServiceMeta serviceMeta;
+
+    private final Object serviceBean;
+
+    //下标即为方法id
+    private final ServiceMethod[] methods;
+
+    //方法名 -> 同名的所有方法(重载)
+    private final Map<String, ServiceMethod[]> methodsByName;
+
+    public ServiceWrapper(ServiceMeta serviceMeta, Class<?> serviceInterface, Object serviceBean, FastClass fastClass) {
+        this.serviceMeta = serviceMeta;
         this.serviceBean = serviceBean;
+
+        //按签名排序, 保证方法id与getMethods()的返回顺序无关
+        Map<String, Method> exported = new TreeMap<>();
+        for (Method method : serviceInterface.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers())) continue;
+            exported.putIfAbsent(ServiceMethod.signature(method.getName(), method.getParameterTypes()), method);
+        }
+
+        this.methods = new ServiceMethod[exported.size()];
+        Map<String, List<ServiceMethod>> overloads = new HashMap<>();
+        int id = 0;
+        for (Method method : exported.values()) {
+            ServiceMethod serviceMethod = new ServiceMethod(id, method, fastClass.getMethod(method));
+            methods[id++] = serviceMethod;
+            overloads.computeIfAbsent(method.getName(), k -> new ArrayList<>()).add(serviceMethod);
+        }
+
+        Map<String, ServiceMethod[]> byName = new HashMap<>();
+        overloads.forEach((name, list) -> byName.put(name, list.toArray(new ServiceMethod[0])));
+        this.methodsByName = Collections.unmodifiableMap(byName);
+    }
+
+    public ServiceMethod lookupMethod(String methodName, Class<?>[] argTypes) {
+        ServiceMethod[] candidates = methodsByName.get(methodName);
+        if (candidates == null) return null;
+        for (ServiceMethod candidate : candidates) {
+            if (candidate.matches(argTypes)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    public ServiceMethod getMethod(int methodId) {
+        if (methodId < 0 || methodId >= methods.length) return null;
+        return methods[methodId];
+    }
+
+    public int methodCount() {
+        return methods.length;
+    }
+
+    public ServiceMeta getServiceMeta() {
+        return serviceMeta;
+    }
+
+    public Object getServiceBean() {
+        return serviceBean;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceWrapper(serviceMeta=" + serviceMeta + ", serviceBean=" + serviceBean
+                + ", methods=" + Arrays.toString(methods) + ")";
     }
 }
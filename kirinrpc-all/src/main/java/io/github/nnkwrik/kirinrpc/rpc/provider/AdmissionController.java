@@ -0,0 +1,136 @@
+package io.github.nnkwrik.kirinrpc.rpc.provider;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 根据请求在线程池队列中的等待时间决定是否接受请求, 过载时尽早回复SERVER_BUSY, 让消费者去重试其他提供者,
+ * 而不是在很长的队列里等到超时.
+ * <p>
+ * 支持两种方式, 可以同时使用:
+ * <ul>
+ * <li>排队时间上限: 业务线程取出任务时, 等待超过maxQueueTime的任务直接回复SERVER_BUSY</li>
+ * <li>CoDel: 以interval为一个周期, 周期内最短的等待时间仍然超过target时认为过载.
+ * 过载期间I/O线程直接拒绝新请求, 已经排队且等待超过2倍target的任务也回复SERVER_BUSY.
+ * 只看最短等待时间, 偶发的突发流量不会被误判为过载</li>
+ * </ul>
+ *
+ * @author nnkwrik
+ * @date 19/06/23 15:10
+ */
+public class AdmissionController {
+
+    //小于0时不启用
+    private volatile long targetNanos = -1;
+
+    private volatile long intervalNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private volatile long maxQueueNanos = -1;
+
+    //CoDel的状态, 业务线程取出任务时更新. minDelayNanos为Long.MAX_VALUE表示还没有样本
+    private long minDelayNanos = Long.MAX_VALUE;
+    private long intervalEnd;
+    private volatile boolean overloaded;
+
+    //已经提交还没有开始执行的任务数
+    private final AtomicInteger queued = new AtomicInteger();
+
+    //I/O线程上直接拒绝的请求数
+    private final LongAdder shed = new LongAdder();
+
+    //排队后因为等待太久被拒绝的请求数
+    private final LongAdder dropped = new LongAdder();
+
+    public void setTargetMillis(long targetMillis) {
+        this.targetNanos = targetMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(targetMillis);
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    public void setMaxQueueTimeMillis(long maxQueueTimeMillis) {
+        this.maxQueueNanos = maxQueueTimeMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(maxQueueTimeMillis);
+    }
+
+    /**
+     * I/O线程上调用. 过载并且还有任务在排队时拒绝, 队列空了以后总会放行, 让CoDel有机会更新状态
+     */
+    public boolean admit() {
+        if (overloaded && targetNanos >= 0 && queued.get() > 0) {
+            shed.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public void onSubmit() {
+        queued.incrementAndGet();
+    }
+
+    /**
+     * 线程池拒绝了任务
+     */
+    public void onReject() {
+        queued.decrementAndGet();
+        shed.increment();
+    }
+
+    /**
+     * 业务线程开始执行任务时调用. 返回false时任务不再执行, 应该回复SERVER_BUSY
+     */
+    public boolean onDequeue(long enqueueNanos) {
+        queued.decrementAndGet();
+        long now = System.nanoTime();
+        long delay = now - enqueueNanos;
+
+        long max = maxQueueNanos;
+        if (max >= 0 && delay > max) {
+            dropped.increment();
+            return false;
+        }
+
+        long target = targetNanos;
+        if (target < 0) {
+            return true;
+        }
+        boolean overloaded;
+        synchronized (this) {
+            if (minDelayNanos == Long.MAX_VALUE) {
+                //第一次取出任务时才开始第一个周期, 没有样本时不能判断是否过载
+                minDelayNanos = delay;
+                intervalEnd = now + intervalNanos;
+            } else if (now - intervalEnd >= 0) {
+                //一个周期结束, 根据周期内最短的等待时间判断是否过载
+                this.overloaded = minDelayNanos > target;
+                minDelayNanos = delay;
+                intervalEnd = now + intervalNanos;
+            } else if (delay < minDelayNanos) {
+                minDelayNanos = delay;
+            }
+            overloaded = this.overloaded;
+        }
+        if (overloaded && delay > 2 * target) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    public int queued() {
+        return queued.get();
+    }
+
+    public long shed() {
+        return shed.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+}
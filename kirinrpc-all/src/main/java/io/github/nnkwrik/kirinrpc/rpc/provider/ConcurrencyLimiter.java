@@ -0,0 +1,128 @@
+package io.github.nnkwrik.kirinrpc.rpc.provider;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应的并发上限, 按TCP Vegas的思路根据执行时间调整.
+ * 记录没有排队时的执行时间rttNoLoad, 用limit * (1 - rttNoLoad / rtt)估算正在排队的请求数:
+ * 排队很少时增大上限, 排队太多时减小上限. 为了适应服务本身变慢, 每隔一段时间重新测量rttNoLoad.
+ *
+ * @author nnkwrik
+ * @date 19/06/23 17:40
+ */
+public class ConcurrencyLimiter {
+
+    //大约每执行PROBE_MULTIPLIER * limit次重新测量一次rttNoLoad
+    private static final int PROBE_MULTIPLIER = 30;
+
+    private final String name;
+
+    private final int maxLimit;
+
+    private volatile int limit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    //以下由update更新
+    private long rttNoLoadNanos;
+    private long probeCountdown;
+
+    //超过上限被拒绝的请求数
+    private final LongAdder rejected = new LongAdder();
+
+    public ConcurrencyLimiter(String name, int initialLimit, int maxLimit) {
+        this.name = name;
+        this.maxLimit = Math.max(maxLimit, 1);
+        this.limit = Math.min(Math.max(initialLimit, 1), this.maxLimit);
+        this.probeCountdown = nextProbe(limit);
+    }
+
+    public boolean tryAcquire() {
+        for (; ; ) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 一次调用结束, rttNanos为执行时间
+     */
+    public void release(long rttNanos) {
+        int current = inFlight.getAndDecrement();
+        if (rttNanos > 0) {
+            update(rttNanos, current);
+        }
+    }
+
+    private synchronized void update(long rtt, int inFlight) {
+        int current = limit;
+        if (--probeCountdown <= 0) {
+            rttNoLoadNanos = rtt;
+            probeCountdown = nextProbe(current);
+            return;
+        }
+        if (rttNoLoadNanos == 0 || rtt < rttNoLoadNanos) {
+            rttNoLoadNanos = rtt;
+            return;
+        }
+        //并发远没有达到上限时, 执行时间不能说明上限是否合适
+        if (inFlight * 2 < current) {
+            return;
+        }
+
+        int queueSize = (int) Math.ceil(current * (1 - (double) rttNoLoadNanos / rtt));
+        double log = Math.max(1, Math.log10(current));
+        double alpha = 3 * log;
+        double beta = 6 * log;
+        double newLimit;
+        if (queueSize <= log) {
+            newLimit = current + beta;
+        } else if (queueSize < alpha) {
+            newLimit = current + log;
+        } else if (queueSize > beta) {
+            newLimit = current - log;
+        } else {
+            return;
+        }
+        limit = (int) Math.max(1, Math.min(maxLimit, newLimit));
+    }
+
+    private static long nextProbe(int limit) {
+        //加上随机量, 避免所有服务同时重新测量
+        return (long) (PROBE_MULTIPLIER * limit * (0.5 + ThreadLocalRandom.current().nextDouble() * 0.5));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    public synchronized long rttNoLoadNanos() {
+        return rttNoLoadNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyLimiter(name=" + name + ", limit=" + limit + ", inFlight=" + inFlight.get()
+                + ", rejected=" + rejected.sum() + ")";
+    }
+}
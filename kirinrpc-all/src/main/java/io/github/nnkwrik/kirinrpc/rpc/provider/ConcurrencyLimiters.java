@@ -0,0 +1,104 @@
+package io.github.nnkwrik.kirinrpc.rpc.provider;
+
+import io.github.nnkwrik.kirinrpc.common.Constants;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMethod;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceWrapper;
+import io.github.nnkwrik.kirinrpc.springboot.annotation.KirinProvideService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 每个服务或每个方法的自适应并发上限. 范围由服务的KirinProvideService#concurrencyLimit指定,
+ * 没有指定时使用提供者的默认范围. 第一次调用时创建
+ *
+ * @author nnkwrik
+ * @date 19/06/23 18:05
+ */
+@Slf4j
+public class ConcurrencyLimiters {
+
+    private volatile Scope defaultScope = Scope.NONE;
+
+    private volatile int initialLimit = Constants.DEFAULT_INITIAL_CONCURRENCY_LIMIT;
+
+    private volatile int maxLimit = Constants.DEFAULT_MAX_CONCURRENCY_LIMIT;
+
+    private final ConcurrentMap<ServiceMeta, Scope> scopes = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<ServiceMeta, ConcurrencyLimiter> serviceLimiters = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<ServiceMethod, ConcurrencyLimiter> methodLimiters = new ConcurrentHashMap<>();
+
+    public void setDefaultScope(Scope defaultScope) {
+        this.defaultScope = defaultScope;
+    }
+
+    public void setInitialLimit(int initialLimit) {
+        this.initialLimit = initialLimit;
+    }
+
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * 返回这次调用使用的limiter, 不限制时返回null
+     */
+    public ConcurrencyLimiter limiter(ServiceWrapper service, ServiceMethod method) {
+        ServiceMeta serviceMeta = service.getServiceMeta();
+        Scope scope = scopes.computeIfAbsent(serviceMeta, s -> scope(service));
+        switch (scope) {
+            case SERVICE:
+                return serviceLimiters.computeIfAbsent(serviceMeta,
+                        s -> new ConcurrencyLimiter(s.getServiceName() + ":" + s.getServiceGroup(), initialLimit, maxLimit));
+            case METHOD:
+                return methodLimiters.computeIfAbsent(method,
+                        m -> new ConcurrencyLimiter(serviceMeta.getServiceName() + ":" + serviceMeta.getServiceGroup()
+                                + "#" + m.getSignature(), initialLimit, maxLimit));
+            default:
+                return null;
+        }
+    }
+
+    private Scope scope(ServiceWrapper service) {
+        KirinProvideService annotation = service.getServiceBean().getClass().getAnnotation(KirinProvideService.class);
+        if (annotation == null || annotation.concurrencyLimit().isEmpty()) {
+            return defaultScope;
+        }
+        try {
+            return Scope.valueOf(annotation.concurrencyLimit().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown concurrency limit scope {} for service {}, use {}.",
+                    annotation.concurrencyLimit(), service.getServiceMeta(), defaultScope);
+            return defaultScope;
+        }
+    }
+
+    /**
+     * 当前所有的limiter, 按名字排序. 用于查看上限和进行中的调用数
+     */
+    public Map<String, ConcurrencyLimiter> limiters() {
+        Map<String, ConcurrencyLimiter> limiters = new TreeMap<>();
+        for (ConcurrencyLimiter limiter : serviceLimiters.values()) {
+            limiters.put(limiter.name(), limiter);
+        }
+        for (ConcurrencyLimiter limiter : methodLimiters.values()) {
+            limiters.put(limiter.name(), limiter);
+        }
+        return Collections.unmodifiableMap(limiters);
+    }
+
+    public enum Scope {
+        NONE,
+        //每个服务一个上限
+        SERVICE,
+        //每个方法一个上限
+        METHOD
+    }
+}
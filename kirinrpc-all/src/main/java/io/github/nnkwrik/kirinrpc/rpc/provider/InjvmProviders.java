@@ -0,0 +1,39 @@
+package io.github.nnkwrik.kirinrpc.rpc.provider;
+
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceWrapper;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 当前JVM中暴露的服务. 消费者调用同一个进程中的服务时可以直接在这里找到提供者, 不经过网络
+ *
+ * @author nnkwrik
+ * @date 19/06/12 14:05
+ */
+public final class InjvmProviders {
+
+    private static final List<ProviderLookup> lookups = new CopyOnWriteArrayList<>();
+
+    private InjvmProviders() {
+    }
+
+    public static void export(ProviderLookup lookup) {
+        lookups.add(lookup);
+    }
+
+    public static void unexport(ProviderLookup lookup) {
+        lookups.remove(lookup);
+    }
+
+    public static ServiceWrapper lookupService(ServiceMeta serviceMeta) {
+        for (ProviderLookup lookup : lookups) {
+            ServiceWrapper wrapper = lookup.lookupService(serviceMeta);
+            if (wrapper != null) {
+                return wrapper;
+            }
+        }
+        return null;
+    }
+}
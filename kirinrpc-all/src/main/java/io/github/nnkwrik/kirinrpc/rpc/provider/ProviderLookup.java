@@ -3,6 +3,8 @@ package io.github.nnkwrik.kirinrpc.rpc.provider;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceWrapper;
 
+import java.util.List;
+
 /**
  * @author nnkwrik
  * @date 19/05/21 17:14
@@ -10,4 +12,11 @@ import io.github.nnkwrik.kirinrpc.rpc.model.ServiceWrapper;
 public interface ProviderLookup {
 
     ServiceWrapper lookupService(ServiceMeta serviceMeta);
+
+    /**
+     * 按注册顺序排列的所有服务, 下标即为握手时公布的服务下标
+     */
+    List<ServiceWrapper> services();
+
+    ServiceWrapper lookupService(int serviceIndex);
 }
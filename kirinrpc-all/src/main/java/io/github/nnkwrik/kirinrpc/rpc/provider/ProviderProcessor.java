@@ -1,19 +1,36 @@
 package io.github.nnkwrik.kirinrpc.rpc.provider;
 
+import io.github.nnkwrik.kirinrpc.common.Constants;
 import io.github.nnkwrik.kirinrpc.common.util.StackTraceUtil;
+import io.github.nnkwrik.kirinrpc.compress.Compressor;
+import io.github.nnkwrik.kirinrpc.compress.Compressors;
+import io.github.nnkwrik.kirinrpc.netty.PayloadBatcher;
+import io.github.nnkwrik.kirinrpc.netty.model.HandshakePayload;
 import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
 import io.github.nnkwrik.kirinrpc.netty.model.ResponsePayload;
+import io.github.nnkwrik.kirinrpc.netty.protocol.Capabilities;
 import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
 import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
+import io.github.nnkwrik.kirinrpc.rpc.model.Handshake;
 import io.github.nnkwrik.kirinrpc.rpc.model.KirinResponse;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMethod;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceWrapper;
+import io.github.nnkwrik.kirinrpc.serializer.AllowedTypes;
 import io.github.nnkwrik.kirinrpc.serializer.Serializer;
 import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.github.nnkwrik.kirinrpc.serializer.protostuff.ProtoStuffSerializer;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -26,10 +43,21 @@ public class ProviderProcessor implements RequestProcessor {
 
     private static ThreadPoolExecutor executor;
 
-    private final ResponseSender responseSender;
+    private final ResponseSenderImpl responseSender;
 
     private final ProviderLookup providerLookup;
 
+    private final AdmissionController admission = new AdmissionController();
+
+    private final ConcurrencyLimiters limiters = new ConcurrencyLimiters();
+
+    private final RateLimiters rateLimiters = new RateLimiters();
+
+    //握手时告诉消费者的能力
+    private volatile int maxBodySize = Constants.DEFAULT_MAX_BODY_SIZE;
+
+    private final long idleTimeout = Constants.DEFAULT_IDLE_TIMEOUT;
+
     public ProviderProcessor(ProviderLookup providerLookup) {
         this.providerLookup = providerLookup;
         this.responseSender = new ResponseSenderImpl();
@@ -38,17 +66,185 @@ public class ProviderProcessor implements RequestProcessor {
 
     @Override
     public void handleRequest(Channel channel, RequestPayload requestPayload) throws Exception {
-        ProviderTask task = new ProviderTask(channel, requestPayload, responseSender, providerLookup);
+        if (requestPayload.acceptedCompressor() != 0) {
+            Compressors.accept(channel, requestPayload.acceptedCompressor());
+        }
+        //按应用和方法限流, 应用名来自握手, 方法id来自协议头, 不需要反序列化
+        Capabilities capabilities = Capabilities.get(channel);
+        ServiceWrapper service = null;
+        ServiceMethod method = null;
+        if (requestPayload.methodId() >= 0) {
+            service = providerLookup.lookupService(Handshake.serviceIndex(requestPayload.methodId()));
+            method = service != null ? service.getMethod(Handshake.methodIndex(requestPayload.methodId())) : null;
+        }
+        Status limited = rateLimiters.check(capabilities != null ? capabilities.peerAppName() : null, service, method);
+        if (limited != null) {
+            reject(channel, requestPayload, limited == Status.APP_FLOW_CONTROL
+                    ? "Rate limit of application exceeded." : "Rate limit of method " + method.getSignature() + " exceeded.", limited);
+            return;
+        }
+
+        //过载时在I/O线程上直接回复, 不再让请求进入队列
+        if (!admission.admit()) {
+            reject(channel, requestPayload, "Provider is overloaded, queueing delay exceeds the target.", Status.SERVER_BUSY);
+            return;
+        }
+        ProviderTask task = new ProviderTask(channel, requestPayload, responseSender, providerLookup,
+                admission, limiters, rateLimiters);
+
+        admission.onSubmit();
+        try {
+            submit(task);
+        } catch (RejectedExecutionException e) {
+            admission.onReject();
+            reject(channel, requestPayload, "Provider is busy, task queue is full.", Status.SERVER_BUSY);
+        }
+    }
+
+    private void reject(Channel channel, RequestPayload requestPayload, String msg, Status status) {
+        ReferenceCountUtil.release(requestPayload);
+        Serializer serializer = SerializerHolder.serializerImpl(requestPayload.serializerCode());
+        responseSender.sendRejectResponse(channel, requestPayload.id(), requestPayload.timestamp(),
+                serializer != null ? serializer : SerializerHolder.serializerImpl(),
+                new KirinRemoteException(msg, status));
+    }
+
+    /**
+     * 排队时间的统计和过载状态
+     */
+    public AdmissionController admissionController() {
+        return admission;
+    }
+
+    /**
+     * 自适应并发上限, 可以查看每个服务或方法当前的上限和进行中的调用数
+     */
+    public ConcurrencyLimiters concurrencyLimiters() {
+        return limiters;
+    }
+
+    /**
+     * 按应用和方法的令牌桶限流
+     */
+    public RateLimiters rateLimiters() {
+        return rateLimiters;
+    }
+
+    /**
+     * 在I/O线程上直接协商并回复方法表, 消息很小, 不值得交给业务线程池
+     */
+    @Override
+    public void handleHandshake(Channel channel, HandshakePayload handshakePayload) {
+        Handshake handshake = Handshake.local(Compressors.names(), maxBodySize, idleTimeout);
+
+        //只请求方法表的老版本消费者发送空的握手, 不协商
+        Handshake peer = null;
+        try {
+            if (handshakePayload.content().isReadable()) {
+                Serializer serializer = SerializerHolder.serializerImpl(handshakePayload.serializerCode());
+                if (serializer != null) {
+                    peer = serializer.readObject(handshakePayload.content(), Handshake.class);
+                }
+            }
+        } finally {
+            ReferenceCountUtil.release(handshakePayload);
+        }
+        if (peer != null) {
+            negotiate(channel, handshake, peer);
+        }
+
+        List<ServiceWrapper> services = providerLookup.services();
+        for (int i = 0; i < services.size(); i++) {
+            ServiceWrapper service = services.get(i);
+            ServiceMeta serviceMeta = service.getServiceMeta();
+            for (int j = 0; j < service.methodCount(); j++) {
+                ServiceMethod method = service.getMethod(j);
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                String[] typeNames = new String[parameterTypes.length];
+                for (int k = 0; k < parameterTypes.length; k++) {
+                    typeNames[k] = parameterTypes[k].getName();
+                }
+                handshake.getMethods().add(new Handshake.MethodId(serviceMeta.getServiceName(),
+                        serviceMeta.getServiceGroup(), method.getName(), typeNames, Handshake.methodId(i, j)));
+            }
+        }
+
+        ByteBuf content = channel.alloc().ioBuffer();
+        try {
+            SerializerHolder.serializerImpl().writeObject(content, handshake);
+        } catch (Throwable t) {
+            content.release();
+            throw t;
+        }
+        channel.writeAndFlush(new HandshakePayload(handshakePayload.id(), content));
+        log.debug("Send handshake with {} methods to {}.", handshake.getMethods().size(), channel);
+    }
+
+    private void negotiate(Channel channel, Handshake local, Handshake peer) {
+        //双方用相同的规则从消费者的偏好中选出算法, 结果一致
+        Compressor compressor = Compressors.negotiate(peer.getCompressions(), local.getCompressions());
+        if (compressor != null) {
+            Compressors.accept(channel, compressor.id());
+        }
+        Capabilities capabilities = new Capabilities(local, peer, compressor);
+        Capabilities.set(channel, capabilities);
+
+        //消费者的心跳比较慢时放宽空闲超时, 避免断开正常的连接
+        long heartbeatMillis = capabilities.peerHeartbeatMillis();
+        if (heartbeatMillis > 0 && heartbeatMillis * 2 > idleTimeout) {
+            IdleStateHandler idleStateHandler = channel.pipeline().get(IdleStateHandler.class);
+            if (idleStateHandler != null) {
+                channel.pipeline().replace(idleStateHandler, channel.pipeline().context(idleStateHandler).name(),
+                        new IdleStateHandler(heartbeatMillis * 2, 0, 0, TimeUnit.MILLISECONDS));
+            }
+        }
+        log.info("Handshake with {} completed, {}.", channel, capabilities);
+    }
 
-        submit(task);
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * 响应的消息体达到这个字节数, 且消费者在连接上表示过能接受压缩时才压缩
+     */
+    public void setCompressThreshold(int compressThreshold) {
+        responseSender.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * 业务线程在这个窗口(微秒)内发出的响应合并成一个BATCH消息写出, 小于0时不合并.
+     * 只对握手时表示过能解析BATCH的消费者生效
+     */
+    public void setBatchWindowMicros(int batchWindowMicros) {
+        responseSender.batchWindowNanos = batchWindowMicros < 0 ? -1 : TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        responseSender.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 业务线程发出的响应交给eventLoop, 每轮只flush一次, 最多写出flushAfter个响应后flush
+     */
+    public void setFlushConsolidation(boolean flushConsolidation) {
+        responseSender.flushConsolidation = flushConsolidation;
+    }
+
+    public void setFlushAfter(int flushAfter) {
+        responseSender.flushAfter = flushAfter;
     }
 
     @Override
     public void handleException(Channel channel, RequestPayload requestPayload, Throwable cause) {
         log.error("Handling exception (requestId = {}).", requestPayload.id());
+        //任务没有被执行, 消息体在这里释放
+        ReferenceCountUtil.release(requestPayload);
 
+        Serializer serializer = SerializerHolder.serializerImpl(requestPayload.serializerCode());
         String msg = "Unknown Error happened when solve remote call";
         responseSender.sendErrorResponse(channel, requestPayload.id(), requestPayload.timestamp(),
+                serializer != null ? serializer : SerializerHolder.serializerImpl(),
                 new KirinRemoteException(msg, cause, Status.SERVICE_UNEXPECTED_ERROR));
 
     }
@@ -77,64 +273,130 @@ public class ProviderProcessor implements RequestProcessor {
 
     public static class ResponseSenderImpl implements ResponseSender {
 
-        private Serializer serializer = SerializerHolder.serializerImpl();
+        private volatile int compressThreshold = Constants.DEFAULT_COMPRESS_THRESHOLD;
+
+        private volatile long batchWindowNanos = -1;
+
+        private volatile int maxBatchSize = Constants.DEFAULT_MAX_BATCH_SIZE;
+
+        private volatile boolean flushConsolidation;
+
+        private volatile int flushAfter = Constants.DEFAULT_FLUSH_AFTER;
 
         @Override
-        public void sendSuccessResponse(Channel channel, long requestId, long requestTime, Object invokeResult) {
-            log.info("Success to invoke provider (requestId = {}), result = [{}].", requestId, invokeResult);
+        public void sendSuccessResponse(Channel channel, long requestId, long requestTime, Serializer serializer, Object invokeResult) {
+            log.debug("Success to invoke provider (requestId = {}), result = [{}].", requestId, invokeResult);
             KirinResponse response = new KirinResponse();
             response.setResult(invokeResult);
 
-            ResponsePayload responsePayload = new ResponsePayload(requestId);
+            ByteBuf content = serialize(channel, serializer, response);
+            Capabilities capabilities = Capabilities.get(channel);
+            //消费者解压后也按它的限制检查, 所以按压缩前的长度判断
+            if (capabilities != null && content.readableBytes() > capabilities.peerMaxBodySize()) {
+                //消费者收不了这么大的响应, 改为回复失败
+                int bodyLength = content.readableBytes();
+                content.release();
+                sendFailResponse(channel, requestId, requestTime, serializer, new KirinRemoteException(
+                        "Response body length " + bodyLength + " exceeds the limit of consumer " + capabilities.peerMaxBodySize(),
+                        Status.SERVICE_EXPECTED_ERROR));
+                return;
+            }
+            ResponsePayload responsePayload = newPayload(channel, requestId, serializer, content);
             responsePayload.timestamp(requestTime);
             responsePayload.status(Status.OK.value());
-            byte[] bytes = serializer.writeObject(response);
-            responsePayload.bytes(bytes);
 
             sendResponsePayload(channel, responsePayload);
         }
 
         @Override
-        public void sendFailResponse(Channel channel, long requestId, long requestTime, KirinRemoteException e) {
+        public void sendFailResponse(Channel channel, long requestId, long requestTime, Serializer serializer, KirinRemoteException e) {
 
             if (e.getStatus() == Status.SERVICE_UNEXPECTED_ERROR) {
                 log.error("Status can't be SERVICE_UNEXPECTED_ERROR if you want to send fail response.So this response will process by #sendErrorResponse()");
-                sendErrorResponse(channel, requestId, requestTime, e);
+                sendErrorResponse(channel, requestId, requestTime, serializer, e);
+                return;
             }
 
             log.error("Excepted Error Happened when solve remote call (requestId = {}):\r\n{}",
                     requestId, StackTraceUtil.stackTrace(e));
 
+            KirinResponse response = new KirinResponse();
+            response.setError(transferable(serializer, e));
+
+            ResponsePayload responsePayload = newPayload(channel, requestId, serializer, response);
+            responsePayload.timestamp(requestTime);
+            responsePayload.status(e.getStatus().value());
+
+            sendResponsePayload(channel, responsePayload);
+        }
+
+        @Override
+        public void sendRejectResponse(Channel channel, long requestId, long requestTime, Serializer serializer, KirinRemoteException e) {
+            log.debug("Reject request (requestId = {}): {}.", requestId, e.getMessage());
+
             KirinResponse response = new KirinResponse();
             response.setError(e);
 
-            ResponsePayload responsePayload = new ResponsePayload(requestId);
+            ResponsePayload responsePayload = newPayload(channel, requestId, serializer, response);
             responsePayload.timestamp(requestTime);
             responsePayload.status(e.getStatus().value());
-            byte[] bytes = serializer.writeObject(response);
-            responsePayload.bytes(bytes);
 
             sendResponsePayload(channel, responsePayload);
         }
 
         @Override
-        public void sendErrorResponse(Channel channel, long requestId, long requestTime, KirinRemoteException e) {
+        public void sendErrorResponse(Channel channel, long requestId, long requestTime, Serializer serializer, KirinRemoteException e) {
             log.error("Unknown Error happened when solve remote call (requestId = {}):\r\n{}",
                     requestId, StackTraceUtil.stackTrace(e));
 
             KirinResponse response = new KirinResponse();
             e.setStatus(Status.SERVICE_UNEXPECTED_ERROR);//强制设为SERVICE_UNEXPECTED_ERROR
-            response.setError(e);
+            response.setError(transferable(serializer, e));
 
-            ResponsePayload responsePayload = new ResponsePayload(requestId);
+            ResponsePayload responsePayload = newPayload(channel, requestId, serializer, response);
             responsePayload.timestamp(requestTime);
             responsePayload.status(e.getStatus().value());
-            byte[] bytes = serializer.writeObject(response);
-            responsePayload.bytes(bytes);
 
             sendResponsePayload(channel, responsePayload, true);
         }
 
+        /**
+         * protostuff可以还原任意异常, 其他方式只能反序列化AllowedTypes中登记过的异常
+         */
+        private KirinRemoteException transferable(Serializer serializer, KirinRemoteException e) {
+            return serializer.code() == ProtoStuffSerializer.CODE ? e : AllowedTypes.transferable(e);
+        }
+
+        private ByteBuf serialize(Channel channel, Serializer serializer, KirinResponse response) {
+            //直接序列化到该连接的allocator分配的buf中, 写出后由netty释放
+            ByteBuf content = channel.alloc().ioBuffer();
+            try {
+                serializer.writeObject(content, response);
+            } catch (Throwable t) {
+                content.release();
+                throw t;
+            }
+            return content;
+        }
+
+        private ResponsePayload newPayload(Channel channel, long requestId, Serializer serializer, KirinResponse response) {
+            return newPayload(channel, requestId, serializer, serialize(channel, serializer, response));
+        }
+
+        private ResponsePayload newPayload(Channel channel, long requestId, Serializer serializer, ByteBuf content) {
+            ByteBuf compressed;
+            try {
+                compressed = Compressors.compress(channel.alloc(), Compressors.accepted(channel), content, compressThreshold);
+            } catch (Throwable t) {
+                content.release();
+                throw t;
+            }
+            ResponsePayload responsePayload = new ResponsePayload(requestId, compressed != null ? compressed : content);
+            responsePayload.compressed(compressed != null);
+            responsePayload.serializerCode(serializer.code());
+            return responsePayload;
+        }
+
         private void sendResponsePayload(Channel channel, ResponsePayload responsePayload) {
             sendResponsePayload(channel, responsePayload, false);
         }
@@ -144,7 +406,7 @@ public class ProviderProcessor implements RequestProcessor {
                 responsePayload.status(Status.OK.value());
             }
 
-            channel.writeAndFlush(responsePayload).addListener(new ChannelFutureListener() {
+            ChannelFutureListener listener = new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture channelFuture) throws Exception {
 
@@ -162,7 +424,14 @@ public class ProviderProcessor implements RequestProcessor {
                         channel.close();
                     }
                 }
-            });
+            };
+
+            //出错后要关闭连接的响应单独写出
+            if (!close && (flushConsolidation || (batchWindowNanos >= 0 && PayloadBatcher.isSupported(channel)))) {
+                PayloadBatcher.of(channel, batchWindowNanos, maxBatchSize, flushAfter).write(responsePayload, listener);
+            } else {
+                channel.writeAndFlush(responsePayload).addListener(listener);
+            }
         }
 
     }
@@ -1,18 +1,24 @@
 package io.github.nnkwrik.kirinrpc.rpc.provider;
 
+import io.github.nnkwrik.kirinrpc.compress.Compressors;
+import io.github.nnkwrik.kirinrpc.netty.handler.ProtocolDecoder;
 import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
 import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
 import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
+import io.github.nnkwrik.kirinrpc.rpc.model.Handshake;
 import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMethod;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceWrapper;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
 import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cglib.reflect.FastClass;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 /**
  * @author nnkwrik
@@ -29,92 +35,225 @@ public class ProviderTask implements Runnable {
 
     private final ProviderLookup providerLookup;
 
-    public ProviderTask(Channel channel, RequestPayload requestPayload, ResponseSender sender, ProviderLookup providerLookup) {
+    private final AdmissionController admission;
+
+    private final ConcurrencyLimiters limiters;
+
+    private final RateLimiters rateLimiters;
+
+    //进入线程池队列的时间
+    private final long enqueueNanos = System.nanoTime();
+
+    //请求的序列化方式, 响应也使用它. 不支持时用默认的方式回复错误
+    private Serializer serializer = SerializerHolder.serializerImpl();
+
+    public ProviderTask(Channel channel, RequestPayload requestPayload, ResponseSender sender,
+                        ProviderLookup providerLookup, AdmissionController admission,
+                        ConcurrencyLimiters limiters, RateLimiters rateLimiters) {
         this.channel = channel;
         this.requestPayload = requestPayload;
         this.sender = sender;
         this.providerLookup = providerLookup;
+        this.admission = admission;
+        this.limiters = limiters;
+        this.rateLimiters = rateLimiters;
     }
 
 
     @Override
     public void run() {
+        //在队列中等待太久, 消费者可能已经快超时了, 不再执行
+        if (!admission.onDequeue(enqueueNanos)) {
+            requestPayload.release();
+            Serializer requestSerializer = SerializerHolder.serializerImpl(requestPayload.serializerCode());
+            String msg = "Provider is busy, request waited too long in queue.";
+            sender.sendRejectResponse(channel, requestPayload.id(), requestPayload.timestamp(),
+                    requestSerializer != null ? requestSerializer : serializer,
+                    new KirinRemoteException(msg, Status.SERVER_BUSY));
+            return;
+        }
         try {
             //反序列化获取Request对象
             KirinRequest request;
+            ByteBuf decompressed = null;
             try {
-                request = SerializerHolder.serializerImpl().readObject(requestPayload.bytes(), KirinRequest.class);
+                Serializer requestSerializer = SerializerHolder.serializerImpl(requestPayload.serializerCode());
+                if (requestSerializer == null) {
+                    throw new IllegalArgumentException("Unsupported serializer code: " + requestPayload.serializerCode());
+                }
+                serializer = requestSerializer;
+                ByteBuf content = requestPayload.content();
+                if (requestPayload.compressed()) {
+                    content = decompressed = Compressors.decompress(channel.alloc(), content, ProtocolDecoder.maxBodySize(channel));
+                }
+                request = serializer.readObject(content, KirinRequest.class);
             } catch (Throwable t) {
                 String msg = "Can't solve request payload.Fail to deserialize.";
-                sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(),
+                sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer,
                         new KirinRemoteException(msg, t, Status.BAD_REQUEST));
                 return;
+            } finally {
+                //反序列化后不再需要消息体
+                requestPayload.release();
+                if (decompressed != null) {
+                    decompressed.release();
+                }
+            }
+
+            //方法id在协议头之后时, 消息体中没有
+            if (requestPayload.methodId() >= 0) {
+                request.setMethodId(requestPayload.methodId());
             }
 
-            //查找服务
-            final ServiceWrapper serviceProvider = providerLookup.lookupService(request.getServiceMeta());
-            if (serviceProvider == null) {
-                String msg = String.format("Can't lookup service provider for [serviceName = %s, serviceGroup = %s]",
-                        request.getServiceMeta().getServiceName(),
-                        request.getServiceMeta().getServiceGroup());
-                sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(),
-                        new KirinRemoteException(msg, Status.SERVICE_NOT_FOUND));
+            //查找服务和方法. 握手后的请求只带方法id
+            final ServiceWrapper serviceProvider;
+            final ServiceMethod method;
+            if (request.getMethodId() != null) {
+                int methodId = request.getMethodId();
+                serviceProvider = providerLookup.lookupService(Handshake.serviceIndex(methodId));
+                method = serviceProvider != null ? serviceProvider.getMethod(Handshake.methodIndex(methodId)) : null;
+                if (method == null) {
+                    String msg = String.format("Can't lookup method for [methodId = %d]", methodId);
+                    sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer,
+                            new KirinRemoteException(msg, Status.SERVICE_NOT_FOUND));
+                    return;
+                }
+                //补全请求, 之后的处理和完整的请求相同
+                request.setServiceMeta(serviceProvider.getServiceMeta());
+                request.setMethodName(method.getName());
+                request.setArgTypes(method.getParameterTypes());
+            } else {
+                serviceProvider = providerLookup.lookupService(request.getServiceMeta());
+                if (serviceProvider == null) {
+                    String msg = String.format("Can't lookup service provider for [serviceName = %s, serviceGroup = %s]",
+                            request.getServiceMeta().getServiceName(),
+                            request.getServiceMeta().getServiceGroup());
+                    sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer,
+                            new KirinRemoteException(msg, Status.SERVICE_NOT_FOUND));
+                    return;
+                }
+
+                method = serviceProvider.lookupMethod(request.getMethodName(), request.getArgTypes());
+                if (method == null) {
+                    String msg = String.format("Can't lookup method %s for [serviceName = %s, serviceGroup = %s]",
+                            ServiceMethod.signature(request.getMethodName(), request.getArgTypes()),
+                            request.getServiceMeta().getServiceName(),
+                            request.getServiceMeta().getServiceGroup());
+                    sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer,
+                            new KirinRemoteException(msg, Status.SERVICE_NOT_FOUND));
+                    return;
+                }
+            }
+
+            //方法id不在协议头中时, I/O线程上不知道调用的方法, 在这里检查方法的限流
+            if (requestPayload.methodId() < 0) {
+                Status limited = rateLimiters.checkMethod(serviceProvider, method);
+                if (limited != null) {
+                    String msg = "Rate limit of method " + method.getSignature() + " exceeded.";
+                    sender.sendRejectResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer,
+                            new KirinRemoteException(msg, limited));
+                    return;
+                }
+            }
+
+            //超过服务当前的并发上限
+            final ConcurrencyLimiter limiter = limiters.limiter(serviceProvider, method);
+            if (limiter != null && !limiter.tryAcquire()) {
+                String msg = "Concurrency limit " + limiter.limit() + " of " + limiter.name() + " exceeded.";
+                sender.sendRejectResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer,
+                        new KirinRemoteException(msg, Status.PROVIDER_FLOW_CONTROL));
                 return;
             }
+            final long invokeBegin = System.nanoTime();
 
             //调用服务方法
-            Object invokeResult;
+            Object invokeResult = null;
             try {
-                invokeResult = invoke(request, serviceProvider);
+                invokeResult = invoke(request, serviceProvider, method);
             } catch (InvocationTargetException e) {
+                //服务抛出的异常, 不带反射的包装
                 String msg = "Fail to invoke service for RPC request.";
-                sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(),
-                        new KirinRemoteException(msg, e, Status.SERVICE_EXPECTED_ERROR));
+                sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer,
+                        new KirinRemoteException(msg, e.getTargetException(), Status.SERVICE_EXPECTED_ERROR));
                 return;
+            } finally {
+                //异步的方法在完成时才结束
+                if (limiter != null && !(invokeResult instanceof CompletionStage)) {
+                    limiter.release(System.nanoTime() - invokeBegin);
+                }
             }
 
-            //发送invoke结果
-            try {
-                sender.sendSuccessResponse(channel, requestPayload.id(), requestPayload.timestamp(), invokeResult);
-            } catch (IllegalStateException e) {
-                String msg = "Fail to serialize response.";
-                sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(),
-                        new KirinRemoteException(msg, e, Status.SERVICE_EXPECTED_ERROR));
-                return;
-            } catch (Throwable t) {
-                String msg = "Fail to send response.";
-                sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(),
-                        new KirinRemoteException(msg, t, Status.SERVICE_EXPECTED_ERROR));
+            //服务方法返回CompletableFuture时, 等它完成后再发送结果, 不占用当前线程
+            if (invokeResult instanceof CompletionStage) {
+                ((CompletionStage<?>) invokeResult).whenComplete((result, cause) -> {
+                    if (limiter != null) {
+                        limiter.release(System.nanoTime() - invokeBegin);
+                    }
+                    try {
+                        if (cause != null) {
+                            String msg = "Fail to invoke service for RPC request.";
+                            sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer,
+                                    new KirinRemoteException(msg, unwrap(cause), Status.SERVICE_EXPECTED_ERROR));
+                        } else {
+                            sendResult(result);
+                        }
+                    } catch (Throwable t) {
+                        sendUnknownError(t);
+                    }
+                });
                 return;
             }
 
+            //发送invoke结果
+            sendResult(invokeResult);
+
         } catch (Throwable t) {
-            String msg = "Unknown error happened when run rpc task";
-            sender.sendErrorResponse(channel, requestPayload.id(), requestPayload.timestamp(),
-                    new KirinRemoteException(msg, t, Status.SERVICE_UNEXPECTED_ERROR));
+            sendUnknownError(t);
         }
     }
 
+    private void sendResult(Object invokeResult) {
+        try {
+            sender.sendSuccessResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer, invokeResult);
+        } catch (IllegalStateException e) {
+            String msg = "Fail to serialize response.";
+            sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer,
+                    new KirinRemoteException(msg, e, Status.SERVICE_EXPECTED_ERROR));
+        } catch (Throwable t) {
+            String msg = "Fail to send response.";
+            sender.sendFailResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer,
+                    new KirinRemoteException(msg, t, Status.SERVICE_EXPECTED_ERROR));
+        }
+    }
 
-    private Object invoke(KirinRequest request, ServiceWrapper serviceWrapper) throws InvocationTargetException {
+    private void sendUnknownError(Throwable t) {
+        String msg = "Unknown error happened when run rpc task";
+        sender.sendErrorResponse(channel, requestPayload.id(), requestPayload.timestamp(), serializer,
+                new KirinRemoteException(msg, t, Status.SERVICE_UNEXPECTED_ERROR));
+    }
+
+    private static Throwable unwrap(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            return cause.getCause();
+        }
+        return cause;
+    }
+
+
+    private Object invoke(KirinRequest request, ServiceWrapper serviceWrapper, ServiceMethod method) throws InvocationTargetException {
         Object provider = serviceWrapper.getServiceBean();
-        Class<?> providerClass = provider.getClass();
-        String methodName = request.getMethodName();
-        Class<?>[] argTypes = request.getArgTypes();
         Object[] args = request.getArgs();
 
+        if (log.isDebugEnabled()) {
+            log.debug("Invoke service for RPC request. " +
+                            "[providerClass = {}, method = {}, args = {}]",
+                    provider.getClass().getName(),
+                    method.getSignature(),
+                    Arrays.toString(args));
+        }
 
-        log.debug("Invoke service for RPC request. " +
-                        "[providerClass = {}, methodName = {}, argTypes = {}, args = {}]",
-                providerClass.getName(),
-                methodName,
-                Arrays.stream(argTypes).map(Class::getName).collect(Collectors.toList()),
-                Arrays.stream(args).map(Object::toString).collect(Collectors.toList()));
-
-        //Cglib reflect
-        FastClass providerFastClass = FastClass.create(providerClass);
-        int methodIndex = providerFastClass.getIndex(methodName, argTypes);
-        return providerFastClass.invoke(methodIndex, provider, args);
+        //使用注册时生成的方法表进行调用
+        return method.invoke(provider, args);
     }
 
 }
@@ -0,0 +1,121 @@
+package io.github.nnkwrik.kirinrpc.rpc.provider;
+
+import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMethod;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceWrapper;
+import io.github.nnkwrik.kirinrpc.springboot.annotation.KirinMethod;
+import io.github.nnkwrik.kirinrpc.springboot.annotation.KirinProvideService;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按消费者应用和按服务方法的令牌桶限流, 超过时分别回复APP_FLOW_CONTROL和PROVIDER_FLOW_CONTROL.
+ * 应用名来自握手, 方法来自REQUEST_METHOD协议头中的方法id, 都不需要反序列化, 可以在I/O线程上检查.
+ * <p>
+ * 方法的QPS上限按优先级取KirinProvideService#methods中同名方法的rateLimit, KirinProvideService#rateLimit,
+ * 以及提供者配置的默认值. 配置了的应用各自使用一个令牌桶, 其他应用名(包括没有发送应用名的老版本消费者)
+ * 共用一个按默认值限流的令牌桶, 改名不能绕过限流. 小于等于0表示不限制
+ *
+ * @author nnkwrik
+ * @date 19/06/24 10:50
+ */
+public class RateLimiters {
+
+    private volatile Map<String, Integer> appLimits = Collections.emptyMap();
+
+    private volatile int defaultAppLimit;
+
+    private volatile int defaultMethodLimit;
+
+    //只包含配置了上限的应用, 应用名来自对端, 不能按它无限制地创建令牌桶
+    private volatile Map<String, TokenBucket> appBuckets = Collections.emptyMap();
+
+    //其他应用共用, 为null表示不限制
+    private volatile TokenBucket defaultAppBucket;
+
+    //值为空表示不限制, 避免每次都重新解析
+    private final ConcurrentMap<ServiceMethod, Optional<TokenBucket>> methodBuckets = new ConcurrentHashMap<>();
+
+    private final LongAdder appLimited = new LongAdder();
+
+    private final LongAdder methodLimited = new LongAdder();
+
+    public synchronized void setAppLimits(Map<String, Integer> appLimits) {
+        this.appLimits = new HashMap<>(appLimits);
+        resetAppBuckets();
+    }
+
+    public synchronized void setDefaultAppLimit(int defaultAppLimit) {
+        this.defaultAppLimit = defaultAppLimit;
+        resetAppBuckets();
+    }
+
+    private void resetAppBuckets() {
+        Map<String, TokenBucket> buckets = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : appLimits.entrySet()) {
+            Integer limit = entry.getValue();
+            //配置为0的应用不限制, 也不占用默认的令牌桶
+            buckets.put(entry.getKey(), limit != null && limit > 0 ? new TokenBucket(limit) : null);
+        }
+        appBuckets = buckets;
+        defaultAppBucket = bucket(defaultAppLimit).orElse(null);
+    }
+
+    public void setDefaultMethodLimit(int defaultMethodLimit) {
+        this.defaultMethodLimit = defaultMethodLimit;
+        methodBuckets.clear();
+    }
+
+    /**
+     * 检查应用和方法的限流, 通过时返回null. method为null时只检查应用
+     */
+    public Status check(String appName, ServiceWrapper service, ServiceMethod method) {
+        Map<String, TokenBucket> buckets = appBuckets;
+        TokenBucket appBucket = appName != null && buckets.containsKey(appName) ? buckets.get(appName) : defaultAppBucket;
+        if (appBucket != null && !appBucket.tryAcquire()) {
+            appLimited.increment();
+            return Status.APP_FLOW_CONTROL;
+        }
+        return method == null ? null : checkMethod(service, method);
+    }
+
+    public Status checkMethod(ServiceWrapper service, ServiceMethod method) {
+        Optional<TokenBucket> methodBucket = methodBuckets.computeIfAbsent(method, m -> bucket(methodLimit(service, m)));
+        if (methodBucket.isPresent() && !methodBucket.get().tryAcquire()) {
+            methodLimited.increment();
+            return Status.PROVIDER_FLOW_CONTROL;
+        }
+        return null;
+    }
+
+    private int methodLimit(ServiceWrapper service, ServiceMethod method) {
+        KirinProvideService annotation = service.getServiceBean().getClass().getAnnotation(KirinProvideService.class);
+        if (annotation == null) {
+            return defaultMethodLimit;
+        }
+        for (KirinMethod kirinMethod : annotation.methods()) {
+            if (kirinMethod.name().equals(method.getName()) && kirinMethod.rateLimit() > 0) {
+                return kirinMethod.rateLimit();
+            }
+        }
+        return annotation.rateLimit() > 0 ? annotation.rateLimit() : defaultMethodLimit;
+    }
+
+    private static Optional<TokenBucket> bucket(int permitsPerSecond) {
+        return permitsPerSecond > 0 ? Optional.of(new TokenBucket(permitsPerSecond)) : Optional.empty();
+    }
+
+    public long appLimited() {
+        return appLimited.sum();
+    }
+
+    public long methodLimited() {
+        return methodLimited.sum();
+    }
+}
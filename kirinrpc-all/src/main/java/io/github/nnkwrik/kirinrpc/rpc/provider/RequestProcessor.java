@@ -1,6 +1,7 @@
 package io.github.nnkwrik.kirinrpc.rpc.provider;
 
 
+import io.github.nnkwrik.kirinrpc.netty.model.HandshakePayload;
 import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
 import io.netty.channel.Channel;
 
@@ -15,6 +16,11 @@ public interface RequestProcessor {
      */
     void handleRequest(Channel channel, RequestPayload request) throws Exception;
 
+    /**
+     * 处理连接建立后消费者发来的握手
+     */
+    void handleHandshake(Channel channel, HandshakePayload handshake) throws Exception;
+
     /**
      * 处理异常
      */
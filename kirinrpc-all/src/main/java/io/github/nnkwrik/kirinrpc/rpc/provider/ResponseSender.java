@@ -1,6 +1,7 @@
 package io.github.nnkwrik.kirinrpc.rpc.provider;
 
 import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
 import io.netty.channel.Channel;
 
 
@@ -10,10 +11,15 @@ import io.netty.channel.Channel;
  */
 public interface ResponseSender {
 
-    void sendSuccessResponse(Channel channel, long requestId, long requestTime, Object invokeResult);
+    //serializer: 请求使用的序列化方式, 响应也用它序列化
 
-    void sendFailResponse(Channel channel, long requestId, long requestTime, KirinRemoteException e);
+    void sendSuccessResponse(Channel channel, long requestId, long requestTime, Serializer serializer, Object invokeResult);
 
-    void sendErrorResponse(Channel channel, long requestId, long requestTime, KirinRemoteException e);
+    void sendFailResponse(Channel channel, long requestId, long requestTime, Serializer serializer, KirinRemoteException e);
+
+    void sendErrorResponse(Channel channel, long requestId, long requestTime, Serializer serializer, KirinRemoteException e);
+
+    //过载或限流时拒绝请求, 不打印异常栈, 连接保持可用
+    void sendRejectResponse(Channel channel, long requestId, long requestTime, Serializer serializer, KirinRemoteException e);
 
 }
@@ -4,14 +4,15 @@ import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceWrapper;
 import io.github.nnkwrik.kirinrpc.springboot.annotation.KirinProvideService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cglib.reflect.FastClass;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * @author nnkwrik
@@ -20,7 +21,10 @@ import java.util.stream.Collectors;
 @Slf4j
 public class ServiceBeanContainer implements ProviderLookup {
 
-    private final ConcurrentMap<String, Object> serviceBeans = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ServiceMeta, ServiceWrapper> serviceBeans = new ConcurrentHashMap<>();
+
+    //只追加不删除, 下标在连接的整个生命周期内保持不变
+    private final List<ServiceWrapper> serviceList = new CopyOnWriteArrayList<>();
 
     public List<ServiceMeta> addServiceBeans(Collection<Object> serviceBeans) {
         List<ServiceMeta> serviceMetaList = new ArrayList<>();
@@ -33,28 +37,40 @@ public class ServiceBeanContainer implements ProviderLookup {
     public List<ServiceMeta> addServiceBean(Object serviceBean) {
         List<ServiceMeta> serviceMetaList = new ArrayList<>();
 
-        List<String> interfaceName = Arrays.stream(serviceBean.getClass().getInterfaces())
-                .map(Class::getName).collect(Collectors.toList());
+        Class<?> beanClass = serviceBean.getClass();
+        //每个bean只生成一次FastClass, 它的所有接口共用
+        FastClass fastClass = FastClass.create(beanClass);
 
-        String serviceGroup = serviceBean.getClass().getAnnotation(KirinProvideService.class).group();
-        interfaceName.stream().forEach(serviceName -> {
+        String serviceGroup = beanClass.getAnnotation(KirinProvideService.class).group();
+        for (Class<?> serviceInterface : beanClass.getInterfaces()) {
+            String serviceName = serviceInterface.getName();
             log.info("Loading service: {} ,addressChannel : {}", serviceName, serviceGroup);
             ServiceMeta serviceMeta = new ServiceMeta(serviceName, serviceGroup);
-            String serviceKey = serviceGroup + "/" + serviceName;
-            if (serviceBeans.putIfAbsent(serviceKey, serviceBean) != null) {
+            ServiceWrapper wrapper = new ServiceWrapper(serviceMeta, serviceInterface, serviceBean, fastClass);
+            ServiceWrapper exist = serviceBeans.putIfAbsent(serviceMeta, wrapper);
+            if (exist != null) {
                 log.warn("Already have instance for service(serviceName={} ,group={}).The instance is {},can't overwrite by {}.",
-                        serviceName, serviceGroup, serviceBeans.get(serviceKey), serviceBean);
+                        serviceName, serviceGroup, exist.getServiceBean(), serviceBean);
             } else {
+                serviceList.add(wrapper);
                 serviceMetaList.add(serviceMeta);
             }
-        });
+        }
         return serviceMetaList;
     }
 
     @Override
     public ServiceWrapper lookupService(ServiceMeta serviceMeta) {
-        Object serviceBean = serviceBeans.get(serviceMeta.getServiceGroup() + "/" + serviceMeta.getServiceName());
-        if (serviceBean == null) return null;
-        return new ServiceWrapper(serviceBean);
+        return serviceBeans.get(serviceMeta);
+    }
+
+    @Override
+    public List<ServiceWrapper> services() {
+        return Collections.unmodifiableList(serviceList);
+    }
+
+    @Override
+    public ServiceWrapper lookupService(int serviceIndex) {
+        return serviceIndex >= 0 && serviceIndex < serviceList.size() ? serviceList.get(serviceIndex) : null;
     }
 }
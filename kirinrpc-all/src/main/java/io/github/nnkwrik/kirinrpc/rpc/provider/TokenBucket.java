@@ -0,0 +1,57 @@
+package io.github.nnkwrik.kirinrpc.rpc.provider;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁的令牌桶. 每秒补充permitsPerSecond个令牌, 最多积攒burst个.
+ * 不保存令牌数, 而是保存下一个令牌的理论到达时间(GCRA), 一次CAS完成取令牌, 不需要定时补充
+ *
+ * @author nnkwrik
+ * @date 19/06/24 10:20
+ */
+public class TokenBucket {
+
+    private final int permitsPerSecond;
+
+    //两个令牌之间的间隔
+    private final long intervalNanos;
+
+    //理论到达时间最多可以超前当前时间多少, 即积攒的令牌数
+    private final long toleranceNanos;
+
+    private final AtomicLong theoreticalArrival;
+
+    public TokenBucket(int permitsPerSecond) {
+        this(permitsPerSecond, permitsPerSecond);
+    }
+
+    public TokenBucket(int permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be a positive integer: " + permitsPerSecond);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.intervalNanos = Math.max(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond, 1);
+        this.toleranceNanos = intervalNanos * Math.max(burst, 1);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    public boolean tryAcquire() {
+        for (; ; ) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrival.get();
+            //nanoTime可能溢出, 只能比较差值
+            long next = (tat - now > 0 ? tat : now) + intervalNanos;
+            if (next - now > toleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                return true;
+            }
+        }
+    }
+
+    public int permitsPerSecond() {
+        return permitsPerSecond;
+    }
+}
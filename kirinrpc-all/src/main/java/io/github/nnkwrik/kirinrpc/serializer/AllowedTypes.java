@@ -0,0 +1,189 @@
+package io.github.nnkwrik.kirinrpc.serializer;
+
+import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
+import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
+import io.github.nnkwrik.kirinrpc.rpc.model.Handshake;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinResponse;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 允许通过kryo, hessian2和smile反序列化的类型.
+ * 内部模型和常用的jdk类型之外, 只有服务接口中用到的类型(参数, 返回值, 异常和它们的字段)可以被反序列化,
+ * 对端不能通过类名让提供者创建任意的对象
+ *
+ * @author nnkwrik
+ * @date 19/06/26 10:30
+ */
+@Slf4j
+public final class AllowedTypes {
+
+    //按登记的顺序, kryo按它给新借出的实例补上注册
+    private static final List<Class<?>> classes = new CopyOnWriteArrayList<>();
+
+    private static final Set<String> names = ConcurrentHashMap.newKeySet();
+
+    static {
+        for (Class<?> cls : new Class<?>[]{
+                //内部模型
+                KirinRequest.class, KirinResponse.class, ServiceMeta.class,
+                Handshake.class, Handshake.MethodId.class,
+                KirinRemoteException.class, Status.class,
+                //基本类型和常用的jdk类型
+                boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class, void.class,
+                Boolean.class, Byte.class, Character.class, Short.class, Integer.class, Long.class, Float.class, Double.class, Void.class,
+                String.class, Object.class, Class.class, Number.class, BigDecimal.class, BigInteger.class, Date.class,
+                Object[].class, Class[].class, String[].class, byte[].class, int[].class, long[].class,
+                ArrayList.class, LinkedList.class, HashMap.class, LinkedHashMap.class, TreeMap.class,
+                HashSet.class, LinkedHashSet.class, TreeSet.class,
+                //异常
+                Throwable.class, Exception.class, RuntimeException.class, Error.class,
+                IllegalArgumentException.class, IllegalStateException.class, NullPointerException.class,
+                UnsupportedOperationException.class, StackTraceElement.class, StackTraceElement[].class}) {
+            add(cls);
+        }
+        //Throwable的suppressedExceptions和常见的不可变集合
+        for (String name : new String[]{
+                "java.util.Collections$UnmodifiableRandomAccessList", "java.util.Collections$UnmodifiableList",
+                "java.util.Collections$EmptyList", "java.util.Collections$EmptyMap", "java.util.Collections$EmptySet",
+                "java.util.Collections$SingletonList", "java.util.Arrays$ArrayList"}) {
+            try {
+                add(Class.forName(name, false, AllowedTypes.class.getClassLoader()));
+            } catch (ClassNotFoundException e) {
+                log.debug("Skip unknown class {}.", name);
+            }
+        }
+    }
+
+    private AllowedTypes() {
+    }
+
+    /**
+     * 登记服务接口中用到的类型. 提供者和消费者都要登记, kryo两端的注册要一致
+     */
+    public static synchronized void register(Class<?> serviceInterface) {
+        Set<Class<?>> visited = new HashSet<>();
+        for (Method method : serviceInterface.getMethods()) {
+            for (Type type : method.getGenericParameterTypes()) {
+                register(type, visited);
+            }
+            register(method.getGenericReturnType(), visited);
+            for (Type type : method.getGenericExceptionTypes()) {
+                register(type, visited);
+            }
+        }
+    }
+
+    private static void register(Type type, Set<Class<?>> visited) {
+        if (type instanceof ParameterizedType) {
+            //CompletableFuture<T>, List<T>等, 类型参数也会被序列化
+            register(((ParameterizedType) type).getRawType(), visited);
+            for (Type arg : ((ParameterizedType) type).getActualTypeArguments()) {
+                register(arg, visited);
+            }
+        } else if (type instanceof GenericArrayType) {
+            register(((GenericArrayType) type).getGenericComponentType(), visited);
+        } else if (type instanceof WildcardType) {
+            for (Type bound : ((WildcardType) type).getUpperBounds()) {
+                register(bound, visited);
+            }
+        } else if (type instanceof Class) {
+            Class<?> cls = (Class<?>) type;
+            if (!visited.add(cls)) {
+                return;
+            }
+            if (cls.isArray()) {
+                add(cls);
+                register(cls.getComponentType(), visited);
+                return;
+            }
+            //接口和抽象类不会作为实际的类型出现, jdk的类型只接受上面列出的
+            if (cls.isPrimitive() || cls.isInterface() || Modifier.isAbstract(cls.getModifiers()) && !cls.isEnum()) {
+                return;
+            }
+            String name = cls.getName();
+            if (name.startsWith("java.") || name.startsWith("javax.")) {
+                //服务声明抛出的jdk异常也要能传回消费者, 它们的字段在Throwable中已经登记过
+                if (Throwable.class.isAssignableFrom(cls)) {
+                    add(cls);
+                }
+                return;
+            }
+            add(cls);
+            for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        register(field.getGenericType(), visited);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void add(Class<?> cls) {
+        if (names.add(cls.getName())) {
+            classes.add(cls);
+        }
+    }
+
+    /**
+     * 把异常链中不允许反序列化的异常换成KirinRemoteException, 保留原来的信息和调用栈.
+     * 否则服务抛出没有声明的异常时, 对端会因为不认识它而读不出整个响应
+     */
+    public static KirinRemoteException transferable(KirinRemoteException e) {
+        return (KirinRemoteException) transferable(e, e.getStatus(), Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static Throwable transferable(Throwable t, Status status, Set<Throwable> visited) {
+        if (t == null || !visited.add(t)) {
+            //循环引用的异常链在这里截断
+            return null;
+        }
+        Throwable cause = transferable(t.getCause(), status, visited);
+        boolean changed = cause != t.getCause();
+        Throwable[] suppressed = t.getSuppressed();
+        for (int i = 0; i < suppressed.length; i++) {
+            Throwable s = transferable(suppressed[i], status, visited);
+            changed |= s != suppressed[i];
+            suppressed[i] = s;
+        }
+        if (!changed && isAllowed(t.getClass().getName())) {
+            return t;
+        }
+        //已经设置过的cause不能再修改, 只能整个替换
+        KirinRemoteException replaced = t instanceof KirinRemoteException
+                ? new KirinRemoteException(t.getMessage(), cause, ((KirinRemoteException) t).getStatus())
+                : new KirinRemoteException(t.toString(), cause, status);
+        replaced.setStackTrace(t.getStackTrace());
+        for (Throwable s : suppressed) {
+            if (s != null) {
+                replaced.addSuppressed(s);
+            }
+        }
+        return replaced;
+    }
+
+    public static boolean isAllowed(String className) {
+        return className != null && names.contains(className);
+    }
+
+    /**
+     * 已登记的类型, 只会在末尾追加
+     */
+    public static List<Class<?>> classes() {
+        return classes;
+    }
+
+    public static int size() {
+        return classes.size();
+    }
+}
@@ -1,6 +1,8 @@
 package io.github.nnkwrik.kirinrpc.serializer;
 
 
+import io.netty.buffer.ByteBuf;
+
 /**
  * @author BazingaLyn
  * @description 序列化工具接口
@@ -9,6 +11,16 @@ package io.github.nnkwrik.kirinrpc.serializer;
  */
 public interface Serializer {
 
+    /**
+     * 协议头中使用的编号, 0~15. 0是默认的protostuff, 老版本的对端只认识它
+     */
+    byte code();
+
+    /**
+     * 配置和注册中心中使用的名字
+     */
+    String name();
+
     /**
      * 将obj序列化成byte数组
      *
@@ -26,4 +38,29 @@ public interface Serializer {
      */
     <T> T readObject(byte[] bytes, Class<T> clazz);
 
+    /**
+     * 将obj直接序列化到out中, 不产生中间的byte数组
+     *
+     * @param out
+     * @param obj
+     */
+    <T> void writeObject(ByteBuf out, T obj);
+
+    /**
+     * 从in的可读部分直接反序列化出class是clazz的obj对象, 读取后in的可读部分被消费
+     *
+     * @param in
+     * @param clazz
+     * @return
+     */
+    <T> T readObject(ByteBuf in, Class<T> clazz);
+
+    /**
+     * 提前准备服务接口中用到的类型(如生成schema), 减少第一次调用的延迟. 默认不做任何事
+     *
+     * @param serviceInterface
+     */
+    default void warmUp(Class<?> serviceInterface) {
+    }
+
 }
@@ -1,7 +1,18 @@
-
 package io.github.nnkwrik.kirinrpc.serializer;
 
+import io.github.nnkwrik.kirinrpc.serializer.hessian.Hessian2Serializer;
+import io.github.nnkwrik.kirinrpc.serializer.kryo.KryoSerializer;
 import io.github.nnkwrik.kirinrpc.serializer.protostuff.ProtoStuffSerializer;
+import io.github.nnkwrik.kirinrpc.serializer.smile.SmileSerializer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.function.Supplier;
 
 /**
  * 
@@ -10,13 +21,160 @@ import io.github.nnkwrik.kirinrpc.serializer.protostuff.ProtoStuffSerializer;
  * @time 2016年7月26日18:51:43
  * @modifytime
  */
+@Slf4j
 public final class SerializerHolder {
 
 	//使用google的protostuff
 	//protostuff 是一个支持各种格式的一个序列化Java类库，包括 JSON、XML、YAML等格式。
     private static final Serializer serializer = new ProtoStuffSerializer();
 
+    //按协议头中的编号索引
+    private static final Serializer[] serializers = new Serializer[16];
+
+    //classpath上所有可用的方式
+    private static final List<Serializer> available;
+
+    //显式开启的方式, 只接受用它们序列化的消息. 默认只有protostuff
+    private static final boolean[] enabled = new boolean[serializers.length];
+
+    static {
+        List<Serializer> list = new ArrayList<>();
+        list.add(serializer);
+        //内置的实现, 依赖不在classpath上时跳过
+        addIfAvailable(list, "com.esotericsoftware.kryo.Kryo", KryoSerializer::new);
+        addIfAvailable(list, "com.caucho.hessian.io.Hessian2Output", Hessian2Serializer::new);
+        addIfAvailable(list, "com.fasterxml.jackson.dataformat.smile.SmileFactory", SmileSerializer::new);
+
+        //通过META-INF/services/io.github.nnkwrik.kirinrpc.serializer.Serializer扩展
+        Iterator<Serializer> loaded = ServiceLoader.load(Serializer.class, SerializerHolder.class.getClassLoader()).iterator();
+        while (true) {
+            try {
+                if (!loaded.hasNext()) {
+                    break;
+                }
+                list.add(loaded.next());
+            } catch (ServiceConfigurationError e) {
+                log.warn("Fail to load serializer: {}.", e.getMessage());
+            }
+        }
+
+        List<Serializer> registered = new ArrayList<>();
+        for (Serializer s : list) {
+            int code = s.code();
+            if (code < 0 || code >= serializers.length) {
+                log.warn("Serializer {} has an invalid code {}, ignore it.", s.name(), code);
+            } else if (serializers[code] != null) {
+                log.warn("Serializer {} has the same code {} with {}, ignore it.", s.name(), code, serializers[code].name());
+            } else {
+                serializers[code] = s;
+                registered.add(s);
+            }
+        }
+        available = Collections.unmodifiableList(registered);
+        enabled[serializer.code()] = true;
+        log.info("Available serializers: {}.", availableNames());
+    }
+
+    private static void addIfAvailable(List<Serializer> list, String dependency, Supplier<Serializer> factory) {
+        try {
+            Class.forName(dependency, false, SerializerHolder.class.getClassLoader());
+            list.add(factory.get());
+        } catch (Throwable t) {
+            log.debug("Serializer is unavailable: {}.", t.toString());
+        }
+    }
+
+    /**
+     * 默认的序列化方式
+     */
     public static Serializer serializerImpl() {
         return serializer;
     }
+
+    /**
+     * 开启名字对应的序列化方式. kryo, hessian2等可以根据消息中的类名创建对象, 需要使用方显式开启
+     */
+    public static void enable(String name) {
+        for (Serializer s : available) {
+            if (s.name().equals(name)) {
+                if (!enabled[s.code()]) {
+                    enabled[s.code()] = true;
+                    log.info("Enable serializer {}.", name);
+                }
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Unknown serializer " + name + ", available serializers are " + availableNames());
+    }
+
+    /**
+     * 协议头中的编号对应的序列化方式, 不支持或没有开启时返回null
+     */
+    public static Serializer serializerImpl(int code) {
+        return code >= 0 && code < serializers.length && enabled[code] ? serializers[code] : null;
+    }
+
+    /**
+     * 名字对应的序列化方式, 不支持或没有开启时返回null
+     */
+    public static Serializer serializerImpl(String name) {
+        for (Serializer s : available) {
+            if (s.name().equals(name)) {
+                return enabled[s.code()] ? s : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 登记服务接口中用到的类型, 只有它们能被kryo, hessian2和smile反序列化
+     */
+    public static void register(Class<?> serviceInterface) {
+        AllowedTypes.register(serviceInterface);
+    }
+
+    /**
+     * 用所有开启的序列化方式预热服务接口中用到的类型
+     */
+    public static void warmUp(Class<?> serviceInterface) {
+        register(serviceInterface);
+        for (Serializer s : available) {
+            if (!enabled[s.code()]) {
+                continue;
+            }
+            try {
+                s.warmUp(serviceInterface);
+            } catch (Throwable t) {
+                log.warn("Fail to warm up serializer {} for {}: {}.", s.name(), serviceInterface.getName(), t.toString());
+            }
+        }
+    }
+
+    /**
+     * 当前进程开启的序列化方式, 以逗号分隔. 提供者把它公布在注册中心中
+     */
+    public static String names() {
+        return names(true);
+    }
+
+    /**
+     * classpath上所有可用的序列化方式, 以逗号分隔
+     */
+    public static String availableNames() {
+        return names(false);
+    }
+
+    private static String names(boolean enabledOnly) {
+        StringBuilder names = new StringBuilder();
+        for (Serializer s : available) {
+            if (enabledOnly && !enabled[s.code()]) {
+                continue;
+            }
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(s.name());
+        }
+        return names.toString();
+    }
 }
@@ -0,0 +1,125 @@
+package io.github.nnkwrik.kirinrpc.serializer.hessian;
+
+import com.caucho.hessian.io.ClassFactory;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.SerializerFactory;
+import io.github.nnkwrik.kirinrpc.serializer.AllowedTypes;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * 使用hessian2, 和其他语言的hessian实现互通.
+ * 不要求实现Serializable, ServiceMeta等内部模型可以直接序列化.
+ * 反序列化时只加载AllowedTypes中登记的类, 其他的类名被当作Map读出
+ *
+ * @author nnkwrik
+ * @date 19/06/14 10:40
+ */
+public class Hessian2Serializer implements Serializer {
+
+    public static final byte CODE = 0x02;
+
+    //SerializerFactory缓存了每个类的序列化器, 所有调用共用
+    private static final SerializerFactory serializerFactory = new SerializerFactory();
+
+    private static final ClassFactory classFactory = serializerFactory.getClassFactory();
+
+    //classFactory已经允许了AllowedTypes中的前多少个类型
+    private static volatile int allowed;
+
+    static {
+        serializerFactory.setAllowNonSerializable(true);
+        classFactory.setWhitelist(true);
+        classFactory.allow("java.util.*");
+        allowRegistered();
+    }
+
+    /**
+     * 把新登记的类型加入白名单. 服务接口在启动时登记, 之后这里只做一次比较
+     */
+    private static void allowRegistered() {
+        if (allowed == AllowedTypes.size()) {
+            return;
+        }
+        synchronized (classFactory) {
+            List<Class<?>> classes = AllowedTypes.classes();
+            int size = classes.size();
+            for (int i = allowed; i < size; i++) {
+                //白名单是正则, 内部类名中的$需要转义
+                classFactory.allow(classes.get(i).getName().replace("$", "\\$"));
+            }
+            allowed = size;
+        }
+    }
+
+    @Override
+    public void warmUp(Class<?> serviceInterface) {
+        allowRegistered();
+    }
+
+    @Override
+    public byte code() {
+        return CODE;
+    }
+
+    @Override
+    public String name() {
+        return "hessian2";
+    }
+
+    @Override
+    public <T> byte[] writeObject(T obj) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, obj);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T readObject(byte[] bytes, Class<T> clazz) {
+        return read(new ByteArrayInputStream(bytes), clazz);
+    }
+
+    @Override
+    public <T> void writeObject(ByteBuf out, T obj) {
+        write(new ByteBufOutputStream(out), obj);
+    }
+
+    @Override
+    public <T> T readObject(ByteBuf in, Class<T> clazz) {
+        int end = in.writerIndex();
+        T message = read(new ByteBufInputStream(in), clazz);
+        in.readerIndex(end);
+        return message;
+    }
+
+    private static void write(OutputStream out, Object obj) {
+        Hessian2Output output = new Hessian2Output(out);
+        output.setSerializerFactory(serializerFactory);
+        try {
+            output.writeObject(obj);
+            output.flush();
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static <T> T read(InputStream in, Class<T> clazz) {
+        allowRegistered();
+        Hessian2Input input = new Hessian2Input(in);
+        input.setSerializerFactory(serializerFactory);
+        try {
+            return clazz.cast(input.readObject(clazz));
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package io.github.nnkwrik.kirinrpc.serializer.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoPool;
+import io.github.nnkwrik.kirinrpc.serializer.AllowedTypes;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.util.List;
+
+/**
+ * 使用kryo. Kryo实例不是线程安全的, 从池中借用, 用完归还.
+ * 只能读写AllowedTypes中登记的类型, 注册的id由类名决定, 两端登记相同的服务接口时一致.
+ * 没有无参构造器的类通过objenesis创建
+ *
+ * @author nnkwrik
+ * @date 19/06/14 10:20
+ */
+public class KryoSerializer implements Serializer {
+
+    public static final byte CODE = 0x01;
+
+    private static final int BUFFER_SIZE = 512;
+
+    //kryo自己注册的基本类型使用较小的id
+    private static final int FIRST_REGISTRATION_ID = 64;
+
+    //记录实例已经注册了AllowedTypes中的前多少个类型
+    private static final String REGISTERED = "kirin.registered";
+
+    //软引用, 内存紧张时池中空闲的实例可以被回收
+    private static final KryoPool pool = new KryoPool.Builder(KryoSerializer::newKryo).softReferences().build();
+
+    private static Kryo newKryo() {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(true);
+        kryo.setReferences(true);
+        kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        register(kryo);
+        return kryo;
+    }
+
+    /**
+     * 借出实例, 服务接口在池中的实例创建之后才登记时补上注册
+     */
+    private static Kryo borrow() {
+        Kryo kryo = pool.borrow();
+        Object registered = kryo.getContext().get(REGISTERED);
+        if (!(registered instanceof Integer) || (Integer) registered != AllowedTypes.size()) {
+            register(kryo);
+        }
+        return kryo;
+    }
+
+    private static void register(Kryo kryo) {
+        List<Class<?>> classes = AllowedTypes.classes();
+        int size = classes.size();
+        for (int i = 0; i < size; i++) {
+            Class<?> cls = classes.get(i);
+            if (kryo.getClassResolver().getRegistration(cls) != null) {
+                //基本类型和已经注册过的类型
+                continue;
+            }
+            int id = FIRST_REGISTRATION_ID + (cls.getName().hashCode() & 0x3fffffff);
+            Registration existing = kryo.getRegistration(id);
+            if (existing != null) {
+                throw new IllegalStateException("Kryo registration id " + id + " of " + cls.getName()
+                        + " conflicts with " + existing.getType().getName());
+            }
+            kryo.register(cls, id);
+        }
+        kryo.getContext().put(REGISTERED, size);
+    }
+
+    @Override
+    public byte code() {
+        return CODE;
+    }
+
+    @Override
+    public String name() {
+        return "kryo";
+    }
+
+    @Override
+    public <T> byte[] writeObject(T obj) {
+        Kryo kryo = borrow();
+        try {
+            Output output = new Output(BUFFER_SIZE, -1);
+            kryo.writeObject(output, obj);
+            return output.toBytes();
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            pool.release(kryo);
+        }
+    }
+
+    @Override
+    public <T> T readObject(byte[] bytes, Class<T> clazz) {
+        Kryo kryo = borrow();
+        try {
+            return kryo.readObject(new Input(bytes), clazz);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            pool.release(kryo);
+        }
+    }
+
+    @Override
+    public <T> void writeObject(ByteBuf out, T obj) {
+        Kryo kryo = borrow();
+        try {
+            //Output写满一段就直接刷到out中
+            Output output = new Output(new ByteBufOutputStream(out), BUFFER_SIZE);
+            kryo.writeObject(output, obj);
+            output.flush();
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            pool.release(kryo);
+        }
+    }
+
+    @Override
+    public <T> T readObject(ByteBuf in, Class<T> clazz) {
+        Kryo kryo = borrow();
+        try {
+            int start = in.readerIndex();
+            int length = in.readableBytes();
+            Input input = in.hasArray()
+                    ? new Input(in.array(), in.arrayOffset() + start, length)
+                    : new Input(new ByteBufInputStream(in), BUFFER_SIZE);
+            T message = kryo.readObject(input, clazz);
+            in.readerIndex(start + length);
+            return message;
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            pool.release(kryo);
+        }
+    }
+}
@@ -1,6 +1,15 @@
 package io.github.nnkwrik.kirinrpc.serializer.protostuff;
 
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinResponse;
 import io.github.nnkwrik.kirinrpc.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.util.concurrent.FastThreadLocal;
+import io.netty.util.internal.MathUtil;
+import io.netty.util.internal.SystemPropertyUtil;
+import io.protostuff.ByteBufferInput;
 import io.protostuff.LinkedBuffer;
 import io.protostuff.ProtostuffIOUtil;
 import io.protostuff.Schema;
@@ -8,7 +17,10 @@ import io.protostuff.runtime.RuntimeSchema;
 import org.objenesis.Objenesis;
 import org.objenesis.ObjenesisStd;
 
+import java.lang.reflect.*;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -21,22 +33,57 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ProtoStuffSerializer implements Serializer {
 
+    public static final byte CODE = 0x00;
+
     private static Map<Class<?>, Schema<?>> cachedSchema = new ConcurrentHashMap<Class<?>, Schema<?>>();
 
     private static Objenesis objenesis = new ObjenesisStd(true);
 
+    //每个线程(包括eventLoop)复用自己的LinkedBuffer, 关闭时每次调用都重新分配
+    private static final boolean BUFFER_REUSE = SystemPropertyUtil.getBoolean("kirin.protostuff.bufferReuse", true);
+
+    private static final int MIN_BUFFER_SIZE = Math.max(
+            SystemPropertyUtil.getInt("kirin.protostuff.bufferSize", LinkedBuffer.DEFAULT_BUFFER_SIZE), LinkedBuffer.MIN_BUFFER_SIZE);
+
+    //复用的buffer最多增长到这个大小, 更大的消息分段写出
+    private static final int MAX_BUFFER_SIZE = Math.max(
+            SystemPropertyUtil.getInt("kirin.protostuff.maxBufferSize", 64 * 1024), MIN_BUFFER_SIZE);
+
+    private static final FastThreadLocal<BufferHolder> buffers = new FastThreadLocal<BufferHolder>() {
+        @Override
+        protected BufferHolder initialValue() {
+            return new BufferHolder();
+        }
+    };
+
+    @Override
+    public byte code() {
+        return CODE;
+    }
+
+    @Override
+    public String name() {
+        return "protostuff";
+    }
+
     @SuppressWarnings("unchecked")
     public <T> byte[] writeObject(T obj) {
 
         Class<T> cls = (Class<T>) obj.getClass();
-        LinkedBuffer buffer = LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        BufferHolder holder = BUFFER_REUSE ? buffers.get() : null;
+        LinkedBuffer buffer = holder != null ? holder.acquire() : LinkedBuffer.allocate(MIN_BUFFER_SIZE);
+        int size = 0;
         try {
             Schema<T> schema = getSchema(cls);
-            return ProtostuffIOUtil.toByteArray(obj, schema, buffer);
+            byte[] bytes = ProtostuffIOUtil.toByteArray(obj, schema, buffer);
+            size = bytes.length;
+            return bytes;
         } catch (Exception e) {
             throw new IllegalStateException(e.getMessage(), e);
         } finally {
-            buffer.clear();
+            if (holder != null) {
+                holder.release(buffer, size);
+            }
         }
     }
 
@@ -51,14 +98,148 @@ public class ProtoStuffSerializer implements Serializer {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    public <T> void writeObject(ByteBuf out, T obj) {
+
+        Class<T> cls = (Class<T>) obj.getClass();
+        BufferHolder holder = BUFFER_REUSE ? buffers.get() : null;
+        LinkedBuffer buffer = holder != null ? holder.acquire() : LinkedBuffer.allocate(MIN_BUFFER_SIZE);
+        int start = out.writerIndex();
+        try {
+            Schema<T> schema = getSchema(cls);
+            //LinkedBuffer写满一段就直接刷到out中
+            ProtostuffIOUtil.writeTo(new ByteBufOutputStream(out), obj, schema, buffer);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            if (holder != null) {
+                holder.release(buffer, out.writerIndex() - start);
+            }
+        }
+    }
+
+    public <T> T readObject(ByteBuf in, Class<T> clazz) {
+        try {
+            T message = objenesis.newInstance(clazz);
+            Schema<T> schema = getSchema(clazz);
+            int start = in.readerIndex();
+            int length = in.readableBytes();
+            if (in.hasArray()) {
+                ProtostuffIOUtil.mergeFrom(in.array(), in.arrayOffset() + start, length, message, schema);
+            } else if (in.nioBufferCount() == 1) {
+                //直接内存, 不拷贝到堆上
+                ByteBufferInput input = new ByteBufferInput(in.nioBuffer(), true);
+                schema.mergeFrom(input, message);
+                input.checkLastTagWas(0);
+            } else {
+                ProtostuffIOUtil.mergeFrom(new ByteBufInputStream(in), message, schema);
+            }
+            in.readerIndex(start + length);
+            return message;
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 提前生成接口中所有参数和返回值类型的schema, 避免第一次调用时才生成
+     */
+    @Override
+    public void warmUp(Class<?> serviceInterface) {
+        getSchema(KirinRequest.class);
+        getSchema(KirinResponse.class);
+        Set<Class<?>> visited = new HashSet<>();
+        for (Method method : serviceInterface.getMethods()) {
+            for (Type type : method.getGenericParameterTypes()) {
+                warmUp(type, visited);
+            }
+            warmUp(method.getGenericReturnType(), visited);
+        }
+    }
+
+    private static void warmUp(Type type, Set<Class<?>> visited) {
+        if (type instanceof ParameterizedType) {
+            //CompletableFuture<T>, List<T>等, 实际序列化的是类型参数
+            warmUp(((ParameterizedType) type).getRawType(), visited);
+            for (Type arg : ((ParameterizedType) type).getActualTypeArguments()) {
+                warmUp(arg, visited);
+            }
+        } else if (type instanceof GenericArrayType) {
+            warmUp(((GenericArrayType) type).getGenericComponentType(), visited);
+        } else if (type instanceof Class) {
+            Class<?> cls = (Class<?>) type;
+            while (cls.isArray()) {
+                cls = cls.getComponentType();
+            }
+            if (!isMessage(cls) || !visited.add(cls)) {
+                return;
+            }
+            try {
+                getSchema(cls);
+            } catch (Throwable t) {
+                //只是预热, 失败时留到调用时再报错
+                return;
+            }
+            //字段中的对象类型也由RuntimeSchema序列化
+            for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        warmUp(field.getGenericType(), visited);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 由RuntimeSchema序列化的类型. 基本类型, 枚举, 接口和jdk的类由protostuff内置的方式处理
+     */
+    private static boolean isMessage(Class<?> cls) {
+        if (cls.isPrimitive() || cls.isEnum() || cls.isInterface() || Modifier.isAbstract(cls.getModifiers())) {
+            return false;
+        }
+        String name = cls.getName();
+        return !name.startsWith("java.") && !name.startsWith("javax.");
+    }
+
     @SuppressWarnings("unchecked")
     private static <T> Schema<T> getSchema(Class<T> cls) {
-        Schema<T> schema = (Schema<T>) cachedSchema.get(cls);
-        if (schema == null) {
-            schema = RuntimeSchema.createFrom(cls);
-            cachedSchema.put(cls, schema);
+        //RuntimeSchema.getSchema会把schema登记到IdStrategy中, 字段中多态的对象也能复用
+        return (Schema<T>) cachedSchema.computeIfAbsent(cls, RuntimeSchema::getSchema);
+    }
+
+    /**
+     * 线程复用的LinkedBuffer. 上一次序列化超过当前大小时换成更大的buffer, 减少分段写出的次数
+     */
+    private static final class BufferHolder {
+
+        private LinkedBuffer buffer = LinkedBuffer.allocate(MIN_BUFFER_SIZE);
+
+        private int size = MIN_BUFFER_SIZE;
+
+        //序列化中又发生序列化时(如自定义的Delegate), 内层调用使用临时的buffer
+        private boolean inUse;
+
+        LinkedBuffer acquire() {
+            if (inUse) {
+                return LinkedBuffer.allocate(MIN_BUFFER_SIZE);
+            }
+            inUse = true;
+            return buffer;
+        }
+
+        void release(LinkedBuffer used, int written) {
+            used.clear();
+            if (used != buffer) {
+                return;
+            }
+            inUse = false;
+            if (written > size && size < MAX_BUFFER_SIZE) {
+                size = Math.min(MathUtil.safeFindNextPositivePowerOfTwo(written), MAX_BUFFER_SIZE);
+                buffer = LinkedBuffer.allocate(size);
+            }
         }
-        return schema;
     }
 
 }
@@ -0,0 +1,289 @@
+package io.github.nnkwrik.kirinrpc.serializer.smile;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
+import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinResponse;
+import io.github.nnkwrik.kirinrpc.serializer.AllowedTypes;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 使用jackson的smile, 二进制的JSON.
+ * 不开启默认类型信息, 只有请求的参数和响应的结果(声明为Object)写成[类名, 值],
+ * 读取时类名必须在AllowedTypes中登记过. 直接读写字段, 不要求getter/setter, 异常只保留信息, 调用栈和cause
+ *
+ * @author nnkwrik
+ * @date 19/06/14 11:00
+ */
+public class SmileSerializer implements Serializer {
+
+    public static final byte CODE = 0x03;
+
+    private static final ObjectMapper mapper = new ObjectMapper(new SmileFactory())
+            .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+            .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false)
+            .addMixIn(KirinRequest.class, RequestMixIn.class)
+            .addMixIn(KirinResponse.class, ResponseMixIn.class);
+
+    @Override
+    public byte code() {
+        return CODE;
+    }
+
+    @Override
+    public String name() {
+        return "smile";
+    }
+
+    @Override
+    public <T> byte[] writeObject(T obj) {
+        try {
+            return mapper.writeValueAsBytes(obj);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public <T> T readObject(byte[] bytes, Class<T> clazz) {
+        try {
+            return mapper.readValue(bytes, clazz);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public <T> void writeObject(ByteBuf out, T obj) {
+        //ByteBufOutputStream同时也是DataOutput, 按OutputStream写才会缓冲
+        try {
+            mapper.writeValue((OutputStream) new ByteBufOutputStream(out), obj);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public <T> T readObject(ByteBuf in, Class<T> clazz) {
+        try {
+            int start = in.readerIndex();
+            int length = in.readableBytes();
+            T message = in.hasArray()
+                    ? mapper.readValue(in.array(), in.arrayOffset() + start, length, clazz)
+                    : mapper.readValue((InputStream) new ByteBufInputStream(in), clazz);
+            in.readerIndex(start + length);
+            return message;
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    abstract static class RequestMixIn {
+
+        @JsonDeserialize(contentUsing = AllowedClassDeserializer.class)
+        Class<?>[] argTypes;
+
+        @JsonSerialize(contentUsing = TypedValueSerializer.class)
+        @JsonDeserialize(contentUsing = TypedValueDeserializer.class)
+        Object[] args;
+    }
+
+    abstract static class ResponseMixIn {
+
+        @JsonSerialize(using = TypedValueSerializer.class)
+        @JsonDeserialize(using = TypedValueDeserializer.class)
+        Object result;
+    }
+
+    /**
+     * 把值写成[类名, 值]
+     */
+    static class TypedValueSerializer extends StdSerializer<Object> {
+
+        TypedValueSerializer() {
+            super(Object.class);
+        }
+
+        @Override
+        public void serialize(Object value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartArray();
+            gen.writeString(value.getClass().getName());
+            if (value instanceof Throwable) {
+                writeThrowable((Throwable) value, gen, provider);
+            } else {
+                provider.defaultSerializeValue(value, gen);
+            }
+            gen.writeEndArray();
+        }
+
+        /**
+         * 异常不按字段读写, Throwable的cause默认指向自己.
+         * 只写信息, 状态, 调用栈和cause, cause同样写成[类名, 值]
+         */
+        private void writeThrowable(Throwable t, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("message", t.getMessage());
+            if (t instanceof KirinRemoteException && ((KirinRemoteException) t).getStatus() != null) {
+                gen.writeStringField("status", ((KirinRemoteException) t).getStatus().name());
+            }
+            gen.writeArrayFieldStart("stackTrace");
+            for (StackTraceElement element : t.getStackTrace()) {
+                gen.writeStartArray();
+                gen.writeString(element.getClassName());
+                gen.writeString(element.getMethodName());
+                gen.writeString(element.getFileName());
+                gen.writeNumber(element.getLineNumber());
+                gen.writeEndArray();
+            }
+            gen.writeEndArray();
+            if (t.getCause() != null) {
+                gen.writeFieldName("cause");
+                serialize(t.getCause(), gen, provider);
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * 读取[类名, 值], 类名不在白名单中时失败
+     */
+    static class TypedValueDeserializer extends StdDeserializer<Object> {
+
+        TypedValueDeserializer() {
+            super(Object.class);
+        }
+
+        @Override
+        public Object deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (!p.isExpectedStartArrayToken()) {
+                throw JsonMappingException.from(p, "Expect [type, value] but got " + p.getCurrentToken());
+            }
+            Class<?> type = allowedClass(p, ctxt, p.nextTextValue());
+            p.nextToken();
+            Object value = Throwable.class.isAssignableFrom(type)
+                    ? readThrowable(p, ctxt, type)
+                    : ctxt.readValue(p, type);
+            if (p.nextToken() != JsonToken.END_ARRAY) {
+                throw JsonMappingException.from(p, "Expect the end of [type, value] but got " + p.getCurrentToken());
+            }
+            return value;
+        }
+
+        private Throwable readThrowable(JsonParser p, DeserializationContext ctxt, Class<?> type) throws IOException {
+            if (p.getCurrentToken() != JsonToken.START_OBJECT) {
+                throw JsonMappingException.from(p, "Expect an exception object but got " + p.getCurrentToken());
+            }
+            String message = null;
+            Status status = null;
+            List<StackTraceElement> stackTrace = new ArrayList<>();
+            Throwable cause = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                switch (field) {
+                    case "message":
+                        message = p.getValueAsString();
+                        break;
+                    case "status":
+                        status = Status.valueOf(p.getText());
+                        break;
+                    case "stackTrace":
+                        while (p.nextToken() == JsonToken.START_ARRAY) {
+                            String className = p.nextTextValue();
+                            String methodName = p.nextTextValue();
+                            String fileName = p.nextTextValue();
+                            int lineNumber = p.nextIntValue(-1);
+                            p.nextToken();
+                            stackTrace.add(new StackTraceElement(className, methodName, fileName, lineNumber));
+                        }
+                        break;
+                    case "cause":
+                        Object value = deserialize(p, ctxt);
+                        if (!(value instanceof Throwable)) {
+                            throw JsonMappingException.from(p, "Cause " + value + " is not an exception");
+                        }
+                        cause = (Throwable) value;
+                        break;
+                    default:
+                        p.skipChildren();
+                }
+            }
+            Throwable t = newThrowable(type, message, status, cause);
+            t.setStackTrace(stackTrace.toArray(new StackTraceElement[0]));
+            return t;
+        }
+
+        private Throwable newThrowable(Class<?> type, String message, Status status, Throwable cause) {
+            if (type == KirinRemoteException.class) {
+                return new KirinRemoteException(message, cause, status);
+            }
+            try {
+                return (Throwable) type.getConstructor(String.class, Throwable.class).newInstance(message, cause);
+            } catch (ReflectiveOperationException ignored) {
+            }
+            try {
+                Throwable t = (Throwable) type.getConstructor(String.class).newInstance(message);
+                if (cause != null) {
+                    t.initCause(cause);
+                }
+                return t;
+            } catch (ReflectiveOperationException | IllegalStateException ignored) {
+            }
+            //没有可用的构造器时保留类名和信息
+            return new KirinRemoteException(type.getName() + ": " + message, cause, status);
+        }
+    }
+
+    /**
+     * 参数类型也只接受白名单中的类
+     */
+    static class AllowedClassDeserializer extends StdDeserializer<Class<?>> {
+
+        AllowedClassDeserializer() {
+            super(Class.class);
+        }
+
+        @Override
+        public Class<?> deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            return allowedClass(p, ctxt, p.getValueAsString());
+        }
+    }
+
+    private static Class<?> allowedClass(JsonParser p, DeserializationContext ctxt, String name) throws IOException {
+        if (!AllowedTypes.isAllowed(name)) {
+            throw JsonMappingException.from(p, "Type " + name + " is not allowed to deserialize");
+        }
+        try {
+            return ctxt.findClass(name);
+        } catch (ClassNotFoundException e) {
+            throw JsonMappingException.from(p, "Unknown type " + name, e);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package io.github.nnkwrik.kirinrpc.springboot.annotation;
 
 import io.github.nnkwrik.kirinrpc.common.Constants;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.ProxyFactory;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer.LoadBalancer;
 
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -19,4 +20,22 @@ public @interface KirinConsumeService {
     String group() default Constants.ANY_GROUP;
 
     ProxyFactory.InvokerType invokeType() default ProxyFactory.InvokerType.SYNC;
+
+    //选择提供者的负载均衡策略
+    LoadBalancer.loadBalancerType loadBalancer() default LoadBalancer.loadBalancerType.RANDOM;
+
+    //CONSISTENT_HASH时用来计算hash的参数位置
+    int hashArgument() default 0;
+
+    //提供者在同一个JVM中时的调用方式, 默认总是远程调用, 参数和结果不会被对方修改
+    ProxyFactory.InjvmMode injvm() default ProxyFactory.InjvmMode.OFF;
+
+    //序列化方式, 如kryo, hessian2, smile. 指定的方式会被开启. 为空时使用提供者指定的方式
+    String serializer() default "";
+
+    //调用超时时间(毫秒)
+    long timeout() default Constants.DEFAULT_TIMEOUT;
+
+    //方法级别的配置, 优先于服务级别
+    KirinMethod[] methods() default {};
 }
@@ -0,0 +1,26 @@
+package io.github.nnkwrik.kirinrpc.springboot.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 对单个方法进行配置, 在 @KirinConsumeService 和 @KirinProvideService 的methods中使用
+ *
+ * @author nnkwrik
+ * @date 19/06/11 10:21
+ */
+@Target({})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface KirinMethod {
+
+    //方法名, 同名的重载方法共用配置
+    String name();
+
+    //调用超时时间(毫秒), 小于等于0时使用服务级别的超时时间
+    long timeout() default 0;
+
+    //提供者: 每秒最多处理的调用数, 小于等于0时使用服务级别的限制
+    int rateLimit() default 0;
+}
@@ -21,4 +21,17 @@ public @interface KirinProvideService {
 
     int wight() default Constants.DEFAULT_WIGHT;
 
+    //推荐消费者使用的序列化方式, 消费者自己指定时以消费者为准. 指定的方式会被开启,
+    //提供者只接受kirin.provider.serializers和这里开启的方式
+    String serializer() default "";
+
+    //自适应并发上限的范围: service, method或none. 不指定时使用kirin.provider.concurrencyLimit
+    String concurrencyLimit() default "";
+
+    //每个方法每秒最多处理的调用数, 小于等于0时使用kirin.provider.methodRateLimit
+    int rateLimit() default 0;
+
+    //单独配置某些方法的限流
+    KirinMethod[] methods() default {};
+
 }
@@ -1,5 +1,6 @@
 package io.github.nnkwrik.kirinrpc.springboot.config.consumer;
 
+import io.github.nnkwrik.kirinrpc.netty.cli.KChannel;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
@@ -17,4 +18,41 @@ public class ConsumerPropertiesConfig {
 
     private String registryAddress;
 
+    private Integer maxBodySize;
+
+    //到每个提供者地址的连接数
+    private Integer connections;
+
+    //连接池中选择连接的方式
+    private KChannel.PoolSelector poolSelector;
+
+    //按优先级排列的压缩算法, 以逗号分隔, 如lz4,zstd,snappy. 不配置时不压缩
+    private String compressions;
+
+    //请求的消息体达到这个字节数时压缩
+    private Integer compressThreshold;
+
+    //除默认的protostuff外开启的序列化方式, 以逗号分隔. 提供者推荐的方式没有开启时使用protostuff
+    private String serializers;
+
+    //请求在这个窗口(微秒)内合并成一个BATCH消息写出, 0时只合并已经排队的请求. 不配置时不合并
+    private Integer batchWindowMicros;
+
+    //一个BATCH消息最多包含的请求数
+    private Integer maxBatchSize;
+
+    //业务线程发出的请求交给eventLoop, 每轮只flush一次
+    private Boolean flushConsolidation;
+
+    //合并flush时最多写出这么多请求后flush一次
+    private Integer flushAfter;
+
+    //写缓冲的低水位和高水位(字节), 超过高水位时连接变为不可写
+    private Integer writeBufferLowWaterMark;
+
+    private Integer writeBufferHighWaterMark;
+
+    //选出的连接不可写时的处理方式, 默认在超时时间内等待
+    private KChannel.UnwritablePolicy unwritablePolicy;
+
 }
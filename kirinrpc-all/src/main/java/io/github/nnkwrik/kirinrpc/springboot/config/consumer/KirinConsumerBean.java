@@ -1,11 +1,15 @@
 package io.github.nnkwrik.kirinrpc.springboot.config.consumer;
 
+import io.github.nnkwrik.kirinrpc.common.Constants;
+import io.github.nnkwrik.kirinrpc.netty.cli.ConnectorManager;
 import io.github.nnkwrik.kirinrpc.registry.RegistryClient;
 import io.github.nnkwrik.kirinrpc.registry.RegistryFactory;
 import io.github.nnkwrik.kirinrpc.registry.listener.ServiceNotifyListener;
 import io.github.nnkwrik.kirinrpc.rpc.consumer.ProxyFactory;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
 import io.github.nnkwrik.kirinrpc.springboot.annotation.KirinConsumeService;
+import io.github.nnkwrik.kirinrpc.springboot.annotation.KirinMethod;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.FactoryBean;
 
@@ -31,6 +35,53 @@ public class KirinConsumerBean<T> implements FactoryBean<T> {
         this.consumerInterface = consumerInterface;
         this.consumeServiceAnnotation = consumeServiceAnnotation;
         this.registryClient = RegistryFactory.getConnectedInstance(consumerConfig.getRegistryAddress());
+        if (consumerConfig.getName() != null) {
+            ConnectorManager.getInstance().setAppName(consumerConfig.getName());
+        }
+        if (consumerConfig.getMaxBodySize() != null) {
+            ConnectorManager.getInstance().setMaxBodySize(consumerConfig.getMaxBodySize());
+        }
+        if (consumerConfig.getConnections() != null) {
+            ConnectorManager.getInstance().setConnectionsPerAddress(consumerConfig.getConnections());
+        }
+        if (consumerConfig.getPoolSelector() != null) {
+            ConnectorManager.getInstance().setPoolSelector(consumerConfig.getPoolSelector());
+        }
+        if (consumerConfig.getCompressions() != null) {
+            ConnectorManager.getInstance().setCompressions(consumerConfig.getCompressions());
+        }
+        if (consumerConfig.getCompressThreshold() != null) {
+            ConnectorManager.getInstance().setCompressThreshold(consumerConfig.getCompressThreshold());
+        }
+        if (consumerConfig.getSerializers() != null) {
+            for (String name : consumerConfig.getSerializers().split(",")) {
+                if (!name.trim().isEmpty()) {
+                    SerializerHolder.enable(name.trim());
+                }
+            }
+        }
+        if (consumerConfig.getBatchWindowMicros() != null) {
+            ConnectorManager.getInstance().setBatchWindowMicros(consumerConfig.getBatchWindowMicros());
+        }
+        if (consumerConfig.getMaxBatchSize() != null) {
+            ConnectorManager.getInstance().setMaxBatchSize(consumerConfig.getMaxBatchSize());
+        }
+        if (consumerConfig.getFlushConsolidation() != null) {
+            ConnectorManager.getInstance().setFlushConsolidation(consumerConfig.getFlushConsolidation());
+        }
+        if (consumerConfig.getFlushAfter() != null) {
+            ConnectorManager.getInstance().setFlushAfter(consumerConfig.getFlushAfter());
+        }
+        if (consumerConfig.getWriteBufferLowWaterMark() != null || consumerConfig.getWriteBufferHighWaterMark() != null) {
+            int low = consumerConfig.getWriteBufferLowWaterMark() != null
+                    ? consumerConfig.getWriteBufferLowWaterMark() : Constants.DEFAULT_WRITE_BUFFER_LOW_WATER_MARK;
+            int high = consumerConfig.getWriteBufferHighWaterMark() != null
+                    ? consumerConfig.getWriteBufferHighWaterMark() : Constants.DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK;
+            ConnectorManager.getInstance().setWriteBufferWaterMark(low, high);
+        }
+        if (consumerConfig.getUnwritablePolicy() != null) {
+            ConnectorManager.getInstance().setUnwritablePolicy(consumerConfig.getUnwritablePolicy());
+        }
     }
 
     @Override
@@ -45,10 +96,18 @@ public class KirinConsumerBean<T> implements FactoryBean<T> {
             log.warn(msg);
         }
         //创建proxy对象返回。调用proxy时实际是用netty进行远程调用
-        return ProxyFactory.factory(consumerInterface)
+        ProxyFactory<T> factory = ProxyFactory.factory(consumerInterface)
                 .group(consumeServiceAnnotation.group())
                 .invokerType(consumeServiceAnnotation.invokeType())
-                .newProxy();
+                .loadBalancer(consumeServiceAnnotation.loadBalancer())
+                .hashArgument(consumeServiceAnnotation.hashArgument())
+                .injvm(consumeServiceAnnotation.injvm())
+                .serializer(consumeServiceAnnotation.serializer())
+                .timeoutMillis(consumeServiceAnnotation.timeout());
+        for (KirinMethod method : consumeServiceAnnotation.methods()) {
+            factory.methodTimeout(method.name(), method.timeout());
+        }
+        return factory.newProxy();
     }
 
     @Override
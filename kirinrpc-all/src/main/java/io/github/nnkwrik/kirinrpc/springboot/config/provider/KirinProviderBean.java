@@ -1,12 +1,17 @@
 package io.github.nnkwrik.kirinrpc.springboot.config.provider;
 
 import io.github.nnkwrik.kirinrpc.common.util.NetUtils;
+import io.github.nnkwrik.kirinrpc.compress.Compressors;
+import io.github.nnkwrik.kirinrpc.netty.NettyTransport;
+import io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader;
 import io.github.nnkwrik.kirinrpc.netty.srv.KirinServerAcceptor;
 import io.github.nnkwrik.kirinrpc.registry.RegistryClient;
 import io.github.nnkwrik.kirinrpc.registry.RegistryFactory;
 import io.github.nnkwrik.kirinrpc.registry.model.RegisterMeta;
 import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.github.nnkwrik.kirinrpc.rpc.provider.InjvmProviders;
 import io.github.nnkwrik.kirinrpc.rpc.provider.ServiceBeanContainer;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
 import io.github.nnkwrik.kirinrpc.springboot.annotation.KirinProvideService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeansException;
@@ -48,38 +53,133 @@ public class KirinProviderBean implements ApplicationContextAware, InitializingB
         }
         this.serverAddress = findServerAddress(providerConfig);
         this.serviceContainer = new ServiceBeanContainer();
-        initRegistry();
+        List<RegisterMeta> registerMetas = initRegistry();
         initServer();
+        register(registerMetas);
     }
 
-    private void initRegistry() {
+    private List<RegisterMeta> initRegistry() {
         this.serviceContainer = new ServiceBeanContainer();
+        List<RegisterMeta> registerMetas = new ArrayList<>();
         Map<String, Object> serviceBeanMap = applicationContext.getBeansWithAnnotation(KirinProvideService.class);
-        if (serviceBeanMap == null || serviceBeanMap.isEmpty()) return;
+        if (serviceBeanMap == null || serviceBeanMap.isEmpty()) return registerMetas;
 
         //创建远程注册中心连接
         registryClient = RegistryFactory.getConnectedInstance(providerConfig.getRegistryAddress());
 
-        List<RegisterMeta> registerMetas = new ArrayList<>();
+        //只接受显式开启的序列化方式, 公布在注册中心的也只有它们
+        if (providerConfig.getSerializers() != null) {
+            for (String name : providerConfig.getSerializers().split(",")) {
+                if (!name.trim().isEmpty()) {
+                    SerializerHolder.enable(name.trim());
+                }
+            }
+        }
+        for (Object serviceBean : serviceBeanMap.values()) {
+            String serializer = serviceBean.getClass().getAnnotation(KirinProvideService.class).serializer();
+            if (!serializer.isEmpty()) {
+                SerializerHolder.enable(serializer);
+            }
+        }
+
         for (Object serviceBean : serviceBeanMap.values()) {
             //放入提供者容器
             List<ServiceMeta> serviceMetas = serviceContainer.addServiceBean(serviceBean);
-            int wight = serviceBean.getClass().getAnnotation(KirinProvideService.class).wight();
+            for (Class<?> serviceInterface : serviceBean.getClass().getInterfaces()) {
+                if (!Boolean.FALSE.equals(providerConfig.getWarmUpSerializer())) {
+                    SerializerHolder.warmUp(serviceInterface);
+                } else {
+                    SerializerHolder.register(serviceInterface);
+                }
+            }
+            KirinProvideService annotation = serviceBean.getClass().getAnnotation(KirinProvideService.class);
+            int wight = annotation.wight();
+            String serializer = annotation.serializer();
             serviceMetas.stream()
                     .map(s -> {
                         RegisterMeta.Address address =
                                 new RegisterMeta.Address(serverAddress.getAddress().getHostAddress(), serverAddress.getPort());
-                        return new RegisterMeta(providerConfig.getName(), wight, address, s);
+                        if (providerConfig.getSocketPath() != null && NettyTransport.isDomainSocketAvailable()) {
+                            address.setSocketPath(providerConfig.getSocketPath());
+                        }
+                        address.setCompressions(Compressors.names());
+                        address.setSerializers(SerializerHolder.names());
+                        address.setProtocolVersion(ProtocolHeader.VERSION);
+                        RegisterMeta meta = new RegisterMeta(providerConfig.getName(), wight, address, s);
+                        meta.setSerializer(serializer.isEmpty() ? null : serializer);
+                        return meta;
                     })
                     .forEach(registerMetas::add);
         }
 
-        //注册到远程
+        //同一个JVM中的消费者可以直接调用
+        InjvmProviders.export(serviceContainer);
+        return registerMetas;
+    }
+
+    /**
+     * 服务器启动后再注册到远程, 只公布实际在监听的地址
+     */
+    private void register(List<RegisterMeta> registerMetas) {
+        if (registerMetas.isEmpty()) return;
+        //共享内存不可用时不公布shmPath, 消费者直接使用TCP或unix domain socket
+        if (nettyServerAcceptor.isShmAccepting()) {
+            for (RegisterMeta meta : registerMetas) {
+                meta.getAddress().setShmPath(providerConfig.getShmPath());
+            }
+        }
         registryClient.register(registerMetas);
     }
 
     private void initServer() throws InterruptedException {
         nettyServerAcceptor = new KirinServerAcceptor(serviceContainer, providerConfig.getProviderPort());
+        if (providerConfig.getMaxBodySize() != null) {
+            nettyServerAcceptor.setMaxBodySize(providerConfig.getMaxBodySize());
+        }
+        nettyServerAcceptor.setSocketPath(providerConfig.getSocketPath());
+        nettyServerAcceptor.setShmPath(providerConfig.getShmPath());
+        if (providerConfig.getCompressThreshold() != null) {
+            nettyServerAcceptor.setCompressThreshold(providerConfig.getCompressThreshold());
+        }
+        if (providerConfig.getBatchWindowMicros() != null) {
+            nettyServerAcceptor.setBatchWindowMicros(providerConfig.getBatchWindowMicros());
+        }
+        if (providerConfig.getMaxBatchSize() != null) {
+            nettyServerAcceptor.setMaxBatchSize(providerConfig.getMaxBatchSize());
+        }
+        if (providerConfig.getFlushConsolidation() != null) {
+            nettyServerAcceptor.setFlushConsolidation(providerConfig.getFlushConsolidation());
+        }
+        if (providerConfig.getFlushAfter() != null) {
+            nettyServerAcceptor.setFlushAfter(providerConfig.getFlushAfter());
+        }
+        if (providerConfig.getQueueTargetMillis() != null) {
+            nettyServerAcceptor.setQueueTargetMillis(providerConfig.getQueueTargetMillis());
+        }
+        if (providerConfig.getQueueIntervalMillis() != null) {
+            nettyServerAcceptor.setQueueIntervalMillis(providerConfig.getQueueIntervalMillis());
+        }
+        if (providerConfig.getMaxQueueTimeMillis() != null) {
+            nettyServerAcceptor.setMaxQueueTimeMillis(providerConfig.getMaxQueueTimeMillis());
+        }
+        if (providerConfig.getConcurrencyLimit() != null) {
+            nettyServerAcceptor.setConcurrencyLimit(providerConfig.getConcurrencyLimit());
+        }
+        if (providerConfig.getInitialConcurrency() != null) {
+            nettyServerAcceptor.setInitialConcurrency(providerConfig.getInitialConcurrency());
+        }
+        if (providerConfig.getMaxConcurrency() != null) {
+            nettyServerAcceptor.setMaxConcurrency(providerConfig.getMaxConcurrency());
+        }
+        if (providerConfig.getAppRateLimits() != null) {
+            nettyServerAcceptor.setAppRateLimits(providerConfig.getAppRateLimits());
+        }
+        if (providerConfig.getDefaultAppRateLimit() != null) {
+            nettyServerAcceptor.setDefaultAppRateLimit(providerConfig.getDefaultAppRateLimit());
+        }
+        if (providerConfig.getMethodRateLimit() != null) {
+            nettyServerAcceptor.setMethodRateLimit(providerConfig.getMethodRateLimit());
+        }
         nettyServerAcceptor.start(false);
     }
 
@@ -1,7 +1,10 @@
 package io.github.nnkwrik.kirinrpc.springboot.config.provider;
 
+import io.github.nnkwrik.kirinrpc.rpc.provider.ConcurrencyLimiters;
 import lombok.Data;
 
+import java.util.Map;
+
 /**
  * @author nnkwrik
  * @date 19/04/27 11:11
@@ -17,4 +20,59 @@ public class ProviderConfig {
 
     private String registryAddress;
 
+    private Integer maxBodySize;
+
+    //unix domain socket的路径, 同一台主机上的消费者通过它调用
+    private String socketPath;
+
+    //共享内存会话的目录, 同一台主机上的消费者通过共享内存调用
+    private String shmPath;
+
+    //响应的消息体达到这个字节数时压缩, 只对表示过能接受压缩的消费者生效
+    private Integer compressThreshold;
+
+    //除默认的protostuff外开启的序列化方式, 以逗号分隔, 如kryo,hessian2. 只接受开启的方式序列化的请求
+    private String serializers;
+
+    //业务线程在这个窗口(微秒)内发出的响应合并成一个BATCH消息写出, 0时只合并已经排队的响应. 不配置时不合并
+    private Integer batchWindowMicros;
+
+    //一个BATCH消息最多包含的响应数
+    private Integer maxBatchSize;
+
+    //业务线程发出的响应交给eventLoop, 每轮只flush一次
+    private Boolean flushConsolidation;
+
+    //合并flush时最多写出这么多响应后flush一次
+    private Integer flushAfter;
+
+    //CoDel的目标排队时间(毫秒), 周期内最短的排队时间超过它时直接回复SERVER_BUSY. 不配置时不启用
+    private Integer queueTargetMillis;
+
+    //CoDel的周期(毫秒), 默认100
+    private Integer queueIntervalMillis;
+
+    //请求在队列中等待超过这个时间(毫秒)时不再执行, 回复SERVER_BUSY. 不配置时不限制
+    private Integer maxQueueTimeMillis;
+
+    //服务默认的自适应并发上限范围, 服务可以用KirinProvideService#concurrencyLimit覆盖. 不配置时不限制
+    private ConcurrencyLimiters.Scope concurrencyLimit;
+
+    //自适应并发上限的初始值和最大值
+    private Integer initialConcurrency;
+
+    private Integer maxConcurrency;
+
+    //每个消费者应用每秒最多发起的调用数, key是应用名(消费者的kirin.consumer.name)
+    private Map<String, Integer> appRateLimits;
+
+    //没有单独配置的应用每秒最多发起的调用数. 不配置时不限制
+    private Integer defaultAppRateLimit;
+
+    //每个方法每秒最多处理的调用数, 服务可以用KirinProvideService#rateLimit覆盖. 不配置时不限制
+    private Integer methodRateLimit;
+
+    //启动时为服务接口中的参数和返回值类型预先生成序列化的schema, 默认开启
+    private Boolean warmUpSerializer;
+
 }
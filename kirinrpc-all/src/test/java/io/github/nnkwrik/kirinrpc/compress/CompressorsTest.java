@@ -0,0 +1,154 @@
+package io.github.nnkwrik.kirinrpc.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.handler.codec.compression.DecompressionException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 17:30
+ */
+public class CompressorsTest {
+
+    private final ByteBufAllocator alloc = UnpooledByteBufAllocator.DEFAULT;
+
+    private ByteBuf text(int length) {
+        ByteBuf buf = alloc.buffer(length);
+        byte[] line = "kirinrpc compress round trip\n".getBytes(StandardCharsets.UTF_8);
+        while (buf.readableBytes() < length) {
+            buf.writeBytes(line, 0, Math.min(line.length, length - buf.readableBytes()));
+        }
+        return buf;
+    }
+
+    private Compressor[] compressors() {
+        String[] names = Compressors.names().split(",");
+        Compressor[] compressors = new Compressor[names.length];
+        for (int i = 0; i < names.length; i++) {
+            compressors[i] = Compressors.negotiate(names[i], Compressors.names());
+            assertEquals(names[i], compressors[i].name());
+        }
+        return compressors;
+    }
+
+    @Test
+    public void roundTrip() {
+        for (Compressor compressor : compressors()) {
+            ByteBuf content = text(8192);
+            ByteBuf expected = content.copy();
+            ByteBuf compressed = Compressors.compress(alloc, compressor, content, 0);
+            assertNotNull(compressor.name(), compressed);
+            assertEquals(0, content.refCnt());
+            assertTrue(compressed.readableBytes() < 8192);
+
+            ByteBuf decompressed = Compressors.decompress(alloc, compressed, 8192);
+            assertEquals(compressor.name(), expected, decompressed);
+            compressed.release();
+            decompressed.release();
+            expected.release();
+        }
+    }
+
+    @Test
+    public void rejectLengthOverLimit() {
+        for (Compressor compressor : compressors()) {
+            ByteBuf compressed = Compressors.compress(alloc, compressor, text(8192), 0);
+            try {
+                Compressors.decompress(alloc, compressed, 8191);
+                fail(compressor.name());
+            } catch (DecompressionException e) {
+                //解压前按声明的长度拒绝
+            }
+
+            //声明的长度被篡改
+            compressed.setInt(compressed.readerIndex() + 1, Integer.MAX_VALUE);
+            try {
+                Compressors.decompress(alloc, compressed, 8192);
+                fail(compressor.name());
+            } catch (DecompressionException e) {
+                //ok
+            }
+            compressed.setInt(compressed.readerIndex() + 1, -1);
+            try {
+                Compressors.decompress(alloc, compressed, 8192);
+                fail(compressor.name());
+            } catch (DecompressionException e) {
+                //ok
+            }
+            compressed.release();
+        }
+    }
+
+    @Test
+    public void rejectLengthShorterThanData() {
+        for (Compressor compressor : compressors()) {
+            ByteBuf compressed = Compressors.compress(alloc, compressor, text(8192), 0);
+            //输出的容量固定为声明的长度, 实际数据更长时失败而不是扩容
+            compressed.setInt(compressed.readerIndex() + 1, 100);
+            try {
+                Compressors.decompress(alloc, compressed, 8192);
+                fail(compressor.name());
+            } catch (RuntimeException e) {
+                //ok
+            }
+            compressed.release();
+        }
+    }
+
+    @Test
+    public void rejectUnknownCompressorAndShortBody() {
+        ByteBuf body = alloc.buffer().writeByte(15).writeInt(10).writeLong(0);
+        try {
+            Compressors.decompress(alloc, body, 8192);
+            fail();
+        } catch (DecompressionException e) {
+            //ok
+        }
+        body.clear().writeByte(1).writeByte(0);
+        try {
+            Compressors.decompress(alloc, body, 8192);
+            fail();
+        } catch (DecompressionException e) {
+            //ok
+        }
+        body.release();
+    }
+
+    @Test
+    public void skipSmallOrIncompressibleBody() {
+        for (Compressor compressor : compressors()) {
+            ByteBuf small = text(100);
+            assertNull(Compressors.compress(alloc, compressor, small, 1024));
+            assertEquals(1, small.refCnt());
+            small.release();
+
+            byte[] random = new byte[4096];
+            new Random(42).nextBytes(random);
+            ByteBuf incompressible = alloc.buffer().writeBytes(random);
+            assertNull(Compressors.compress(alloc, compressor, incompressible, 0));
+            assertEquals(1, incompressible.refCnt());
+            assertEquals(4096, incompressible.readableBytes());
+            incompressible.release();
+        }
+        ByteBuf content = text(8192);
+        assertNull(Compressors.compress(alloc, null, content, 0));
+        content.release();
+    }
+
+    @Test
+    public void negotiateByPreferredOrder() {
+        String[] names = Compressors.names().split(",");
+        String last = names[names.length - 1];
+        assertEquals(last, Compressors.negotiate("unknown," + last, Compressors.names()).name());
+        assertNull(Compressors.negotiate("unknown", Compressors.names()));
+        assertNull(Compressors.negotiate(last, null));
+        assertNull(Compressors.negotiate(null, Compressors.names()));
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.nnkwrik.kirinrpc.netty.cli;
+
+import io.github.nnkwrik.kirinrpc.registry.model.RegisterMeta;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.PendingCallRegistry;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.invoker.RPCFuture;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.SocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * 连接的写缓冲超过高水位时, 各UnwritablePolicy的处理
+ *
+ * @author nnkwrik
+ * @date 19/06/26 19:00
+ */
+public class KChannelTest {
+
+    private final ServiceMeta service = new ServiceMeta("io.github.nnkwrik.TestService", "*");
+
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+
+    private final NettyConnector connector = new NettyConnector(1) {
+
+        @Override
+        protected void init() {
+        }
+
+        @Override
+        public Channel connect(SocketAddress remoteAddress, SocketAddress fallbackAddress, boolean handshake) {
+            return channel;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private KChannel kChannel;
+
+    @Before
+    public void setUp() {
+        kChannel = KChannel.connect(connector, new RegisterMeta("test", 100, new RegisterMeta.Address("127.0.0.1", 7070), service));
+        //写入但不flush, 让写缓冲超过高水位
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+        channel.write(Unpooled.wrappedBuffer(new byte[32]));
+        assertFalse(channel.isWritable());
+        assertFalse(kChannel.isWritable());
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    private KirinRequest request() {
+        KirinRequest request = new KirinRequest();
+        request.setServiceMeta(service);
+        request.setMethodName("hello");
+        request.setArgTypes(new Class<?>[]{String.class});
+        request.setArgs(new Object[]{"kirin"});
+        return request;
+    }
+
+    private void assertRejected(RPCFuture<Object> future) {
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(RPCFuture.Status.ERROR, future.status());
+        //被拒绝的调用没有登记, 也没有写出
+        PendingCallRegistry registry = PendingCallRegistry.get(channel);
+        assertTrue(registry == null || registry.pending() == 0);
+        assertEquals(1, kChannel.stats().rejectedWrites());
+    }
+
+    @Test
+    public void failFast() {
+        kChannel.setUnwritablePolicy(KChannel.UnwritablePolicy.FAIL_FAST);
+        assertRejected(kChannel.write(1, request(), SerializerHolder.serializerImpl(), 1000));
+        assertEquals(0, kChannel.stats().blockedWrites());
+    }
+
+    @Test
+    public void blockOnEventLoopFailsFast() {
+        //EmbeddedChannel的调用方就在它的eventLoop上, 等待只会让连接永远不可写
+        kChannel.setUnwritablePolicy(KChannel.UnwritablePolicy.BLOCK);
+        assertRejected(kChannel.write(1, request(), SerializerHolder.serializerImpl(), 1000));
+        assertEquals(0, kChannel.stats().blockedWrites());
+    }
+
+    @Test
+    public void blockUntilTimeout() {
+        long begin = System.currentTimeMillis();
+        assertFalse(kChannel.stats().awaitWritable(channel, 50));
+        assertTrue(System.currentTimeMillis() - begin >= 40);
+        assertEquals(1, kChannel.stats().blockedWrites());
+    }
+
+    @Test
+    public void writeIgnoresWaterMark() {
+        kChannel.setUnwritablePolicy(KChannel.UnwritablePolicy.WRITE);
+        RPCFuture<Object> future = kChannel.write(1, request(), SerializerHolder.serializerImpl(), 1000);
+        assertFalse(future.isDone());
+        assertEquals(1, PendingCallRegistry.get(channel).pending());
+        assertEquals(0, kChannel.stats().rejectedWrites());
+
+        //之前写入的数据和这次的请求都被写出
+        ReferenceCountUtil.release(channel.readOutbound());
+        Object payload = channel.readOutbound();
+        assertNotNull(payload);
+        ReferenceCountUtil.release(payload);
+        assertTrue(channel.isWritable());
+        future.cancel(false);
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.nnkwrik.kirinrpc.netty.cli;
+
+import io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader;
+import io.github.nnkwrik.kirinrpc.registry.model.RegisterMeta;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.net.SocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 18:40
+ */
+public class NettyConnectorTest {
+
+    private Boolean handshake;
+
+    private final NettyConnector connector = new NettyConnector(1) {
+
+        @Override
+        protected void init() {
+        }
+
+        @Override
+        public Channel connect(SocketAddress remoteAddress, SocketAddress fallbackAddress, boolean handshake) {
+            NettyConnectorTest.this.handshake = handshake;
+            return new EmbeddedChannel();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    @Test
+    public void noHandshakeWithoutAdvertisedVersion() {
+        //老版本的提供者在注册中心中没有protocolVersion
+        connector.connect(new RegisterMeta.Address("127.0.0.1", 7070));
+        assertFalse(handshake);
+    }
+
+    @Test
+    public void handshakeWithAdvertisedVersion() {
+        RegisterMeta.Address address = new RegisterMeta.Address("127.0.0.1", 7070);
+        address.setProtocolVersion(ProtocolHeader.VERSION);
+        connector.connect(address);
+        assertTrue(handshake);
+    }
+
+    @Test
+    public void handshakeWithDirectAddress() {
+        connector.connect("127.0.0.1", 7070);
+        assertTrue(handshake);
+    }
+}
@@ -0,0 +1,50 @@
+package io.github.nnkwrik.kirinrpc.netty.cli;
+
+import io.github.nnkwrik.kirinrpc.registry.model.RegisterMeta;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.net.SocketAddress;
+
+/**
+ * 测试用, 创建不需要真实连接的KChannel和快照
+ *
+ * @author nnkwrik
+ * @date 19/06/26 17:10
+ */
+public final class TestChannels {
+
+    private static final NettyConnector connector = new NettyConnector(1) {
+
+        @Override
+        protected void init() {
+        }
+
+        @Override
+        public Channel connect(SocketAddress remoteAddress, SocketAddress fallbackAddress, boolean handshake) {
+            return new EmbeddedChannel();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private TestChannels() {
+    }
+
+    /**
+     * 到host:port的KChannel, 连接为EmbeddedChannel, 没有预热
+     */
+    public static KChannel kChannel(ServiceMeta service, String host, int port) {
+        RegisterMeta.Address address = new RegisterMeta.Address(host, port);
+        KChannel channel = KChannel.connect(connector, new RegisterMeta("test", 100, address, service));
+        channel.setWarmUpTime(0);
+        return channel;
+    }
+
+    public static ChannelSnapshot snapshot(ServiceMeta service, long version, KChannel... channels) {
+        return ChannelSnapshot.build(service, channels, version, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,192 @@
+package io.github.nnkwrik.kirinrpc.netty.handler;
+
+import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
+import io.github.nnkwrik.kirinrpc.netty.model.ResponsePayload;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import org.junit.After;
+import org.junit.Test;
+
+import static io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 16:20
+ */
+public class ProtocolDecoderTest {
+
+    private EmbeddedChannel channel = new EmbeddedChannel(new ProtocolDecoder(1024));
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    static ByteBuf frame(byte sign, byte status, long id, byte[] body) {
+        ByteBuf buf = Unpooled.buffer(HEADER_SIZE + body.length);
+        buf.writeShort(MAGIC)
+                .writeByte(sign)
+                .writeByte(status)
+                .writeLong(id)
+                .writeInt(body.length)
+                .writeBytes(body);
+        return buf;
+    }
+
+    @Test
+    public void decodeRequest() {
+        assertTrue(channel.writeInbound(frame(REQUEST, (byte) 0, 7, new byte[]{1, 2, 3})));
+        RequestPayload payload = channel.readInbound();
+        try {
+            assertEquals(7, payload.id());
+            assertEquals(-1, payload.methodId());
+            assertEquals(3, payload.content().readableBytes());
+        } finally {
+            payload.release();
+        }
+        assertNull(channel.readInbound());
+    }
+
+    static ByteBuf batch(int count, ByteBuf subFrames) {
+        ByteBuf buf = Unpooled.buffer(HEADER_SIZE + subFrames.readableBytes());
+        buf.writeShort(MAGIC)
+                .writeByte(BATCH)
+                .writeByte(0)
+                .writeLong(count)
+                .writeInt(subFrames.readableBytes())
+                .writeBytes(subFrames);
+        subFrames.release();
+        return buf;
+    }
+
+    static ByteBuf subFrame(ByteBuf buf, byte sign, long id, int length, byte[] body) {
+        return buf.writeByte(sign).writeByte(0).writeLong(id).writeInt(length).writeBytes(body);
+    }
+
+    @Test
+    public void waitForTruncatedFrame() {
+        ByteBuf frame = frame(RESPONSE, (byte) 0, 9, new byte[]{1, 2, 3, 4, 5});
+        //半个协议头, 完整的协议头但消息体不完整, 都要等待更多数据
+        assertFalse(channel.writeInbound(frame.readRetainedSlice(10)));
+        assertFalse(channel.writeInbound(frame.readRetainedSlice(8)));
+        assertNull(channel.readInbound());
+
+        assertTrue(channel.writeInbound(frame));
+        ResponsePayload payload = channel.readInbound();
+        try {
+            assertEquals(9, payload.id());
+            assertEquals(5, payload.content().readableBytes());
+        } finally {
+            payload.release();
+        }
+    }
+
+    @Test
+    public void decodeMultipleFramesInOneRead() {
+        ByteBuf buf = Unpooled.wrappedBuffer(
+                frame(REQUEST, (byte) 0, 1, new byte[]{1}),
+                frame(HEARTBEAT, (byte) 0, 0, new byte[0]),
+                frame(RESPONSE, (byte) 0, 2, new byte[]{2, 2}));
+        assertTrue(channel.writeInbound(buf));
+        RequestPayload request = channel.readInbound();
+        ResponsePayload response = channel.readInbound();
+        try {
+            assertEquals(1, request.id());
+            assertEquals(2, response.id());
+        } finally {
+            request.release();
+            response.release();
+        }
+        assertNull(channel.readInbound());
+    }
+
+    @Test(expected = TooLongFrameException.class)
+    public void rejectOversizedBody() {
+        //只有协议头, 不等消息体到达就拒绝
+        ByteBuf buf = Unpooled.buffer(HEADER_SIZE);
+        buf.writeShort(MAGIC).writeByte(REQUEST).writeByte(0).writeLong(1).writeInt(1025);
+        channel.writeInbound(buf);
+    }
+
+    @Test(expected = TooLongFrameException.class)
+    public void rejectNegativeBodyLength() {
+        ByteBuf buf = Unpooled.buffer(HEADER_SIZE);
+        buf.writeShort(MAGIC).writeByte(REQUEST).writeByte(0).writeLong(1).writeInt(-1);
+        channel.writeInbound(buf);
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void rejectBadMagic() {
+        //只有2个字节时就校验
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{0x12, 0x34}));
+    }
+
+    @Test
+    public void splitBatch() {
+        ByteBuf subFrames = Unpooled.buffer();
+        subFrame(subFrames, RESPONSE, 1, 1, new byte[]{1});
+        //嵌套的BATCH被跳过
+        subFrame(subFrames, BATCH, 2, 2, new byte[]{2, 2});
+        subFrame(subFrames, RESPONSE, 3, 0, new byte[0]);
+        assertTrue(channel.writeInbound(batch(3, subFrames)));
+
+        ResponsePayload first = channel.readInbound();
+        ResponsePayload second = channel.readInbound();
+        try {
+            assertEquals(1, first.id());
+            assertEquals(1, first.content().readableBytes());
+            assertEquals(3, second.id());
+            assertEquals(0, second.content().readableBytes());
+        } finally {
+            first.release();
+            second.release();
+        }
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void skipTruncatedSubHeader() {
+        ByteBuf subFrames = Unpooled.buffer();
+        subFrame(subFrames, RESPONSE, 1, 1, new byte[]{1});
+        //数量多于实际的子消息, 剩下的字节不够一个子消息头
+        subFrames.writeBytes(new byte[SUB_HEADER_SIZE - 1]);
+        ByteBuf buf = Unpooled.wrappedBuffer(batch(5, subFrames), frame(RESPONSE, (byte) 0, 2, new byte[0]));
+        assertTrue(channel.writeInbound(buf));
+
+        ResponsePayload first = channel.readInbound();
+        ResponsePayload next = channel.readInbound();
+        try {
+            assertEquals(1, first.id());
+            //跳过剩下的字节后, 后面的帧照常解码
+            assertEquals(2, next.id());
+        } finally {
+            first.release();
+            next.release();
+        }
+        assertNull(channel.readInbound());
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void rejectOversizedSubFrame() {
+        ByteBuf subFrames = Unpooled.buffer();
+        //子消息的长度超出了BATCH的消息体
+        subFrame(subFrames, RESPONSE, 1, 100, new byte[]{1, 2, 3});
+        channel.writeInbound(batch(1, subFrames));
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void rejectNegativeSubFrameLength() {
+        ByteBuf subFrames = Unpooled.buffer();
+        subFrame(subFrames, REQUEST, 1, -1, new byte[0]);
+        channel.writeInbound(batch(1, subFrames));
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void rejectShortMethodIdBody() {
+        channel.writeInbound(frame(REQUEST_METHOD, (byte) 0, 1, new byte[]{1, 2}));
+    }
+}
@@ -0,0 +1,42 @@
+package io.github.nnkwrik.kirinrpc.netty.handler.cli;
+
+import io.github.nnkwrik.kirinrpc.netty.model.HandshakePayload;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 18:30
+ */
+public class ConnectorHandlerTest {
+
+    //handler在连接建立后才加入, 由测试触发channelActive
+    private EmbeddedChannel activate(Boolean handshake) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        if (handshake != null) {
+            ConnectorHandler.setHandshake(channel, handshake);
+        }
+        channel.pipeline().addLast(new ConnectorHandler(null));
+        channel.pipeline().fireChannelActive();
+        return channel;
+    }
+
+    @Test
+    public void noHandshakeToOldProvider() {
+        //老版本的提供者收到握手会断开连接, 没有公布协议版本时什么都不发送
+        assertNull(activate(null).readOutbound());
+        assertNull(activate(false).readOutbound());
+    }
+
+    @Test
+    public void handshakeToNewProvider() {
+        EmbeddedChannel channel = activate(true);
+        Object msg = channel.readOutbound();
+        assertTrue(msg instanceof HandshakePayload);
+        ReferenceCountUtil.release(msg);
+        assertNull(channel.readOutbound());
+    }
+}
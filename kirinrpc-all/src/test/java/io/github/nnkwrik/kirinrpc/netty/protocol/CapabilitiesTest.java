@@ -0,0 +1,77 @@
+package io.github.nnkwrik.kirinrpc.netty.protocol;
+
+import io.github.nnkwrik.kirinrpc.compress.Compressors;
+import io.github.nnkwrik.kirinrpc.rpc.model.Handshake;
+import io.github.nnkwrik.kirinrpc.serializer.Serializer;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 18:50
+ */
+public class CapabilitiesTest {
+
+    private final Serializer protostuff = SerializerHolder.serializerImpl();
+
+    /**
+     * 第一版的握手, 只有方法表
+     */
+    static class FirstHandshake {
+        private List<Handshake.MethodId> methods = new ArrayList<>();
+    }
+
+    private static Handshake withMethod(Handshake handshake) {
+        handshake.getMethods().add(new Handshake.MethodId("service", "group", "hello",
+                new String[]{String.class.getName()}, Handshake.methodId(1, 2)));
+        return handshake;
+    }
+
+    @Test
+    public void negotiateWithPeer() {
+        Handshake local = Handshake.local(Compressors.names(), 1024, 30000);
+        Handshake peer = Handshake.local(Compressors.names(), 2048, 60000);
+        peer.setSerializers(protostuff.name() + ",unknown");
+
+        Capabilities capabilities = new Capabilities(local, peer,
+                Compressors.negotiate(local.getCompressions(), peer.getCompressions()));
+        assertEquals(ProtocolHeader.VERSION, capabilities.version());
+        assertTrue(capabilities.supportsSerializer(protostuff.code()));
+        assertFalse(capabilities.supportsSerializer(15));
+        assertFalse(capabilities.supportsSerializer(-1));
+        assertEquals(2048, capabilities.peerMaxBodySize());
+        assertEquals(60000, capabilities.peerHeartbeatMillis());
+    }
+
+    @Test
+    public void readFirstVersionHandshake() {
+        //只发送方法表的对端, 协商的字段都是默认值
+        FirstHandshake first = new FirstHandshake();
+        first.methods.addAll(withMethod(new Handshake()).getMethods());
+        Handshake peer = protostuff.readObject(protostuff.writeObject(first), Handshake.class);
+        assertEquals(1, peer.getMethods().size());
+        assertEquals("hello", peer.getMethods().get(0).getMethodName());
+        assertEquals(Handshake.methodId(1, 2), peer.getMethods().get(0).getId());
+
+        Capabilities capabilities = new Capabilities(Handshake.local(null, 1024, 30000), peer, null);
+        assertEquals(0, capabilities.version());
+        assertNull(capabilities.compressor());
+        assertTrue(capabilities.supportsSerializer(protostuff.code()));
+        assertEquals(Integer.MAX_VALUE, capabilities.peerMaxBodySize());
+    }
+
+    @Test
+    public void firstVersionPeerReadsMethods() {
+        //第一版的对端跳过不认识的字段, 方法表的编号不能改变
+        Handshake handshake = withMethod(Handshake.local(Compressors.names(), 1024, 30000));
+        FirstHandshake first = protostuff.readObject(protostuff.writeObject(handshake), FirstHandshake.class);
+        assertEquals(1, first.methods.size());
+        assertEquals("hello", first.methods.get(0).getMethodName());
+        assertArrayEquals(new String[]{String.class.getName()}, first.methods.get(0).getParameterTypes());
+    }
+}
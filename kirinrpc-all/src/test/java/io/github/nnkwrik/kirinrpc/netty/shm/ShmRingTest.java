@@ -0,0 +1,149 @@
+package io.github.nnkwrik.kirinrpc.netty.shm;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 17:40
+ */
+public class ShmRingTest {
+
+    private static final int CAPACITY = 16;
+
+    //环不在映射文件的开头, 检查偏移的计算
+    private static final int OFFSET = 64;
+
+    private static ShmRing newRing(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(OFFSET + ShmRing.size(capacity));
+        return new ShmRing(buffer, PlatformDependent.directBufferAddress(buffer), OFFSET, capacity);
+    }
+
+    private static ByteBuf bytes(int from, int length) {
+        ByteBuf buf = Unpooled.buffer(length);
+        for (int i = 0; i < length; i++) {
+            buf.writeByte(from + i);
+        }
+        return buf;
+    }
+
+    private static void assertBytes(ByteBuf buf, int from, int length) {
+        assertEquals(length, buf.readableBytes());
+        for (int i = 0; i < length; i++) {
+            assertEquals((byte) (from + i), buf.readByte());
+        }
+    }
+
+    @Test
+    public void writeThenRead() {
+        ShmRing ring = newRing(CAPACITY);
+        assertEquals(0, ring.readable());
+        assertEquals(5, ring.write(bytes(0, 5)));
+        assertEquals(5, ring.readable());
+
+        ByteBuf dst = Unpooled.buffer(CAPACITY);
+        assertEquals(5, ring.read(dst));
+        assertBytes(dst, 0, 5);
+        assertEquals(0, ring.readable());
+        assertEquals(0, ring.read(Unpooled.buffer(CAPACITY)));
+    }
+
+    @Test
+    public void writeUntilFull() {
+        ShmRing ring = newRing(CAPACITY);
+        ByteBuf src = bytes(0, CAPACITY + 4);
+        assertEquals(CAPACITY, ring.write(src));
+        assertEquals(4, src.readableBytes());
+        assertEquals(0, ring.write(src));
+
+        //读出一部分后可以继续写
+        ByteBuf dst = Unpooled.buffer(6);
+        assertEquals(6, ring.read(dst));
+        assertBytes(dst, 0, 6);
+        assertEquals(4, ring.write(src));
+        assertEquals(CAPACITY - 2, ring.readable());
+    }
+
+    @Test
+    public void wrapAround() {
+        ShmRing ring = newRing(CAPACITY);
+        int next = 0;
+        int expected = 0;
+        //每次写入的长度和容量互质, 写和读的位置会落在环的每个位置上并跨过末尾
+        for (int round = 0; round < 200; round++) {
+            int length = 1 + round % 7;
+            ByteBuf src = bytes(next, length);
+            int written = ring.write(src);
+            next += written;
+
+            ByteBuf dst = Unpooled.buffer(5);
+            int read = ring.read(dst);
+            assertBytes(dst, expected, read);
+            expected += read;
+            assertEquals(next - expected, ring.readable());
+        }
+        ByteBuf rest = Unpooled.buffer(CAPACITY);
+        ring.read(rest);
+        assertBytes(rest, expected, next - expected);
+    }
+
+    @Test
+    public void readIntoSmallBuffer() {
+        ShmRing ring = newRing(CAPACITY);
+        ring.write(bytes(0, 10));
+        ByteBuf dst = Unpooled.buffer(3, 3);
+        assertEquals(3, ring.read(dst));
+        assertBytes(dst, 0, 3);
+        assertEquals(7, ring.readable());
+    }
+
+    @Test
+    public void producerAndConsumerThreads() throws InterruptedException {
+        ShmRing ring = newRing(1024);
+        int total = 4 * 1024 * 1024;
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Thread producer = new Thread(() -> {
+            int sent = 0;
+            while (sent < total) {
+                ByteBuf src = bytes(sent, Math.min(777, total - sent));
+                while (src.isReadable()) {
+                    sent += ring.write(src);
+                }
+            }
+        });
+        Thread consumer = new Thread(() -> {
+            try {
+                int received = 0;
+                ByteBuf dst = Unpooled.buffer(500);
+                while (received < total) {
+                    dst.clear();
+                    int n = ring.read(dst);
+                    for (int i = 0; i < n; i++) {
+                        if (dst.readByte() != (byte) (received + i)) {
+                            throw new AssertionError("corrupted at " + (received + i));
+                        }
+                    }
+                    received += n;
+                }
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        producer.setDaemon(true);
+        consumer.setDaemon(true);
+        producer.start();
+        consumer.start();
+        consumer.join(60000);
+        assertFalse("consumer did not finish", consumer.isAlive());
+        assertNull(error.get());
+        assertEquals(0, ring.readable());
+    }
+}
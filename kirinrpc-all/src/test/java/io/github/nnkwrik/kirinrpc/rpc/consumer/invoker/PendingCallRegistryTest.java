@@ -0,0 +1,137 @@
+package io.github.nnkwrik.kirinrpc.rpc.consumer.invoker;
+
+import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
+import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 16:50
+ */
+public class PendingCallRegistryTest {
+
+    private final PendingCallRegistry registry = PendingCallRegistry.of(new EmbeddedChannel());
+
+    @Test
+    public void attachToChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        assertNull(PendingCallRegistry.get(channel));
+        PendingCallRegistry created = PendingCallRegistry.of(channel);
+        assertSame(created, PendingCallRegistry.of(channel));
+        assertSame(created, PendingCallRegistry.get(channel));
+    }
+
+    @Test
+    public void idsInDifferentStripesDoNotCollide() {
+        //0和1段内的key相同, 1和17在同一段
+        long[] ids = {0, 1, 15, 16, 17, 1L << 40, (1L << 40) + 1, Long.MAX_VALUE, -1};
+        List<RPCFuture> futures = new ArrayList<>();
+        for (long id : ids) {
+            RPCFuture future = new RPCFuture(id);
+            futures.add(future);
+            registry.put(id, future);
+        }
+        assertEquals(ids.length, registry.pending());
+        assertEquals(ids.length, registry.size());
+
+        for (int i = 0; i < ids.length; i++) {
+            assertSame(futures.get(i), registry.remove(ids[i]));
+            assertNull(registry.remove(ids[i]));
+        }
+        assertEquals(0, registry.pending());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void replaceSameIdCountsOnce() {
+        registry.put(3, new RPCFuture(3));
+        RPCFuture second = new RPCFuture(3);
+        registry.put(3, second);
+        assertEquals(1, registry.pending());
+        assertSame(second, registry.remove(3));
+        assertEquals(0, registry.pending());
+    }
+
+    @Test
+    public void concurrentPutAndRemove() throws InterruptedException {
+        int threads = 8;
+        int perThread = 10000;
+        AtomicLong ids = new AtomicLong();
+        AtomicInteger lost = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    long id = ids.getAndIncrement();
+                    RPCFuture future = new RPCFuture(id);
+                    registry.put(id, future);
+                    if (registry.remove(id) != future) {
+                        lost.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, lost.get());
+        assertEquals(0, registry.pending());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void expireAfterTimeout() throws InterruptedException {
+        RPCFuture future = new RPCFuture(5);
+        registry.put(5, future, 20);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof KirinRemoteException);
+            assertEquals(Status.CLIENT_TIMEOUT, ((KirinRemoteException) e.getCause()).getStatus());
+        } catch (TimeoutException e) {
+            fail("timer did not fire");
+        }
+        assertEquals(RPCFuture.Status.FAIL, future.status());
+        assertNull(registry.remove(5));
+        assertEquals(0, registry.pending());
+    }
+
+    @Test
+    public void cancelRemovesPendingCall() {
+        RPCFuture future = new RPCFuture(6);
+        registry.put(6, future, 60000);
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertEquals(0, registry.pending());
+        assertNull(registry.remove(6));
+    }
+
+    @Test
+    public void failAllCompletesEveryCall() {
+        List<RPCFuture> futures = new ArrayList<>();
+        for (long id = 0; id < 100; id++) {
+            RPCFuture future = new RPCFuture(id);
+            futures.add(future);
+            registry.put(id, future);
+        }
+        KirinRemoteException cause = new KirinRemoteException("closed", Status.CLIENT_ERROR);
+        assertEquals(100, registry.failAll(cause));
+        assertEquals(0, registry.pending());
+        for (RPCFuture future : futures) {
+            assertTrue(future.isCompletedExceptionally());
+            assertEquals(RPCFuture.Status.ERROR, future.status());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.nnkwrik.kirinrpc.rpc.consumer.loadBalancer;
+
+import io.github.nnkwrik.kirinrpc.netty.cli.ChannelSnapshot;
+import io.github.nnkwrik.kirinrpc.netty.cli.KChannel;
+import io.github.nnkwrik.kirinrpc.netty.cli.TestChannels;
+import io.github.nnkwrik.kirinrpc.rpc.ConnectFailedException;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 17:20
+ */
+public class ConsistentHashLoadBalancerTest {
+
+    private static final int KEYS = 3000;
+
+    private final ServiceMeta service = new ServiceMeta("io.github.nnkwrik.TestService", "*");
+
+    private final KChannel a = TestChannels.kChannel(service, "10.0.0.1", 7000);
+    private final KChannel b = TestChannels.kChannel(service, "10.0.0.2", 7000);
+    private final KChannel c = TestChannels.kChannel(service, "10.0.0.3", 7000);
+
+    private final ConsistentHashLoadBalancer loadBalancer = new ConsistentHashLoadBalancer();
+
+    private KirinRequest request(Object key) {
+        KirinRequest request = new KirinRequest();
+        request.setServiceMeta(service);
+        request.setArgs(new Object[]{key});
+        return request;
+    }
+
+    private Map<Integer, KChannel> route(ChannelSnapshot snapshot) {
+        Map<Integer, KChannel> routes = new HashMap<>();
+        for (int key = 0; key < KEYS; key++) {
+            routes.put(key, loadBalancer.doSelect(snapshot, request(key)));
+        }
+        return routes;
+    }
+
+    @Test
+    public void sameKeySameProvider() {
+        ChannelSnapshot snapshot = TestChannels.snapshot(service, 1, a, b, c);
+        assertEquals(route(snapshot), route(snapshot));
+    }
+
+    @Test
+    public void spreadKeysOverProviders() {
+        Map<KChannel, Integer> counts = new IdentityHashMap<>();
+        for (KChannel channel : route(TestChannels.snapshot(service, 1, a, b, c)).values()) {
+            counts.merge(channel, 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            //160个虚拟节点时偏差不会太大
+            assertTrue("unbalanced: " + count, count > KEYS / 3 / 2 && count < KEYS / 3 * 2);
+        }
+    }
+
+    @Test
+    public void onlyMoveKeysOfRemovedProvider() {
+        Map<Integer, KChannel> before = route(TestChannels.snapshot(service, 1, a, b, c));
+        Map<Integer, KChannel> after = route(TestChannels.snapshot(service, 2, a, c));
+        for (int key = 0; key < KEYS; key++) {
+            if (before.get(key) != b) {
+                assertSame("key " + key + " moved", before.get(key), after.get(key));
+            } else {
+                assertNotSame(b, after.get(key));
+            }
+        }
+        //重新上线后回到原来的位置
+        assertEquals(before, route(TestChannels.snapshot(service, 3, a, b, c)));
+    }
+
+    @Test
+    public void spillOverWhenProviderIsOverloaded() {
+        ChannelSnapshot snapshot = TestChannels.snapshot(service, 1, a, b, c);
+        KChannel owner = loadBalancer.doSelect(snapshot, request("hot"));
+
+        //上限为ceil(1.25 * (10 + 1) / 3) = 5
+        long[] begins = new long[10];
+        for (int i = 0; i < begins.length; i++) {
+            begins[i] = owner.stats().begin();
+        }
+        KChannel spilled = loadBalancer.doSelect(snapshot, request("hot"));
+        assertNotSame(owner, spilled);
+        //溢出的位置也是固定的
+        assertSame(spilled, loadBalancer.doSelect(snapshot, request("hot")));
+
+        for (long begin : begins) {
+            owner.stats().end(begin, false);
+        }
+        assertSame(owner, loadBalancer.doSelect(snapshot, request("hot")));
+    }
+
+    @Test
+    public void randomWithoutHashArgument() {
+        ChannelSnapshot snapshot = TestChannels.snapshot(service, 1, a, b, c);
+        KirinRequest request = new KirinRequest();
+        request.setServiceMeta(service);
+        KChannel selected = loadBalancer.doSelect(snapshot, request);
+        assertTrue(selected == a || selected == b || selected == c);
+    }
+
+    @Test
+    public void hashArrayArgumentByContent() {
+        ChannelSnapshot snapshot = TestChannels.snapshot(service, 1, a, b, c);
+        for (int key = 0; key < 100; key++) {
+            assertSame(loadBalancer.doSelect(snapshot, request(new int[]{key, key + 1})),
+                    loadBalancer.doSelect(snapshot, request(new int[]{key, key + 1})));
+            assertSame(loadBalancer.doSelect(snapshot, request(new String[]{"k" + key})),
+                    loadBalancer.doSelect(snapshot, request(new String[]{"k" + key})));
+        }
+    }
+
+    @Test
+    public void evictRingWithoutProvider() {
+        loadBalancer.doSelect(TestChannels.snapshot(service, 1, a, b, c), request("key"));
+        assertEquals(1, loadBalancer.ringCount());
+        //ConnectorManager中没有这个服务的提供者
+        try {
+            loadBalancer.select(request("key"));
+            fail();
+        } catch (ConnectFailedException e) {
+            assertEquals(0, loadBalancer.ringCount());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.nnkwrik.kirinrpc.rpc.provider;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 19:20
+ */
+public class AdmissionControllerTest {
+
+    private static final long TARGET_MILLIS = 5;
+
+    private static final long INTERVAL_MILLIS = 50;
+
+    private final AdmissionController controller = new AdmissionController();
+
+    @Before
+    public void setUp() {
+        controller.setTargetMillis(TARGET_MILLIS);
+        controller.setIntervalMillis(INTERVAL_MILLIS);
+    }
+
+    /**
+     * 提交一个在队列中等待了delayMillis的任务并取出
+     */
+    private boolean dequeue(long delayMillis) {
+        controller.onSubmit();
+        return controller.onDequeue(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+
+    private void nextInterval() throws InterruptedException {
+        Thread.sleep(INTERVAL_MILLIS + 10);
+    }
+
+    private void overload() throws InterruptedException {
+        assertTrue(dequeue(8));
+        nextInterval();
+        //周期内最短的等待时间8ms超过了目标, 这次的等待时间没有超过2倍目标, 照常执行
+        assertTrue(dequeue(8));
+        assertTrue(controller.isOverloaded());
+    }
+
+    @Test
+    public void disabledByDefault() {
+        AdmissionController disabled = new AdmissionController();
+        disabled.onSubmit();
+        assertTrue(disabled.onDequeue(System.nanoTime() - TimeUnit.SECONDS.toNanos(10)));
+        assertFalse(disabled.isOverloaded());
+        disabled.onSubmit();
+        assertTrue(disabled.admit());
+    }
+
+    @Test
+    public void firstDequeueStartsInterval() throws InterruptedException {
+        //空闲了超过一个周期后的第一次取出没有可比较的样本, 不能判断为过载
+        nextInterval();
+        assertTrue(dequeue(0));
+        assertFalse(controller.isOverloaded());
+        nextInterval();
+        assertTrue(dequeue(0));
+        assertFalse(controller.isOverloaded());
+    }
+
+    @Test
+    public void overloadedAfterIntervalAboveTarget() throws InterruptedException {
+        overload();
+        //过载时等待超过2倍目标的任务被丢弃
+        assertFalse(dequeue(20));
+        assertEquals(1, controller.dropped());
+        assertEquals(0, controller.queued());
+    }
+
+    @Test
+    public void shortDelayInIntervalKeepsNormal() throws InterruptedException {
+        assertTrue(dequeue(8));
+        assertTrue(dequeue(1));
+        nextInterval();
+        //周期内最短的等待时间没有超过目标
+        assertTrue(dequeue(8));
+        assertFalse(controller.isOverloaded());
+    }
+
+    @Test
+    public void recoverAfterIntervalBelowTarget() throws InterruptedException {
+        overload();
+        assertTrue(dequeue(1));
+        nextInterval();
+        assertTrue(dequeue(1));
+        assertFalse(controller.isOverloaded());
+        assertTrue(dequeue(20));
+    }
+
+    @Test
+    public void shedOnlyWhileQueued() throws InterruptedException {
+        overload();
+        controller.onSubmit();
+        assertFalse(controller.admit());
+        assertEquals(1, controller.shed());
+        //队列空了以后总会放行, 让CoDel有机会更新状态
+        controller.onDequeue(System.nanoTime());
+        assertTrue(controller.admit());
+        assertEquals(1, controller.shed());
+    }
+
+    @Test
+    public void dropAfterMaxQueueTime() {
+        controller.setMaxQueueTimeMillis(10);
+        assertFalse(dequeue(20));
+        assertEquals(1, controller.dropped());
+        assertFalse(controller.isOverloaded());
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.nnkwrik.kirinrpc.rpc.provider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 18:20
+ */
+public class ConcurrencyLimiterTest {
+
+    /**
+     * 并发达到当前上限, 再以相同的执行时间全部结束
+     */
+    private static void round(ConcurrencyLimiter limiter, long rttNanos) {
+        int n = limiter.limit();
+        for (int i = 0; i < n; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        for (int i = 0; i < n; i++) {
+            limiter.release(rttNanos);
+        }
+    }
+
+    @Test
+    public void rejectOverLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2, 10);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.rejected());
+        assertEquals(2, limiter.inFlight());
+
+        //没有执行时间时不调整上限
+        limiter.release(0);
+        assertEquals(2, limiter.limit());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void clampInitialLimit() {
+        assertEquals(1, new ConcurrencyLimiter("test", 0, 10).limit());
+        assertEquals(10, new ConcurrencyLimiter("test", 100, 10).limit());
+        assertEquals(1, new ConcurrencyLimiter("test", 5, 0).limit());
+    }
+
+    @Test
+    public void growWithoutQueueing() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20, 1000);
+        round(limiter, 1000);
+        assertEquals(1000, limiter.rttNoLoadNanos());
+        assertTrue("limit " + limiter.limit(), limiter.limit() > 20);
+    }
+
+    @Test
+    public void neverExceedMaxLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20, 25);
+        for (int i = 0; i < 5; i++) {
+            round(limiter, 1000);
+        }
+        assertEquals(25, limiter.limit());
+    }
+
+    @Test
+    public void shrinkWhenLatencyGrows() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20, 1000);
+        round(limiter, 1000);
+        int before = limiter.limit();
+        //执行时间变为10倍, 说明大部分请求在排队
+        round(limiter, 10000);
+        assertTrue("limit " + limiter.limit() + " before " + before, limiter.limit() < before);
+    }
+
+    @Test
+    public void ignoreLowConcurrency() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20, 1000);
+        round(limiter, 1000);
+        int before = limiter.limit();
+        //并发远低于上限时执行时间再长也不调整
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(10000);
+        }
+        assertEquals(before, limiter.limit());
+    }
+}
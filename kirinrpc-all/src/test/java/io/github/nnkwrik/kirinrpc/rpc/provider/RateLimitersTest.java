@@ -0,0 +1,61 @@
+package io.github.nnkwrik.kirinrpc.rpc.provider;
+
+import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 18:10
+ */
+public class RateLimitersTest {
+
+    private final RateLimiters rateLimiters = new RateLimiters();
+
+    private Status check(String appName) {
+        return rateLimiters.check(appName, null, null);
+    }
+
+    @Test
+    public void unlimitedByDefault() {
+        for (int i = 0; i < 1000; i++) {
+            assertNull(check("any"));
+        }
+        assertEquals(0, rateLimiters.appLimited());
+    }
+
+    @Test
+    public void limitConfiguredApp() {
+        Map<String, Integer> limits = new HashMap<>();
+        limits.put("order", 2);
+        limits.put("admin", 0);
+        rateLimiters.setAppLimits(limits);
+        rateLimiters.setDefaultAppLimit(1);
+
+        assertNull(check("order"));
+        assertNull(check("order"));
+        assertEquals(Status.APP_FLOW_CONTROL, check("order"));
+        //配置为0的应用不限制
+        for (int i = 0; i < 100; i++) {
+            assertNull(check("admin"));
+        }
+        assertEquals(1, rateLimiters.appLimited());
+    }
+
+    @Test
+    public void unknownAppsShareDefaultBucket() {
+        rateLimiters.setAppLimits(new HashMap<>());
+        rateLimiters.setDefaultAppLimit(2);
+
+        assertNull(check("a"));
+        //改名或不发送应用名都不能绕过限流
+        assertNull(check("b"));
+        assertEquals(Status.APP_FLOW_CONTROL, check("c"));
+        assertEquals(Status.APP_FLOW_CONTROL, check(null));
+        assertEquals(2, rateLimiters.appLimited());
+    }
+}
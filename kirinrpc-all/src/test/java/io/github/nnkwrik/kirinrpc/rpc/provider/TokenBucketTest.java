@@ -0,0 +1,61 @@
+package io.github.nnkwrik.kirinrpc.rpc.provider;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nnkwrik
+ * @date 19/06/26 18:00
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void allowBurstThenReject() {
+        //100ms一个令牌, 测试期间不会补充
+        TokenBucket bucket = new TokenBucket(10, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void refillOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, 1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        Thread.sleep(5);
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    public void concurrentAcquireDoesNotExceedBurst() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 100);
+        AtomicInteger acquired = new AtomicInteger();
+        int threads = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.tryAcquire()) {
+                        acquired.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        //测试期间最多再补充几个令牌
+        assertTrue("acquired " + acquired.get(), acquired.get() >= 100 && acquired.get() <= 130);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositiveRate() {
+        new TokenBucket(0);
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.nnkwrik.kirinrpc.serializer;
+
+import io.github.nnkwrik.kirinrpc.netty.protocol.Status;
+import io.github.nnkwrik.kirinrpc.rpc.KirinRemoteException;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinResponse;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 服务抛出的异常经过kryo, hessian2和smile后能还原
+ *
+ * @author nnkwrik
+ * @date 19/06/26 18:10
+ */
+public class ExceptionRoundTripTest {
+
+    private static final String[] CODECS = {"kryo", "hessian2", "smile"};
+
+    public interface FileService {
+        String read(String path) throws IOException;
+    }
+
+    static class UndeclaredException extends RuntimeException {
+        UndeclaredException(String message) {
+            super(message);
+        }
+    }
+
+    @BeforeClass
+    public static void enable() {
+        for (String name : CODECS) {
+            SerializerHolder.enable(name);
+        }
+        SerializerHolder.register(FileService.class);
+    }
+
+    private static KirinRemoteException roundTrip(Serializer serializer, KirinRemoteException e) {
+        KirinResponse response = new KirinResponse();
+        response.setError(e);
+        byte[] bytes = serializer.writeObject(response);
+        Object result = serializer.readObject(bytes, KirinResponse.class).getResult();
+        assertTrue(serializer.name(), result instanceof KirinRemoteException);
+        return (KirinRemoteException) result;
+    }
+
+    private static void assertSameFrames(String codec, StackTraceElement[] expected, StackTraceElement[] actual) {
+        assertEquals(codec, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(codec, expected[i].getClassName(), actual[i].getClassName());
+            assertEquals(codec, expected[i].getMethodName(), actual[i].getMethodName());
+            assertEquals(codec, expected[i].getLineNumber(), actual[i].getLineNumber());
+        }
+    }
+
+    @Test
+    public void declaredException() {
+        IOException cause = new IOException("no such file");
+        KirinRemoteException e = new KirinRemoteException("Fail to invoke service for RPC request.", cause, Status.SERVICE_EXPECTED_ERROR);
+        //声明过的异常不需要替换
+        assertSame(e, AllowedTypes.transferable(e));
+
+        for (String name : CODECS) {
+            KirinRemoteException read = roundTrip(SerializerHolder.serializerImpl(name), e);
+            assertEquals(name, Status.SERVICE_EXPECTED_ERROR, read.getStatus());
+            assertEquals(name, e.getMessage(), read.getMessage());
+            assertTrue(name, read.getCause() instanceof IOException);
+            assertEquals(name, "no such file", read.getCause().getMessage());
+            assertSameFrames(name, cause.getStackTrace(), read.getCause().getStackTrace());
+        }
+    }
+
+    @Test
+    public void undeclaredExceptionIsReplaced() {
+        UndeclaredException cause = new UndeclaredException("boom");
+        KirinRemoteException e = AllowedTypes.transferable(
+                new KirinRemoteException("Fail to invoke service for RPC request.", cause, Status.SERVICE_EXPECTED_ERROR));
+        assertEquals(Status.SERVICE_EXPECTED_ERROR, e.getStatus());
+        assertTrue(e.getCause() instanceof KirinRemoteException);
+
+        for (String name : CODECS) {
+            KirinRemoteException read = roundTrip(SerializerHolder.serializerImpl(name), e);
+            assertEquals(name, Status.SERVICE_EXPECTED_ERROR, read.getStatus());
+            assertTrue(name, read.getCause() instanceof KirinRemoteException);
+            assertEquals(name, cause.toString(), read.getCause().getMessage());
+            assertSameFrames(name, cause.getStackTrace(), read.getCause().getStackTrace());
+        }
+    }
+
+    @Test
+    public void cyclicCauseIsCut() {
+        IOException first = new IOException("first");
+        IOException second = new IOException("second", first);
+        first.initCause(second);
+        KirinRemoteException e = AllowedTypes.transferable(
+                new KirinRemoteException("cycle", first, Status.SERVICE_EXPECTED_ERROR));
+
+        int depth = 0;
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            assertTrue(++depth < 10);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package benchmark.codec;
+
+import io.github.nnkwrik.kirinrpc.netty.handler.ProtocolDecoder;
+import io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.PlatformDependent;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比ReplayingDecoder实现的旧解码器和ProtocolDecoder.
+ * fragmented: 每次只到达chunkSize个字节, 一帧被拆成多次read.
+ * coalesced: 所有帧粘在一次read中到达.
+ *
+ * @author nnkwrik
+ * @date 19/06/10 14:35
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DecoderBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(DecoderBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+
+    private static final ByteBufAllocator allocator = new PooledByteBufAllocator(PlatformDependent.directBufferPreferred());
+
+    //每次benchmark调用解码的帧数
+    private static final int FRAME_COUNT = 64;
+
+    @Param({"64", "1024", "16384"})
+    int bodySize;
+
+    @Param({"fragmented", "coalesced"})
+    String input;
+
+    //fragmented时每次read到达的字节数
+    @Param({"7", "1460"})
+    int chunkSize;
+
+    private ByteBuf[] chunks;
+
+    private EmbeddedChannel replayingChannel;
+
+    private EmbeddedChannel frameChannel;
+
+    @Setup
+    public void setup() {
+        ByteBuf stream = allocator.directBuffer(FRAME_COUNT * (ProtocolHeader.HEADER_SIZE + bodySize));
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            stream.writeShort(ProtocolHeader.MAGIC)
+                    .writeByte(ProtocolHeader.REQUEST)
+                    .writeByte(0x00)
+                    .writeLong(i)
+                    .writeInt(bodySize);
+            for (int j = 0; j < bodySize; j++) {
+                stream.writeByte(j);
+            }
+        }
+
+        if ("coalesced".equals(input)) {
+            chunks = new ByteBuf[]{stream};
+        } else {
+            int total = stream.readableBytes();
+            chunks = new ByteBuf[(total + chunkSize - 1) / chunkSize];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = stream.retainedSlice(i * chunkSize, Math.min(chunkSize, total - i * chunkSize));
+            }
+            stream.release();
+        }
+
+        replayingChannel = newChannel(new ReplayingProtocolDecoder());
+        frameChannel = newChannel(new ProtocolDecoder());
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (ByteBuf chunk : chunks) {
+            chunk.release();
+        }
+        replayingChannel.finishAndReleaseAll();
+        frameChannel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void replayingDecoder(Blackhole bh) {
+        decode(replayingChannel, bh);
+    }
+
+    @Benchmark
+    public void frameDecoder(Blackhole bh) {
+        decode(frameChannel, bh);
+    }
+
+    private void decode(EmbeddedChannel channel, Blackhole bh) {
+        for (ByteBuf chunk : chunks) {
+            //模拟一次socket read: 每次都是新分配的buf, 解码器可以直接把它作为累积buf
+            ByteBuf read = allocator.directBuffer(chunk.readableBytes());
+            read.writeBytes(chunk, chunk.readerIndex(), chunk.readableBytes());
+            channel.writeInbound(read);
+            Object msg;
+            while ((msg = channel.readInbound()) != null) {
+                bh.consume(msg);
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
+
+    private static EmbeddedChannel newChannel(ChannelHandler decoder) {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        channel.config().setAllocator(allocator);
+        return channel;
+    }
+}
@@ -0,0 +1,96 @@
+package benchmark.codec;
+
+import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
+import io.github.nnkwrik.kirinrpc.netty.model.ResponsePayload;
+import io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ReplayingDecoder;
+
+import java.util.List;
+
+import static io.github.nnkwrik.kirinrpc.netty.protocol.ProtocolHeader.*;
+
+/**
+ * 基于ReplayingDecoder的旧解码器, 仅用于和ProtocolDecoder做对比.
+ * 每一帧的消息体都会拷贝到新的byte[]中
+ *
+ * @author nnkwrik
+ * @date 19/06/10 14:20
+ */
+public class ReplayingProtocolDecoder extends ReplayingDecoder<ReplayingProtocolDecoder.State> {
+
+    public ReplayingProtocolDecoder() {
+        super(State.HEADER_MAGIC);
+    }
+
+    // 协议头
+    private final ProtocolHeader header = new ProtocolHeader();
+
+    @Override
+    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf in, List<Object> out) throws Exception {
+        switch (state()) {
+            case HEADER_MAGIC:
+                checkMagic(in.readShort());             // MAGIC
+                checkpoint(State.HEADER_SIGN);
+            case HEADER_SIGN:
+                header.sign(in.readByte());             // 消息标志位
+                checkpoint(State.HEADER_STATUS);
+            case HEADER_STATUS:
+                header.status(in.readByte());           // 消息状态
+                checkpoint(State.HEADER_ID);
+            case HEADER_ID:
+                header.id(in.readLong());               // 消息id
+                checkpoint(State.HEADER_BODY_LENGTH);
+            case HEADER_BODY_LENGTH:
+                header.bodyLength(in.readInt());        // 消息体长度
+                checkpoint(State.BODY);
+            case BODY:
+                switch (header.sign()) {
+                    case HEARTBEAT:
+                        break;
+                    case REQUEST: {
+                        byte[] bytes = new byte[header.bodyLength()];
+                        in.readBytes(bytes);
+
+                        RequestPayload requestHolder = new RequestPayload(header.id(), Unpooled.wrappedBuffer(bytes));
+                        requestHolder.timestamp(System.currentTimeMillis());
+                        out.add(requestHolder);
+
+                        break;
+                    }
+                    case RESPONSE: {
+                        byte[] bytes = new byte[header.bodyLength()];
+                        in.readBytes(bytes);
+
+                        ResponsePayload responseHolder = new ResponsePayload(header.id(), Unpooled.wrappedBuffer(bytes));
+                        responseHolder.timestamp(System.currentTimeMillis());
+                        responseHolder.status(header.status());
+                        out.add(responseHolder);
+
+                        break;
+                    }
+
+                    default:
+                        throw new IllegalAccessException();
+                }
+                checkpoint(State.HEADER_MAGIC);
+        }
+    }
+
+    private static void checkMagic(short magic) {
+        if (MAGIC != magic) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    enum State {
+        HEADER_MAGIC,
+        HEADER_SIGN,
+        HEADER_STATUS,
+        HEADER_ID,
+        HEADER_BODY_LENGTH,
+        BODY
+    }
+}
@@ -0,0 +1,153 @@
+package benchmark.compress;
+
+import io.github.nnkwrik.kirinrpc.compress.Compressor;
+import io.github.nnkwrik.kirinrpc.compress.Compressors;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.internal.PlatformDependent;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各压缩算法在不同大小的消息体上的CPU开销和节省的字节数.
+ * 消息体是protostuff序列化后的列表结果, 和线上的响应相同.
+ * 每次调用节省的字节数由辅助计数器savedBytes/compressedBytes给出, 和ops一起看就是每秒节省的带宽.
+ *
+ * @author nnkwrik
+ * @date 19/06/13 16:30
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(CompressionBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+
+    private static final ByteBufAllocator allocator = new PooledByteBufAllocator(PlatformDependent.directBufferPreferred());
+
+    @Param({"lz4", "zstd", "snappy"})
+    String compressor;
+
+    //列表中的元素个数, 序列化后约为 80B / 1.3KB / 20KB / 320KB
+    @Param({"1", "16", "256", "4096"})
+    int orders;
+
+    private Compressor codec;
+
+    private ByteBuf body;
+
+    private ByteBuf compressed;
+
+    @Setup
+    public void setup() {
+        codec = Compressors.negotiate(compressor, compressor);
+        if (codec == null) {
+            throw new IllegalStateException(compressor + " is not on the classpath");
+        }
+        body = allocator.directBuffer();
+        SerializerHolder.serializerImpl().writeObject(body, createOrders(orders));
+        compressed = allocator.directBuffer();
+        codec.compress(body.duplicate(), compressed);
+    }
+
+    @TearDown
+    public void tearDown() {
+        body.release();
+        compressed.release();
+    }
+
+    @Benchmark
+    public void compress(Counters counters) {
+        ByteBuf out = allocator.directBuffer(body.readableBytes());
+        try {
+            codec.compress(body.duplicate(), out);
+            counters.compressedBytes += out.readableBytes();
+            counters.savedBytes += body.readableBytes() - out.readableBytes();
+        } finally {
+            out.release();
+        }
+    }
+
+    @Benchmark
+    public void decompress(Counters counters) {
+        ByteBuf out = allocator.directBuffer(body.readableBytes());
+        try {
+            codec.decompress(compressed.duplicate(), out, body.readableBytes());
+            counters.compressedBytes += compressed.readableBytes();
+            counters.savedBytes += body.readableBytes() - compressed.readableBytes();
+        } finally {
+            out.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+
+        public long compressedBytes;
+
+        public long savedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            compressedBytes = 0;
+            savedBytes = 0;
+        }
+    }
+
+    static Orders createOrders(int count) {
+        //固定种子, 每次运行的数据相同
+        Random random = new Random(count);
+        String[] items = {"keyboard", "monitor", "mouse", "laptop", "headset", "webcam", "dock", "cable"};
+        String[] cities = {"杭州市", "上海市", "北京市", "深圳市", "东京都", "大阪府"};
+        List<Order> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Order order = new Order();
+            order.id = 100000000L + random.nextInt(100000000);
+            order.userId = random.nextInt(1000000);
+            order.item = items[random.nextInt(items.length)];
+            order.quantity = 1 + random.nextInt(5);
+            order.price = random.nextInt(100000) / 100.0;
+            order.address = cities[random.nextInt(cities.length)] + " 文一西路" + random.nextInt(1000) + "号";
+            order.createTime = 1560000000000L + random.nextInt(86400000);
+            list.add(order);
+        }
+        Orders orders = new Orders();
+        orders.orders = list;
+        return orders;
+    }
+
+    static class Orders implements Serializable {
+        List<Order> orders;
+    }
+
+    static class Order implements Serializable {
+        long id;
+        int userId;
+        String item;
+        int quantity;
+        double price;
+        String address;
+        long createTime;
+    }
+}
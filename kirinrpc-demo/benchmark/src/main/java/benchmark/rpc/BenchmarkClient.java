@@ -10,7 +10,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -52,6 +54,7 @@ public class BenchmarkClient {
 
         syncCall();
 //        futureCall();
+//        completableFutureCall();
     }
 
     private static void syncCall() {
@@ -176,4 +179,58 @@ public class BenchmarkClient {
         logger.warn("[AsyncInvoke Benchmark] Request count: " + count.get() + ", time: " + second + " second, qps: " + count.get() / second);
     }
 
+    private static void completableFutureCall() {
+        final Service service = ProxyFactory.factory(Service.class)
+                .group(ANY_GROUP)
+                .invokerType(ProxyFactory.InvokerType.ASYNC)
+                .newProxy();
+
+        for (int i = 0; i < 10000; i++) {
+            try {
+                service.helloFuture("warmUp").join();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+
+        final int t = 8000;
+        int processors = Runtime.getRuntime().availableProcessors();
+        long start = System.currentTimeMillis();
+        final CountDownLatch latch = new CountDownLatch(processors << 4);
+        final AtomicLong count = new AtomicLong();
+        final int futureSize = 80;
+        for (int i = 0; i < (processors << 4); i++) {
+            new Thread(() -> {
+                CompletableFuture<?>[] futures = new CompletableFuture<?>[futureSize];
+                int size = 0;
+                for (int i1 = 0; i1 < t; i1++) {
+                    //不经过ThreadLocal, 结果通过回调计数
+                    futures[size++] = service.helloFuture("kirin").whenComplete((result, cause) -> {
+                        if (cause != null) {
+                            cause.printStackTrace();
+                        } else if (count.getAndIncrement() % 10000 == 0) {
+                            logger.warn("count=" + count.get());
+                        }
+                    });
+                    if (size == futureSize) {
+                        CompletableFuture.allOf(futures).exceptionally(e -> null).join();
+                        size = 0;
+                    }
+                }
+                if (size > 0) {
+                    CompletableFuture.allOf(Arrays.copyOf(futures, size)).exceptionally(e -> null).join();
+                }
+                latch.countDown();
+            }).start();
+        }
+        try {
+            latch.await();
+            logger.warn("count=" + count.get());
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        long second = (System.currentTimeMillis() - start) / 1000;
+        logger.warn("[CompletableFuture Benchmark] Request count: " + count.get() + ", time: " + second + " second, qps: " + count.get() / second);
+    }
+
 }
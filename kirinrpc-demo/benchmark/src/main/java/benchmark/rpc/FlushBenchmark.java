@@ -0,0 +1,92 @@
+package benchmark.rpc;
+
+import io.github.nnkwrik.kirinrpc.netty.cli.ConnectorManager;
+import io.github.nnkwrik.kirinrpc.netty.srv.KirinServerAcceptor;
+import io.github.nnkwrik.kirinrpc.registry.model.RegisterMeta;
+import io.github.nnkwrik.kirinrpc.rpc.consumer.ProxyFactory;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.github.nnkwrik.kirinrpc.rpc.provider.ServiceBeanContainer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.github.nnkwrik.kirinrpc.common.Constants.ANY_GROUP;
+import static io.github.nnkwrik.kirinrpc.common.Constants.DEFAULT_WIGHT;
+
+/**
+ * 多个线程同时同步调用时, 每个消息一次writeAndFlush, 合并flush, 合并成BATCH消息三种写出方式的对比.
+ * Throughput模式的结果是QPS, SampleTime模式的结果中有p99延迟.
+ * ConnectorManager是单例, 每组参数在单独的JVM中运行
+ *
+ * @author nnkwrik
+ * @date 19/06/23 9:30
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(64)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FlushBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(FlushBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+
+    private static final int PORT = 7072;
+
+    @Param({"flush", "consolidate", "batch"})
+    String write;
+
+    private KirinServerAcceptor acceptor;
+
+    private Service service;
+
+    @Setup
+    public void setup() throws Exception {
+        ServiceBeanContainer serviceBeanContainer = new ServiceBeanContainer();
+        serviceBeanContainer.addServiceBean(new ServiceImpl());
+        acceptor = new KirinServerAcceptor(serviceBeanContainer, PORT);
+
+        ConnectorManager connectorManager = ConnectorManager.getInstance();
+        if ("consolidate".equals(write)) {
+            acceptor.setFlushConsolidation(true);
+            connectorManager.setFlushConsolidation(true);
+        } else if ("batch".equals(write)) {
+            acceptor.setBatchWindowMicros(0);
+            connectorManager.setBatchWindowMicros(0);
+        }
+        acceptor.start(false);
+
+        RegisterMeta registerMeta = new RegisterMeta();
+        registerMeta.setAppName("benchmark-provider");
+        registerMeta.setWight(DEFAULT_WIGHT);
+        registerMeta.setAddress(new RegisterMeta.Address("127.0.0.1", PORT));
+        registerMeta.setServiceMeta(new ServiceMeta(Service.class.getName(), ANY_GROUP));
+        connectorManager.addConnection(registerMeta);
+
+        service = ProxyFactory.factory(Service.class)
+                .group(ANY_GROUP)
+                .invokerType(ProxyFactory.InvokerType.SYNC)
+                .newProxy();
+    }
+
+    @TearDown
+    public void tearDown() {
+        acceptor.shutdown();
+    }
+
+    @Benchmark
+    public String hello() {
+        return service.hello("kirin");
+    }
+}
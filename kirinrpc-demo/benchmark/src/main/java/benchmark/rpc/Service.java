@@ -1,5 +1,7 @@
 package benchmark.rpc;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author nnkwrik
  * @date 19/06/06 10:03
@@ -8,4 +10,6 @@ public interface Service {
 
     String hello(String arg);
 
+    CompletableFuture<String> helloFuture(String arg);
+
 }
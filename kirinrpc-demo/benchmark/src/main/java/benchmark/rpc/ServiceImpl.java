@@ -3,6 +3,8 @@ package benchmark.rpc;
 import io.github.nnkwrik.kirinrpc.common.Constants;
 import io.github.nnkwrik.kirinrpc.springboot.annotation.KirinProvideService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author nnkwrik
  * @date 19/06/06 10:21
@@ -14,4 +16,8 @@ public class ServiceImpl implements Service {
         return "hello " + arg;
     }
 
+    public CompletableFuture<String> helloFuture(String arg) {
+        return CompletableFuture.completedFuture("hello " + arg);
+    }
+
 }
@@ -0,0 +1,96 @@
+package benchmark.serialization;
+
+import benchmark.rpc.Service;
+import io.github.nnkwrik.kirinrpc.rpc.model.Handshake;
+import io.github.nnkwrik.kirinrpc.rpc.model.KirinRequest;
+import io.github.nnkwrik.kirinrpc.rpc.model.ServiceMeta;
+import io.github.nnkwrik.kirinrpc.serializer.SerializerHolder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.internal.PlatformDependent;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完整的请求和握手后只带方法id的请求, 序列化的开销和消息体大小.
+ * 每次调用的消息体字节数由辅助计数器bodyBytes给出
+ *
+ * @author nnkwrik
+ * @date 19/06/20 15:12
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RequestBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(RequestBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+
+    private static final ByteBufAllocator allocator = new PooledByteBufAllocator(PlatformDependent.directBufferPreferred());
+
+    private KirinRequest full;
+
+    private KirinRequest compact;
+
+    @Setup
+    public void setup() {
+        Object[] args = {"kirin"};
+
+        full = new KirinRequest();
+        full.setServiceMeta(new ServiceMeta(Service.class.getName(), "any"));
+        full.setMethodName("hello");
+        full.setArgTypes(new Class<?>[]{String.class});
+        full.setArgs(args);
+
+        compact = new KirinRequest();
+        compact.setMethodId(Handshake.methodId(3, 1));
+        compact.setArgs(args);
+    }
+
+    @Benchmark
+    public KirinRequest fullRequest(Counters counters) {
+        return roundTrip(full, counters);
+    }
+
+    @Benchmark
+    public KirinRequest compactRequest(Counters counters) {
+        return roundTrip(compact, counters);
+    }
+
+    private static KirinRequest roundTrip(KirinRequest request, Counters counters) {
+        ByteBuf body = allocator.directBuffer();
+        try {
+            SerializerHolder.serializerImpl().writeObject(body, request);
+            counters.bodyBytes += body.readableBytes();
+            return SerializerHolder.serializerImpl().readObject(body, KirinRequest.class);
+        } finally {
+            body.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+
+        public long bodyBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bodyBytes = 0;
+        }
+    }
+}
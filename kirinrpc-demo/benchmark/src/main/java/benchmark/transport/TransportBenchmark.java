@@ -0,0 +1,201 @@
+package benchmark.transport;
+
+import io.github.nnkwrik.kirinrpc.netty.handler.ProtocolDecoder;
+import io.github.nnkwrik.kirinrpc.netty.handler.ProtocolEncoder;
+import io.github.nnkwrik.kirinrpc.netty.model.RequestPayload;
+import io.github.nnkwrik.kirinrpc.netty.model.ResponsePayload;
+import io.github.nnkwrik.kirinrpc.netty.shm.ShmAcceptor;
+import io.github.nnkwrik.kirinrpc.netty.shm.ShmAddress;
+import io.github.nnkwrik.kirinrpc.netty.shm.ShmChannel;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比TCP loopback和共享内存环的一次请求-响应往返.
+ * 两端使用和RPC相同的ProtocolEncoder/ProtocolDecoder, 提供者把消息体原样作为响应写回, 不经过序列化和业务线程池.
+ *
+ * @author nnkwrik
+ * @date 19/06/13 10:20
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Dkirin.shm.busySpin=true")
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransportBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(TransportBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+
+    private static final ByteBufAllocator allocator = new PooledByteBufAllocator(PlatformDependent.directBufferPreferred());
+
+    @Param({"tcp", "shm"})
+    String transport;
+
+    @Param({"64", "1024", "16384"})
+    int bodySize;
+
+    private EventLoopGroup serverGroup;
+
+    private EventLoopGroup clientGroup;
+
+    private ShmAcceptor shmAcceptor;
+
+    private File shmDir;
+
+    private Channel channel;
+
+    private ByteBuf body;
+
+    private long id;
+
+    private volatile CompletableFuture<ResponsePayload> pending;
+
+    @Setup
+    public void setup() throws Exception {
+        serverGroup = new NioEventLoopGroup(1);
+        clientGroup = new NioEventLoopGroup(1);
+
+        SocketAddress remoteAddress;
+        Bootstrap bootstrap = new Bootstrap()
+                .group(clientGroup)
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new ProtocolDecoder(), new ProtocolEncoder(), new ClientHandler());
+                    }
+                });
+
+        if ("shm".equals(transport)) {
+            shmDir = Files.createTempDirectory("kirin-shm").toFile();
+            shmAcceptor = new ShmAcceptor(shmDir.getPath(), serverGroup, serverInitializer(), allocator);
+            shmAcceptor.start();
+            remoteAddress = new ShmAddress(shmDir.getPath());
+            bootstrap.channel(ShmChannel.class);
+        } else {
+            Channel server = new ServerBootstrap()
+                    .group(serverGroup)
+                    .channel(NioServerSocketChannel.class)
+                    .childOption(ChannelOption.ALLOCATOR, allocator)
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(serverInitializer())
+                    .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+            remoteAddress = server.localAddress();
+            bootstrap.channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true);
+        }
+
+        channel = bootstrap.connect(remoteAddress).sync().channel();
+
+        body = allocator.directBuffer(bodySize);
+        for (int i = 0; i < bodySize; i++) {
+            body.writeByte(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.close().syncUninterruptibly();
+        if (shmAcceptor != null) {
+            shmAcceptor.shutdown();
+        }
+        clientGroup.shutdownGracefully().syncUninterruptibly();
+        serverGroup.shutdownGracefully().syncUninterruptibly();
+        body.release();
+        if (shmDir != null) {
+            File[] files = shmDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            shmDir.delete();
+        }
+    }
+
+    @Benchmark
+    public long roundTrip() throws Exception {
+        CompletableFuture<ResponsePayload> future = new CompletableFuture<>();
+        pending = future;
+        channel.writeAndFlush(new RequestPayload(++id, body.retainedDuplicate()));
+        ResponsePayload response = future.get(3, TimeUnit.SECONDS);
+        try {
+            return response.id();
+        } finally {
+            response.release();
+        }
+    }
+
+    private static ChannelInitializer<Channel> serverInitializer() {
+        return new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ch.pipeline().addLast(new ProtocolDecoder(), new ProtocolEncoder(), new EchoHandler());
+            }
+        };
+    }
+
+    /**
+     * 把请求的消息体原样作为响应写回
+     */
+    private static class EchoHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof RequestPayload) {
+                RequestPayload request = (RequestPayload) msg;
+                ResponsePayload response = new ResponsePayload(request.id(), request.content());
+                ctx.writeAndFlush(response, ctx.voidPromise());
+            } else {
+                ctx.fireChannelRead(msg);
+            }
+        }
+    }
+
+    private class ClientHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof ResponsePayload) {
+                CompletableFuture<ResponsePayload> future = pending;
+                if (future == null || !future.complete((ResponsePayload) msg)) {
+                    ((ResponsePayload) msg).release();
+                }
+            } else {
+                ctx.fireChannelRead(msg);
+            }
+        }
+    }
+}